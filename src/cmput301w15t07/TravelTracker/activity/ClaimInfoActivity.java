@@ -35,7 +35,6 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.text.TextUtils;
 import android.text.format.DateFormat;
-import android.util.SparseArray;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -46,7 +45,9 @@ import android.widget.ScrollView;
 import android.widget.TextView;
 import android.widget.Toast;
 import cmput301w15t07.TravelTracker.R;
+import cmput301w15t07.TravelTracker.model.ChangeSet;
 import cmput301w15t07.TravelTracker.model.Claim;
+import cmput301w15t07.TravelTracker.model.ClaimDetails;
 import cmput301w15t07.TravelTracker.model.DataSource;
 import cmput301w15t07.TravelTracker.model.Destination;
 import cmput301w15t07.TravelTracker.model.Geolocation;
@@ -56,8 +57,9 @@ import cmput301w15t07.TravelTracker.model.Tag;
 import cmput301w15t07.TravelTracker.model.User;
 import cmput301w15t07.TravelTracker.model.UserData;
 import cmput301w15t07.TravelTracker.model.UserRole;
-import cmput301w15t07.TravelTracker.serverinterface.MultiCallback;
 import cmput301w15t07.TravelTracker.serverinterface.ResultCallback;
+import cmput301w15t07.TravelTracker.serverinterface.ResultFuture;
+import cmput301w15t07.TravelTracker.serverinterface.Constants.Type;
 import cmput301w15t07.TravelTracker.util.ApproverCommentAdapter;
 import cmput301w15t07.TravelTracker.util.ClaimUtilities;
 import cmput301w15t07.TravelTracker.util.DatePickerFragment;
@@ -77,18 +79,6 @@ import cmput301w15t07.TravelTracker.util.SelectTagFragment;
  *
  */
 public class ClaimInfoActivity extends TravelTrackerActivity implements Observer<DataSource> {
-    /** ID used to retrieve items from MutliCallback. */
-    public static final int MULTI_ITEMS_ID = 0;
-    
-    /** ID used to retrieve claimant from MutliCallback. */
-    public static final int MULTI_CLAIMANT_ID = 1;
-    
-    /** ID used to retrieve last approver from MutliCallback. */
-    public static final int MULTI_APPROVER_ID = 2;
-    
-    /** ID used to retrieve tags from MultiCallback. */
-    public static final int MULTI_TAGS_ID = 3;
-    
     /** Data about the logged-in user. */
     private UserData userData;
     
@@ -190,7 +180,7 @@ public class ClaimInfoActivity extends TravelTrackerActivity implements Observer
         // Get claim info
         claimID = (UUID) bundle.getSerializable(CLAIM_UUID);
         
-        datasource.addObserver(this);
+        datasource.addChangeObserver(changeObserver);
     }
     
     @Override
@@ -208,7 +198,7 @@ public class ClaimInfoActivity extends TravelTrackerActivity implements Observer
     protected void onDestroy() {
         super.onDestroy();
         
-        datasource.removeObserver(this);
+        datasource.removeChangeObserver(changeObserver);
     }
     
     /**
@@ -217,7 +207,21 @@ public class ClaimInfoActivity extends TravelTrackerActivity implements Observer
      */
     @Override
     public void updateActivity(){
-        datasource.getClaim(claimID, new ClaimCallback());
+        ResultFuture<ClaimDetails> details = new ResultFuture<ClaimDetails>();
+        datasource.getClaimDetails(claimID, details);
+        untilDestroyed(details).addCallback(new ClaimDetailsCallback());
+    }
+    
+    /**
+     * Changes to other claims are irrelevant.  Any item, user or tag change may belong to
+     * this claim, as their parents are not known from the ChangeSet.
+     */
+    @Override
+    protected boolean isAffectedBy(ChangeSet changes) {
+        return changes.affects(claimID)
+                || changes.affects(Type.ITEM)
+                || changes.affects(Type.USER)
+                || changes.affects(Type.TAG);
     }
     
     /**
@@ -712,7 +716,7 @@ public class ClaimInfoActivity extends TravelTrackerActivity implements Observer
     public void submitClaim() {
         // Submit only if claim has at least one destination, a description, all items of
         // claim have a description, and all items of claim are flagged as complete.
-        datasource.getAllItems(new ResultCallback<Collection<Item>>() {
+        datasource.getItemsForClaim(claim.getUUID(), new ResultCallback<Collection<Item>>() {
 
             @Override
             public void onResult(Collection<Item> items) {
@@ -725,11 +729,8 @@ public class ClaimInfoActivity extends TravelTrackerActivity implements Observer
                     boolean indicators = false;
                     
                     for(Item item : items) {
-                        // Only inspect items belonging to this claim.
-                        if (item.getClaim().equals(claim.getUUID())) {
-                            descriptions = (item.getDescription().isEmpty()) ? true : descriptions;
-                            indicators = (!item.isComplete()) ? true : indicators;
-                        }
+                        descriptions = (item.getDescription().isEmpty()) ? true : descriptions;
+                        indicators = (!item.isComplete()) ? true : indicators;
                     }
                     
                     if (descriptions && indicators)
@@ -785,9 +786,12 @@ public class ClaimInfoActivity extends TravelTrackerActivity implements Observer
                 switch (which){
                 case DialogInterface.BUTTON_POSITIVE:
                     
+                    // one change for observers and sync, not three
+                    claim.beginEdit();
                     claim.addComment(commentText);
                     claim.setApprover(userData.getUUID());
                     claim.setStatus(Status.RETURNED);
+                    claim.commit();
                     ClaimInfoActivity.this.finish();
                     break;
 
@@ -818,9 +822,12 @@ public class ClaimInfoActivity extends TravelTrackerActivity implements Observer
             public void onClick(DialogInterface dialog, int which) {
                 switch (which){
                 case DialogInterface.BUTTON_POSITIVE:
+                    // one change for observers and sync, not three
+                    claim.beginEdit();
                     claim.addComment(commentText);
                     claim.setApprover(userData.getUUID());
                     claim.setStatus(Status.APPROVED);
+                    claim.commit();
                     ClaimInfoActivity.this.finish();
                     break;
 
@@ -866,55 +873,14 @@ public class ClaimInfoActivity extends TravelTrackerActivity implements Observer
     }
     
     /**
-     * Callback for claim data.
+     * Callback for the claim and everything displayed with it.
      */
-    class ClaimCallback implements ResultCallback<Claim> {
+    class ClaimDetailsCallback implements ResultCallback<ClaimDetails> {
         @Override
-        public void onResult(Claim claim) {
-            ClaimInfoActivity.this.claim = claim;
-
-            // Retrieve data
-            MultiCallback multi = new MultiCallback(new ClaimDataMultiCallback());
-            
-            // Create callbacks for MultiCallback
-            datasource.getAllItems(multi.<Collection<Item>>createCallback(MULTI_ITEMS_ID));
-            datasource.getUser(claim.getUser(), multi.<User>createCallback(MULTI_CLAIMANT_ID));
-            datasource.getAllTags(multi.<Collection<Tag>>createCallback(MULTI_TAGS_ID));
-            
-            UUID approverID = claim.getApprover();
-            if (approverID != null) {
-                datasource.getUser(approverID, multi.<User>createCallback(MULTI_APPROVER_ID));
-            }
-            
-            multi.ready();
-        }
-        
-        @Override
-        public void onError(String message) {
-            Toast.makeText(ClaimInfoActivity.this, message, Toast.LENGTH_LONG).show();
-        }
-    }
-    
-    /**
-     * Callback for multiple types of claim data.
-     */
-    class ClaimDataMultiCallback implements ResultCallback<SparseArray<Object>> {
-        @Override
-        public void onResult(SparseArray<Object> result) {
-            User claimant = (User) result.get(MULTI_CLAIMANT_ID);
-            
-            User approver = null;
-            if (claim.getApprover() != null) {
-                approver = (User) result.get(MULTI_APPROVER_ID);
-            }
-            
-            // We know the return results are the right type, so unchecked casts shouldn't be problematic.
-            @SuppressWarnings("unchecked")
-            Collection<Item> items = (Collection<Item>) result.get(MULTI_ITEMS_ID);
-            @SuppressWarnings("unchecked")
-            Collection<Tag> tags = (Collection<Tag>) result.get(MULTI_TAGS_ID);
+        public void onResult(ClaimDetails details) {
+            ClaimInfoActivity.this.claim = details.getClaim();
             
-            onGetAllData(items, claimant, approver, tags);
+            onGetAllData(details.getItems(), details.getClaimant(), details.getApprover(), details.getTags());
         }
         
         @Override
@@ -222,15 +222,16 @@ public class ClaimsListActivity extends TravelTrackerActivity {
         //DONT delete directly with the positions
         //They will change as you delete items
         ArrayList<Claim> claimsToDelete = new ArrayList<Claim>();
-        deleteClaimCallback dcb = new deleteClaimCallback();
         for (Integer i : adapterPositions){
             claimsToDelete.add(adapter.getItem(i));
         }
         
+        ArrayList<UUID> claimIDs = new ArrayList<UUID>();
         for (Claim c : claimsToDelete){
             adapter.remove(c);
-            datasource.deleteClaim(c.getUUID(), dcb);
+            claimIDs.add(c.getUUID());
         }
+        datasource.deleteClaims(claimIDs, new deleteClaimCallback());
     }
     
     /**
@@ -397,7 +398,7 @@ public class ClaimsListActivity extends TravelTrackerActivity {
         }
     }
     
-    /** Callback for deleting a claim */
+    /** Callback for deleting claims */
     class deleteClaimCallback implements ResultCallback<Void>{
         @Override
         public void onResult(Void result) { }
@@ -57,6 +57,7 @@ import android.widget.EditText;
 import android.widget.Spinner;
 import android.widget.Toast;
 import cmput301w15t07.TravelTracker.R;
+import cmput301w15t07.TravelTracker.model.ChangeSet;
 import cmput301w15t07.TravelTracker.model.Claim;
 import cmput301w15t07.TravelTracker.model.DataSource;
 import cmput301w15t07.TravelTracker.model.Geolocation;
@@ -68,6 +69,7 @@ import cmput301w15t07.TravelTracker.model.UserData;
 import cmput301w15t07.TravelTracker.model.UserRole;
 import cmput301w15t07.TravelTracker.serverinterface.MultiCallback;
 import cmput301w15t07.TravelTracker.serverinterface.ResultCallback;
+import cmput301w15t07.TravelTracker.serverinterface.Constants.Type;
 import cmput301w15t07.TravelTracker.util.DatePickerFragment;
 import cmput301w15t07.TravelTracker.util.Observer;
 import cmput301w15t07.TravelTracker.util.SelectLocationFragment;
@@ -182,7 +184,7 @@ public class ExpenseItemInfoActivity extends TravelTrackerActivity implements Ob
         // Get whether we came from ClaimInfoActivity or not
         fromClaimInfo = (Boolean) bundle.getSerializable(FROM_CLAIM_INFO);
         
-        datasource.addObserver(this);
+        datasource.addChangeObserver(changeObserver);
     }
 
     @Override
@@ -200,7 +202,7 @@ public class ExpenseItemInfoActivity extends TravelTrackerActivity implements Ob
     protected void onDestroy() {
         super.onDestroy();
         
-        datasource.removeObserver(this);
+        datasource.removeChangeObserver(changeObserver);
     }
     
     /**
@@ -217,7 +219,25 @@ public class ExpenseItemInfoActivity extends TravelTrackerActivity implements Ob
         datasource.getItem(itemID, multi.<Item>createCallback(MULTI_ITEM_KEY));
         
         // Notify ready so callbacks can execute
-        multi.ready();
+        untilDestroyed(multi.ready());
+    }
+    
+    /**
+     * Only the displayed claim and item are relevant, along with the claim's tags.
+     */
+    @Override
+    protected boolean isAffectedBy(ChangeSet changes) {
+        if (changes.affects(claimID) || changes.affects(itemID))
+            return true;
+        
+        // until the claim is loaded, its tags are not known
+        if (claim == null)
+            return changes.affects(Type.TAG);
+        for (UUID tag : claim.getTags()) {
+            if (changes.affects(tag))
+                return true;
+        }
+        return false;
     }
     
     @Override
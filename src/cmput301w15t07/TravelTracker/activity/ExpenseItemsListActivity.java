@@ -174,10 +174,10 @@ public class ExpenseItemsListActivity extends TravelTrackerActivity implements O
         
         // Create callbacks
         datasource.getClaim(claimID, multi.<Claim>createCallback(MULTI_CLAIM_KEY));
-        datasource.getAllItems(multi.<Collection<Item>>createCallback(MULTI_ITEMS_KEY));
+        datasource.getItemsForClaim(claimID, multi.<Collection<Item>>createCallback(MULTI_ITEMS_KEY));
         
         // Notify ready so callback can execute
-        multi.ready();
+        untilDestroyed(multi.ready());
     }
     
     /**
@@ -248,17 +248,13 @@ public class ExpenseItemsListActivity extends TravelTrackerActivity implements O
      */
     public void deleteItems(ArrayList<Integer> selectedItems) {
         // Deleting in place is bad
-        ArrayList<Item> delete = new ArrayList<Item>();
+        ArrayList<UUID> delete = new ArrayList<UUID>();
         for (int i: selectedItems) {
-            delete.add(adapter.getItem(i));
+            delete.add(adapter.getItem(i).getUUID());
         }
         
-        // TODO: This could probably be converted to a multi callback if it
-        // stops us from having to request updates each time it's removed.
-        DeleteItemCallback cb = new DeleteItemCallback();
-        for (Item i: delete) {
-            datasource.deleteItem(i.getUUID(), cb);
-        }
+        // One delete, so observers are updated once
+        datasource.deleteItems(delete, new DeleteItemCallback());
     }
     
     /**
@@ -23,6 +23,7 @@ package cmput301w15t07.TravelTracker.activity;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.UUID;
 
 import cmput301w15t07.TravelTracker.R;
 import cmput301w15t07.TravelTracker.model.Tag;
@@ -161,11 +162,11 @@ public class ManageTagsActivity extends TravelTrackerActivity implements Observe
         MultiCallback multi = new MultiCallback(new UpdateDataCallback());
         
         // Get tags and user
-        datasource.getAllTags(multi.<Collection<Tag>>createCallback(MULTI_TAGS_KEY));
+        datasource.getTagsForUser(userData.getUUID(), multi.<Collection<Tag>>createCallback(MULTI_TAGS_KEY));
         datasource.getUser(userData.getUUID(), multi.<User>createCallback(MULTI_USER_KEY));
         
         // Notify ready
-        multi.ready();
+        untilDestroyed(multi.ready());
     }
 
     /**
@@ -199,16 +200,13 @@ public class ManageTagsActivity extends TravelTrackerActivity implements Observe
 
     public void deleteTags(ArrayList<Integer> selectedItems) {
         // Delete in place is bad
-        ArrayList<Tag> delete = new ArrayList<Tag>();
+        ArrayList<UUID> delete = new ArrayList<UUID>();
         for (Integer i : selectedItems) {
-            delete.add(adapter.getItem(i));
+            delete.add(adapter.getItem(i).getUUID());
         }
         
-        // Real delete loop
-        ResultCallback<Void> cb = new DeleteTagCallback();
-        for (Tag t : delete) {
-            datasource.deleteTag(t.getUUID(), cb);
-        }
+        // Real delete, as one change
+        datasource.deleteTags(delete, new DeleteTagCallback());
     }
     
     public Dialog getLastDialog(){
@@ -21,12 +21,20 @@
 
 package cmput301w15t07.TravelTracker.activity;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.CountDownLatch;
 
 import cmput301w15t07.TravelTracker.DataSourceSingleton;
+import cmput301w15t07.TravelTracker.model.ChangeSet;
 import cmput301w15t07.TravelTracker.model.DataSource;
 import cmput301w15t07.TravelTracker.model.Status;
 import cmput301w15t07.TravelTracker.model.UserRole;
+import cmput301w15t07.TravelTracker.serverinterface.CancellationToken;
+import cmput301w15t07.TravelTracker.serverinterface.ResultFuture;
 import cmput301w15t07.TravelTracker.util.Observer;
 import android.app.Activity;
 import android.content.Intent;
@@ -56,6 +64,9 @@ public abstract class TravelTrackerActivity extends Activity implements Observer
     /** String used to retrieve Boolean from intent for whether item is created from ClaimInfo or not */
     public static final String FROM_CLAIM_INFO = "cmput301w15t07.TravelTracker.fromClaimInfo";
     
+    /** How long to wait for the data an activity displays, in milliseconds. */
+    public static final long LOAD_TIMEOUT = 30000;
+    
     /** Latch which is counted down when the activity loads its data */
     private CountDownLatch loadedLatch = new CountDownLatch(1);
     
@@ -68,6 +79,29 @@ public abstract class TravelTrackerActivity extends Activity implements Observer
     /** Whether the activity is currently loading. */
     protected boolean loading;
     
+    /** Reads still pending, cancelled when the activity is destroyed. */
+    private ArrayList<ResultFuture<?>> pendingReads = new ArrayList<ResultFuture<?>>();
+    
+    /**
+     * Tokens of every read, also cancelled when the activity is destroyed, since reads may
+     * settle from cache while their refreshes are still queued.  Weak, since a token is only
+     * referenced while work for it remains.
+     */
+    private Set<CancellationToken> readTokens = Collections.newSetFromMap(new WeakHashMap<CancellationToken, Boolean>());
+    
+    /**
+     * Observer for activities that register for fine-grained changes with
+     * datasource.addChangeObserver() instead of observing the whole DataSource.
+     */
+    protected Observer<ChangeSet> changeObserver = new Observer<ChangeSet>() {
+        @Override
+        public void update(ChangeSet changes) {
+            if (!ignoreUpdates && isAffectedBy(changes)) {
+                updateActivity();
+            }
+        }
+    };
+    
     /**
      * Call this when the activity has populated all the fields.
      * This will notify threads waiting for waitUntilLoaded().
@@ -91,6 +125,38 @@ public abstract class TravelTrackerActivity extends Activity implements Observer
         datasource = DataSourceSingleton.getDataSource(getApplicationContext());
     }
     
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        
+        // nobody is left to show the results
+        for (ResultFuture<?> read : pendingReads) {
+            read.cancel();
+        }
+        pendingReads.clear();
+        for (CancellationToken token : readTokens) {
+            token.cancel();
+        }
+        readTokens.clear();
+    }
+    
+    /**
+     * Tie a read to the activity, so that it fails after LOAD_TIMEOUT and is cancelled if the
+     * activity is destroyed first.  Its token is cancelled on destruction even if it settled,
+     * so that refreshes still queued for it are skipped.
+     * @param read The pending read, ex. from MultiCallback.ready().
+     * @return The read.
+     */
+    protected <T> ResultFuture<T> untilDestroyed(ResultFuture<T> read) {
+        Iterator<ResultFuture<?>> it = pendingReads.iterator();
+        while (it.hasNext()) {
+            if (it.next().isDone()) it.remove();
+        }
+        pendingReads.add(read);
+        readTokens.add(read.getToken());
+        return read.withTimeout(LOAD_TIMEOUT);
+    }
+    
     // Activities can override this if they need to do more.
     @Override
     public void update(DataSource observable) {
@@ -105,6 +171,15 @@ public abstract class TravelTrackerActivity extends Activity implements Observer
      */
     abstract public void updateActivity();
     
+    /**
+     * Activities observing changes can override this to skip reloading for irrelevant ones.
+     * @param changes The Documents changed since the last notification.
+     * @return Whether the activity displays any of the changed Documents.
+     */
+    protected boolean isAffectedBy(ChangeSet changes) {
+        return true;
+    }
+    
     /**
      * Sign out of the app, clears the activity stack, and exits to login activity.
      */
@@ -24,9 +24,19 @@ package cmput301w15t07.TravelTracker.model;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
-import java.util.Map;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import com.google.gson.reflect.TypeToken;
 
@@ -34,15 +44,26 @@ import android.content.Context;
 import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
+import cmput301w15t07.TravelTracker.serverinterface.CancellationToken;
 import cmput301w15t07.TravelTracker.serverinterface.ElasticSearchHelper;
 import cmput301w15t07.TravelTracker.serverinterface.FileSystemHelper;
-import cmput301w15t07.TravelTracker.serverinterface.MergeResult;
+import cmput301w15t07.TravelTracker.serverinterface.PageCallback;
 import cmput301w15t07.TravelTracker.serverinterface.ResultCallback;
+import cmput301w15t07.TravelTracker.serverinterface.ResultFuture;
 import cmput301w15t07.TravelTracker.serverinterface.ServerHelper;
+import cmput301w15t07.TravelTracker.serverinterface.Constants.Type;
 import cmput301w15t07.TravelTracker.util.DeletionFlag;
+import cmput301w15t07.TravelTracker.util.DeletionReconciliation;
+import cmput301w15t07.TravelTracker.util.MissCache;
+import cmput301w15t07.TravelTracker.util.Observer;
 import cmput301w15t07.TravelTracker.util.PersistentList;
+import cmput301w15t07.TravelTracker.util.PollSchedule;
+import cmput301w15t07.TravelTracker.util.SnapshotMap;
+import cmput301w15t07.TravelTracker.util.Tombstone;
+import cmput301w15t07.TravelTracker.util.TombstoneStore;
 
 /**
  * DataSource that caches Document model objects with local persistence iff ServerHelper reports an error
@@ -53,8 +74,8 @@ import cmput301w15t07.TravelTracker.util.PersistentList;
  * In order to keep latency low, observers of this datasource are updated optimistically with changes, and are
  * only updated after network activity is complete *if* there is a change to local data.
  * 
- * The caching datasource will have a bunch of HashMap<UUID, Document subclass>, just like the in memory data 
- * source. Those hash maps are for the Document objects that the Views and Controllers refer to.
+ * The caching datasource will have a bunch of SnapshotMap<Document subclass>, just like the in memory data 
+ * source. Those maps are for the Document objects that the Views and Controllers refer to.
  * 
  * The cache will try to run save or delete with the ES server every time those in memory documents change 
  * (possibly capped at once per second or something).
@@ -79,26 +100,101 @@ import cmput301w15t07.TravelTracker.util.PersistentList;
  */
 public class CacheDataSource extends InMemoryDataSource {
     
+    private static final String TOMBSTONES = "tombstones.json";
+    
+    /** Deletion lists from before tombstones, migrated on startup. */
     private static final String DELETE_USERS = "user_deletions.json";
     private static final String DELETE_CLAIMS = "claim_deletions.json";
     private static final String DELETE_ITEMS = "item_deletions.json";
     private static final String DELETE_TAGS = "tag_deletions.json";
     
+    /**
+     * How long to keep a tombstone after the server confirms its deletion.  The server may return
+     * stale copies of deleted documents for a short while, and tombstones keep them from being merged.
+     */
+    private static final long TOMBSTONE_HORIZON = 24 * 60 * 60 * 1000;
+    
+    /**
+     * Margin subtracted from each watermark when pulling changes.  lastChanged is stamped by
+     * the client that made the change, so a little overlap absorbs clock skew between devices.
+     */
+    private static final long WATERMARK_OVERLAP = 60000;
+    
+    /**
+     * Every this many sync cycles, the watermarks are ignored and everything is pulled.
+     */
+    private static final int FULL_PULL_PERIOD = 30;
+    
+    /**
+     * Maximum number of documents sent to the main helper in one bulk save.
+     */
+    private static final int PUSH_BATCH_SIZE = 50;
+    
+    /**
+     * Threads for issuing the per-type requests of a sync cycle concurrently - one per Document type.
+     */
+    private static final int SYNC_THREADS = 4;
+    
+    /**
+     * How many Documents the server was recently found not to have are remembered, and for how
+     * long, so that stale links to them fail fast.
+     */
+    private static final int MISS_CACHE_SIZE = 64;
+    private static final long MISS_TTL = 30000;
+    
     private Context appContext;
     
     private ServerHelper mainHelper;
     private ServerHelper backupHelper;
 
-    private PersistentList<DeletionFlag<User>> userDeletions;
-    private PersistentList<DeletionFlag<Claim>> claimDeletions;
-    private PersistentList<DeletionFlag<Item>> itemDeletions;
-    private PersistentList<DeletionFlag<Tag>> tagDeletions;
+    private TombstoneStore tombstones;
+    
+    private MissCache misses = new MissCache(MISS_CACHE_SIZE, MISS_TTL);
+    
+    /**
+     * Shared by every instance, so that discarded instances (ex. in tests) leave no threads
+     * behind, and with daemon threads, so that it never keeps the process alive.
+     */
+    private static final ExecutorService syncExecutor = Executors.newFixedThreadPool(SYNC_THREADS, new ThreadFactory() {
+        
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "CacheDataSource sync");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
     
     private boolean updateRunning = false;
     private long syncNumber = 0;
     
+    /** At most one sync runs at a time, and at most one more waits behind it.  Guarded by this. */
+    private SyncDocumentsTask runningSync = null;
+    private SyncDocumentsTask pendingSync = null;
+    private long coalescedSyncs = 0;
+    
+    private PollSchedule pollSchedule;
+    private Handler pollHandler;
+    private Runnable pollTask = new PollServerTask();
+    /** Uptime at which the next poll is posted, or 0 if none is posted. Only touched on the UI thread. */
+    private long nextPollTime = 0;
+    private boolean pollRunning = false;
+    
+    /** Latest remote lastChanged seen per document type.  Missing until the first successful pull. */
+    private HashMap<Type, Date> watermarks = new HashMap<Type, Date>();
+    private int pullsSinceFull = 0;
+    
+    /**
+     * Documents changed or deleted since the last successful flush to backup, by UUID since
+     * their hash codes change as they are edited.  Guarded by backupSaves.
+     */
+    private HashMap<UUID, Document> backupSaves = new HashMap<UUID, Document>();
+    private HashMap<UUID, Document> backupRemovals = new HashMap<UUID, Document>();
+    
     /**
      * @param appContext May be null. Application context for displaying errors.
+     * @param updatePeriod The base server poll period.  Polling speeds up to a quarter of this
+     *        while documents change, and backs off to 16 times this while idle or offline.
      */
     public CacheDataSource(Context appContext, long updatePeriod) {
         this(appContext, updatePeriod, new ElasticSearchHelper(), new FileSystemHelper(appContext));
@@ -106,6 +202,7 @@ public class CacheDataSource extends InMemoryDataSource {
     
     /**
      * @param appContext May be null. Application context for displaying errors.
+     * @param updatePeriod The base server poll period.
      * @param main The interface for remote server or test stubs.
      * @param backup The interface for data persistence when main fails.
      */
@@ -116,10 +213,11 @@ public class CacheDataSource extends InMemoryDataSource {
         this.mainHelper = main;
         this.backupHelper = backup;
         
-        this.userDeletions = new PersistentList<DeletionFlag<User>>(DELETE_USERS, appContext, (new TypeToken<DeletionFlag<User>>(){}).getType());
-        this.claimDeletions = new PersistentList<DeletionFlag<Claim>>(DELETE_CLAIMS, appContext, (new TypeToken<DeletionFlag<Claim>>(){}).getType());
-        this.itemDeletions = new PersistentList<DeletionFlag<Item>>(DELETE_ITEMS, appContext, (new TypeToken<DeletionFlag<Item>>(){}).getType());
-        this.tagDeletions = new PersistentList<DeletionFlag<Tag>>(DELETE_TAGS, appContext, (new TypeToken<DeletionFlag<Tag>>(){}).getType());
+        this.tombstones = new TombstoneStore(TOMBSTONES, appContext, TOMBSTONE_HORIZON);
+        this.<User>migrateDeletions(DELETE_USERS, (new TypeToken<DeletionFlag<User>>(){}).getType());
+        this.<Claim>migrateDeletions(DELETE_CLAIMS, (new TypeToken<DeletionFlag<Claim>>(){}).getType());
+        this.<Item>migrateDeletions(DELETE_ITEMS, (new TypeToken<DeletionFlag<Item>>(){}).getType());
+        this.<Tag>migrateDeletions(DELETE_TAGS, (new TypeToken<DeletionFlag<Tag>>(){}).getType());
         
         // load any cached data into memory
         try {
@@ -131,8 +229,11 @@ public class CacheDataSource extends InMemoryDataSource {
             warn("Failed to load local backup into memory");
         }
         
+        pollSchedule = new PollSchedule(updatePeriod, Math.max(1, updatePeriod / 4), updatePeriod * 16, new Random());
+        pollHandler = new Handler(Looper.getMainLooper());
+        
         // pull data from server
-        new SyncDocumentsTask(new ResultCallback<Boolean>() {
+        requestSync(new ResultCallback<Boolean>() {
 
             @Override
             public void onResult(Boolean result) {
@@ -144,39 +245,120 @@ public class CacheDataSource extends InMemoryDataSource {
                 warn(message);
             }
             
-        }).executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+        });
         
 
-        Handler uiHandler = new Handler(Looper.getMainLooper());
-        uiHandler.postDelayed(new PollServerLoopTask(updatePeriod), updatePeriod);
+        // polling starts once something observes this data source
+    }
+    
+    @Override
+    public void addObserver(Observer<DataSource> obs) {
+        super.addObserver(obs);
+        if (nextPollTime == 0 && !pollRunning)
+            schedulePoll();
+    }
+    
+    @Override
+    public void removeObserver(Observer<DataSource> obs) {
+        super.removeObserver(obs);
+        pauseIfUnobserved();
+    }
+    
+    @Override
+    public void addChangeObserver(Observer<ChangeSet> obs) {
+        super.addChangeObserver(obs);
+        if (nextPollTime == 0 && !pollRunning)
+            schedulePoll();
+    }
+    
+    @Override
+    public void removeChangeObserver(Observer<ChangeSet> obs) {
+        super.removeChangeObserver(obs);
+        pauseIfUnobserved();
+    }
+    
+    private void pauseIfUnobserved() {
+        if (!hasObservers()) {
+            // nothing on screen, so stop waking the radio
+            pollHandler.removeCallbacks(pollTask);
+            nextPollTime = 0;
+            Log.i("CacheDataSource", "Server polling paused.");
+        }
+    }
+    
+    /**
+     * @return The current interval between server polls, before jitter, in milliseconds.
+     */
+    public long getPollInterval() {
+        return pollSchedule.getInterval();
+    }
+    
+    /**
+     * @return The SystemClock.uptimeMillis() time of the next server poll, or 0 if polling is
+     *         paused or a poll is in progress.
+     */
+    public long getNextPollTime() {
+        return nextPollTime;
+    }
+    
+    /**
+     * Post the next poll according to the poll schedule, replacing any already posted.
+     * Does nothing while nobody observes this data source.  Must be called on the UI thread.
+     */
+    private void schedulePoll() {
+        pollHandler.removeCallbacks(pollTask);
+        nextPollTime = 0;
+        if (!hasObservers())
+            return;
+        
+        long delay = pollSchedule.nextDelay();
+        nextPollTime = SystemClock.uptimeMillis() + delay;
+        pollHandler.postAtTime(pollTask, nextPollTime);
+        Log.i("CacheDataSource", "Next server poll in " + Long.toString(delay) + " millis.");
+    }
+    
+    /**
+     * Documents are changing, so bring the next poll forward if it is far off.
+     */
+    private void pollSoon() {
+        pollSchedule.localChange();
+        if (nextPollTime != 0 && nextPollTime - SystemClock.uptimeMillis() > pollSchedule.getInterval())
+            schedulePoll();
     }
     
     @Override
     public void addUser(final ResultCallback<User> callback) {
         super.addUser(callback);
         
-        new SyncUpdateTask("addUser").executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+        requestSync(new InfoReportingCallback(), "addUser");
     }
     
     @Override
     public void addClaim(final User user, final ResultCallback<Claim> callback) {
         super.addClaim(user, callback);
         
-        new SyncUpdateTask("addClaim").executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+        requestSync(new InfoReportingCallback(), "addClaim");
     }
 
     @Override
     public void addItem(final Claim claim, final ResultCallback<Item> callback) {
         super.addItem(claim, callback);
         
-        new SyncUpdateTask("addItem").executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+        requestSync(new InfoReportingCallback(), "addItem");
+    }
+
+    @Override
+    public void addItems(final Claim claim, int count, final ResultCallback<Collection<Item>> callback) {
+        super.addItems(claim, count, callback);
+        
+        requestSync(new InfoReportingCallback(), "addItems");
     }
 
     @Override
     public void addTag(final User user, final ResultCallback<Tag> callback) {
         super.addTag(user, callback);
         
-        new SyncUpdateTask("addTag").executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+        requestSync(new InfoReportingCallback(), "addTag");
     }
 
     @Override
@@ -188,9 +370,15 @@ public class CacheDataSource extends InMemoryDataSource {
     }
     
     @Override
-    protected void deleteUserHook(User deleted) {
-        // add to toDelete list - will be picked up on sync cycle
-        userDeletions.add(new DeletionFlag<User>(deleted));
+    protected void deleteHook(Collection<Document> deleted) {
+        // add tombstones in one append - will be picked up on sync cycle
+        ArrayList<Tombstone> added = new ArrayList<Tombstone>();
+        for (Document doc : deleted) {
+            added.add(new Tombstone(doc));
+            markRemovedFromBackup(doc);
+        }
+        tombstones.addAll(added);
+        pollSoon();
     }
 
     @Override
@@ -201,11 +389,6 @@ public class CacheDataSource extends InMemoryDataSource {
         }
     }
     
-    @Override
-    protected void deleteClaimHook(Claim deleted) {
-        // add to toDelete list - will be picked up on sync cycle
-        claimDeletions.add(new DeletionFlag<Claim>(deleted));
-    }
 
     @Override
     public void deleteItem(final UUID id, final ResultCallback<Void> callback) {
@@ -215,38 +398,61 @@ public class CacheDataSource extends InMemoryDataSource {
         }
     }
     
-    @Override
-    protected void deleteItemHook(Item deleted) {
-        // add to toDelete list - will be picked up on sync cycle
-        itemDeletions.add(new DeletionFlag<Item>(deleted));
-    }
 
     @Override
     public void deleteTag(final UUID id, final ResultCallback<Void> callback) {
         if (tags.get(id) != null) {
-            // add to toDelete list - will be picked up on sync cycle
-            tagDeletions.add(new DeletionFlag<Tag>(tags.get(id)));
             // remove from inmemory - may come back after sync cycle
             super.deleteTag(id, callback);
         }
     }
     
+
+    @Override
+    public void deleteClaims(Collection<UUID> ids, ResultCallback<Void> callback) {
+        // remove from inmemory - may come back after sync cycle
+        super.deleteClaims(stored(ids, claims), callback);
+    }
+
+    @Override
+    public void deleteItems(Collection<UUID> ids, ResultCallback<Void> callback) {
+        super.deleteItems(stored(ids, items), callback);
+    }
+
     @Override
-    protected void deleteTagHook(Tag deleted) {
-        // add to toDelete list - will be picked up on sync cycle
-        tagDeletions.add(new DeletionFlag<Tag>(deleted));
+    public void deleteTags(Collection<UUID> ids, ResultCallback<Void> callback) {
+        super.deleteTags(stored(ids, tags), callback);
+    }
+    
+    /**
+     * @return Whether the Document is known not to exist, so a lookup can fail without asking the server.
+     */
+    private boolean isKnownMissing(UUID id) {
+        return tombstones.contains(id) || misses.contains(id, SystemClock.uptimeMillis());
+    }
+    
+    /**
+     * @return The passed UUIDs that are in the cache.  As with single deletes, Documents
+     * already gone are ignored.
+     */
+    private ArrayList<UUID> stored(Collection<UUID> ids, SnapshotMap<?> documents) {
+        ArrayList<UUID> stored = new ArrayList<UUID>();
+        for (UUID id : ids) {
+            if (documents.containsKey(id)) stored.add(id);
+        }
+        return stored;
     }
 
     @Override
     public void getUser(final UUID id, final ResultCallback<User> callback) {
-        if (users.get(id) != null) {
+        if (users.get(id) != null || isKnownMissing(id)) {
             super.getUser(id, callback);
         } else {
-            // after sync, try again.  callback.error if still not there
-            new SyncDocumentsTask(new SyncWrappedResultCallback(callback) {
+            // fetch just this one, then try again.  callback.error if still not there
+            new FetchTask<User>(Type.USER, id, users, new SyncWrappedResultCallback(callback) {
                 @Override
-                public void onResult(Boolean changesMade) {
-                    if (changesMade) CacheDataSource.super.getUser(id, callback);
+                public void onResult(Boolean found) {
+                    CacheDataSource.super.getUser(id, callback);
                 }
             }).executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
         }
@@ -254,14 +460,14 @@ public class CacheDataSource extends InMemoryDataSource {
 
     @Override
     public void getClaim(final UUID id, final ResultCallback<Claim> callback) {
-        if (claims.get(id) != null) {
+        if (claims.get(id) != null || isKnownMissing(id)) {
             super.getClaim(id, callback);
         } else {
-            // after sync, try again.  callback.error if still not there
-            new SyncDocumentsTask(new SyncWrappedResultCallback(callback) {
+            // fetch just this one, then try again.  callback.error if still not there
+            new FetchTask<Claim>(Type.CLAIM, id, claims, new SyncWrappedResultCallback(callback) {
                 @Override
-                public void onResult(Boolean changesMade) {
-                    if (changesMade) CacheDataSource.super.getClaim(id, callback);
+                public void onResult(Boolean found) {
+                    CacheDataSource.super.getClaim(id, callback);
                 }
             }).executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
         }
@@ -269,14 +475,14 @@ public class CacheDataSource extends InMemoryDataSource {
 
     @Override
     public void getItem(final UUID id, final ResultCallback<Item> callback) {
-        if (items.get(id) != null) {
+        if (items.get(id) != null || isKnownMissing(id)) {
             super.getItem(id, callback);
         } else {
-            // after sync, try again.  callback.error if still not there
-            new SyncDocumentsTask(new SyncWrappedResultCallback(callback) {
+            // fetch just this one, then try again.  callback.error if still not there
+            new FetchTask<Item>(Type.ITEM, id, items, new SyncWrappedResultCallback(callback) {
                 @Override
-                public void onResult(Boolean changesMade) {
-                    if (changesMade) CacheDataSource.super.getItem(id, callback);
+                public void onResult(Boolean found) {
+                    CacheDataSource.super.getItem(id, callback);
                 }
             }).executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
         }
@@ -284,53 +490,90 @@ public class CacheDataSource extends InMemoryDataSource {
 
     @Override
     public void getTag(final UUID id, final ResultCallback<Tag> callback) {
-        if (tags.get(id) != null) {
+        if (tags.get(id) != null || isKnownMissing(id)) {
             super.getTag(id, callback);
         } else {
-            // after sync, try again.  callback.error if still not there
-            new SyncDocumentsTask(new SyncWrappedResultCallback(callback) {
+            // fetch just this one, then try again.  callback.error if still not there
+            new FetchTask<Tag>(Type.TAG, id, tags, new SyncWrappedResultCallback(callback) {
                 @Override
-                public void onResult(Boolean changesMade) {
-                    if (changesMade) CacheDataSource.super.getTag(id, callback);
+                public void onResult(Boolean found) {
+                    CacheDataSource.super.getTag(id, callback);
                 }
             }).executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
         }
     }
 
+    @Override
+    public void getUsers(final Collection<UUID> ids, final ResultCallback<Collection<User>> callback) {
+        ArrayList<UUID> missing = new ArrayList<UUID>();
+        for (UUID id : ids) {
+            if (users.get(id) == null && !isKnownMissing(id)) missing.add(id);
+        }
+        
+        super.getUsers(ids, callback);
+        if (missing.isEmpty())
+            return;
+        
+        // fetch all the missing ones together, then try again if any turned up
+        new FetchTask<User>(Type.USER, missing, users, new SyncWrappedResultCallback(callback) {
+            @Override
+            public void onResult(Boolean found) {
+                if (found) CacheDataSource.super.getUsers(ids, callback);
+            }
+        }).executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+    }
+
+    @Override
+    public void getClaimDetails(final UUID id, final ResultCallback<ClaimDetails> callback) {
+        final boolean cached = claims.get(id) != null;
+        if (cached || isKnownMissing(id)) {
+            super.getClaimDetails(id, callback);
+            if (!cached) return;
+        }
+        
+        // refresh everything shown with the claim at once, then try again if anything changed
+        new ClaimDetailsTask(id, new SyncWrappedResultCallback(callback) {
+            @Override
+            public void onResult(Boolean changesMade) {
+                if (changesMade || !cached) CacheDataSource.super.getClaimDetails(id, callback);
+            }
+        }).executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+    }
+
     @Override
     public void getAllUsers(final ResultCallback<Collection<User>> callback) {
         super.getAllUsers(callback);
         // after sync, try again.  callback.error if still not there
-        new SyncDocumentsTask(new SyncWrappedResultCallback(callback) {
+        requestSync(new SyncWrappedResultCallback(callback) {
             @Override
             public void onResult(Boolean changesMade) {
                 if (changesMade) CacheDataSource.super.getAllUsers(callback);
             }
-        }).executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+        });
     }
 
     @Override
     public void getAllClaims(final ResultCallback<Collection<Claim>> callback) {
         super.getAllClaims(callback);
         // after sync, try again.  callback.error if still not there
-        new SyncDocumentsTask(new SyncWrappedResultCallback(callback) {
+        requestSync(new SyncWrappedResultCallback(callback) {
             @Override
             public void onResult(Boolean changesMade) {
                 if (changesMade) CacheDataSource.super.getAllClaims(callback);
             }
-        }).executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+        });
     }
 
     @Override
     public void getAllItems(final ResultCallback<Collection<Item>> callback) {
         super.getAllItems(callback);
         // after sync, try again.  callback.error if still not there
-        new SyncDocumentsTask(new SyncWrappedResultCallback(callback) {
+        requestSync(new SyncWrappedResultCallback(callback) {
             @Override
             public void onResult(Boolean changesMade) {
                 if (changesMade) CacheDataSource.super.getAllItems(callback);
             }
-        }).executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+        });
 
     }
 
@@ -338,18 +581,332 @@ public class CacheDataSource extends InMemoryDataSource {
     public void getAllTags(final ResultCallback<Collection<Tag>> callback) {
         super.getAllTags(callback);
         // after sync, try again.  callback.error if still not there
-        new SyncDocumentsTask(new SyncWrappedResultCallback(callback) {
+        requestSync(new SyncWrappedResultCallback(callback) {
             @Override
             public void onResult(Boolean changesMade) {
                 if (changesMade) CacheDataSource.super.getAllTags(callback);
             }
-        }).executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+        });
         
     }
     
-    private <T extends Document> void loadIntoMemory(Collection<T> docs, Map<UUID, T> docMap) {
+    @Override
+    public void getClaimsForUser(final UUID user, final ResultCallback<Collection<Claim>> callback) {
+        super.getClaimsForUser(user, callback);
+        // refresh only this user's claims, then try again if anything changed
+        new ScopedSyncTask<Claim>(claims, new SyncWrappedResultCallback(callback) {
+            @Override
+            public void onResult(Boolean changesMade) {
+                if (changesMade) CacheDataSource.super.getClaimsForUser(user, callback);
+            }
+        }) {
+            @Override
+            protected Collection<Claim> retrieve() throws Exception {
+                return mainHelper.getClaims(user);
+            }
+        }.executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+    }
+
+    @Override
+    public void getApprovalQueue(final UUID approver, final ResultCallback<Collection<Claim>> callback) {
+        super.getApprovalQueue(approver, callback);
+        // any claim may have been submitted elsewhere, so sync everything and try again
+        requestSync(new SyncWrappedResultCallback(callback) {
+            @Override
+            public void onResult(Boolean changesMade) {
+                if (changesMade) CacheDataSource.super.getApprovalQueue(approver, callback);
+            }
+        });
+    }
+
+    @Override
+    public void getItemsForClaim(final UUID claim, final ResultCallback<Collection<Item>> callback) {
+        super.getItemsForClaim(claim, callback);
+        // refresh only this claim's items, then try again if anything changed
+        new ScopedSyncTask<Item>(items, new SyncWrappedResultCallback(callback) {
+            @Override
+            public void onResult(Boolean changesMade) {
+                if (changesMade) CacheDataSource.super.getItemsForClaim(claim, callback);
+            }
+        }) {
+            @Override
+            protected Collection<Item> retrieve() throws Exception {
+                return mainHelper.getExpenses(claim);
+            }
+        }.executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+    }
+
+    @Override
+    public void getItemsForClaims(final Collection<UUID> claimIDs, final ResultCallback<Collection<Item>> callback) {
+        super.getItemsForClaims(claimIDs, callback);
+        // refresh only these claims' items, then try again if anything changed
+        new ScopedSyncTask<Item>(items, new SyncWrappedResultCallback(callback) {
+            @Override
+            public void onResult(Boolean changesMade) {
+                if (changesMade) CacheDataSource.super.getItemsForClaims(claimIDs, callback);
+            }
+        }) {
+            @Override
+            protected Collection<Item> retrieve() throws Exception {
+                return mainHelper.getExpenses(claimIDs);
+            }
+        }.executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+    }
+
+    @Override
+    public void getTagsForUser(final UUID user, final ResultCallback<Collection<Tag>> callback) {
+        super.getTagsForUser(user, callback);
+        // refresh only this user's tags, then try again if anything changed
+        new ScopedSyncTask<Tag>(tags, new SyncWrappedResultCallback(callback) {
+            @Override
+            public void onResult(Boolean changesMade) {
+                if (changesMade) CacheDataSource.super.getTagsForUser(user, callback);
+            }
+        }) {
+            @Override
+            protected Collection<Tag> retrieve() throws Exception {
+                return mainHelper.getTags(user);
+            }
+        }.executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+    }
+    
+    @Override
+    public void update(Document observable) {
+        // deleted documents may still be observed by stale views
+        UUID id = observable.getUUID();
+        if (users.containsKey(id) || claims.containsKey(id) || items.containsKey(id) || tags.containsKey(id)) {
+            restoreEdited(observable);
+            markForBackup(observable);
+            pollSoon();
+        }
+        super.update(observable);
+    }
+    
+    @Override
+    protected void internalAddUser(User u) {
+        super.internalAddUser(u);
+        markForBackup(u);
+        pollSoon();
+    }
+    
+    @Override
+    protected void internalAddClaim(Claim c) {
+        super.internalAddClaim(c);
+        markForBackup(c);
+        pollSoon();
+    }
+    
+    @Override
+    protected void internalAddItem(Item i) {
+        super.internalAddItem(i);
+        markForBackup(i);
+        pollSoon();
+    }
+    
+    @Override
+    protected void internalAddItems(Collection<Item> added) {
+        super.internalAddItems(added);
+        for (Item i : added) {
+            markForBackup(i);
+        }
+        pollSoon();
+    }
+    
+    @Override
+    protected void internalAddTag(Tag t) {
+        super.internalAddTag(t);
+        markForBackup(t);
+        pollSoon();
+    }
+    
+    /**
+     * Queue a document to be written on the next flush to backup.
+     */
+    private void markForBackup(Document doc) {
+        synchronized (backupSaves) {
+            backupRemovals.remove(doc.getUUID());
+            backupSaves.put(doc.getUUID(), doc);
+        }
+    }
+    
+    /**
+     * Queue a document to be removed on the next flush to backup.
+     */
+    private void markRemovedFromBackup(Document doc) {
+        synchronized (backupSaves) {
+            backupSaves.remove(doc.getUUID());
+            backupRemovals.put(doc.getUUID(), doc);
+        }
+    }
+    
+    /**
+     * @return The number of sync requests that were served by attaching to an already pending sync.
+     */
+    public synchronized long getCoalescedSyncCount() {
+        return coalescedSyncs;
+    }
+    
+    private void requestSync(ResultCallback<Boolean> callback) {
+        requestSync(callback, null);
+    }
+    
+    /**
+     * Schedule a full sync cycle.  If one is already waiting to run, the callback joins it instead,
+     * since it would start after this request anyway.  A sync that is already running started before
+     * this request and may miss its changes, so it is never joined.
+     * 
+     * @param callback sync result callback, or null for no action.
+     * @param caller Description of the requester for logging, or null.
+     */
+    private synchronized void requestSync(ResultCallback<Boolean> callback, String caller) {
+        if (pendingSync != null) {
+            pendingSync.addCallback(callback);
+            coalescedSyncs++;
+            Log.i("CacheDataSource", "Sync request " + (caller == null ? "" : "from " + caller + " ") + "coalesced. " + 
+                    Long.toString(coalescedSyncs) + " coalesced so far.");
+            return;
+        }
+        
+        pendingSync = (caller == null) ? new SyncDocumentsTask(callback) : new SyncDocumentsTask(callback, caller);
+        if (runningSync == null)
+            startPendingSync();
+    }
+    
+    private synchronized void syncFinished() {
+        runningSync = null;
+        if (pendingSync != null)
+            startPendingSync();
+    }
+    
+    private synchronized void startPendingSync() {
+        runningSync = pendingSync;
+        pendingSync = null;
+        runningSync.executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+    }
+    
+    /**
+     * Set how long to keep a tombstone after the server confirms its deletion.
+     * @param horizon The horizon in milliseconds.
+     */
+    public void setTombstoneHorizon(long horizon) {
+        tombstones.setHorizon(horizon);
+    }
+    
+    /**
+     * Convert a deletion list from before tombstones, then remove it.
+     */
+    private <T extends Document> void migrateDeletions(String filename, java.lang.reflect.Type flagType) {
+        if (!appContext.getFileStreamPath(filename).exists())
+            return;
+        
+        PersistentList<DeletionFlag<T>> flags = new PersistentList<DeletionFlag<T>>(filename, appContext, flagType);
+        ArrayList<Tombstone> migrated = new ArrayList<Tombstone>();
+        for (DeletionFlag<T> flag : flags) {
+            T deleted = flag.getToDelete();
+            migrated.add(new Tombstone(deleted.getUUID(), deleted.getType(), flag.getDate()));
+        }
+        tombstones.addAll(migrated);
+        appContext.deleteFile(filename);
+        Log.i("CacheDataSource", "Migrated " + Integer.toString(migrated.size()) + " deletions from " + filename);
+    }
+    
+    private <T extends Document> void loadIntoMemory(Collection<T> docs, SnapshotMap<T> docMap) {
+        HashSet<UUID> deleted = tombstones.getIDs();
+        HashMap<UUID, T> loaded = new HashMap<UUID, T>();
         for (T doc : docs) {
-            docMap.put(doc.getUUID(), doc);
+            if (deleted.contains(doc.getUUID())) {
+                // deleted before the backup was flushed
+                markRemovedFromBackup(doc);
+                continue;
+            }
+            loaded.put(doc.getUUID(), doc);
+            index(doc);
+            dirty.track(doc);
+        }
+        docMap.putAll(loaded);
+    }
+
+    /**
+     * Merge retrieved documents into the in memory store.  Views may be reading or editing
+     * the stored documents meanwhile, so changes are merged into copies, which replace them
+     * in the same snapshot that publishes the new documents.  Edits to a replaced document
+     * are restored by update().
+     * @param changes Records the documents added or changed, to be published by the caller.
+     * @return whether or not any in memory document was added or changed.
+     */
+    private <T extends Document> boolean mergeRetrieved(Collection<T> retrieved, SnapshotMap<T> local, ChangeSet changes) {
+        boolean changed = false;
+        HashSet<UUID> deleted = tombstones.getIDs();
+        HashMap<UUID, T> merged = new HashMap<UUID, T>();
+        // an edit finishing during the merge is restored once the merge is published
+        synchronized (local) {
+            for (T toMerge : retrieved) {
+                UUID id = toMerge.getUUID();
+                if (deleted.contains(id))
+                    continue; // do not merge deleted documents
+                T existing = local.get(id);
+                if (existing != null) {
+                    T copy = merged.containsKey(id) ? merged.get(id) : this.<T>copyOf(existing);
+                    if (!copy.mergeAttributesFrom(toMerge))
+                        continue;
+                    changed |= true;
+                    // merged attributes may include a new parent
+                    index(copy);
+                    dirty.untrack(existing);
+                    dirty.track(copy);
+                    markForBackup(copy);
+                    merged.put(id, copy);
+                    changes.recordUpdated(copy);
+                    Log.i("CacheDataSource", "Existing document updated from remote.");
+                } else {
+                    changed |= true;
+                    // freshly retrieved, so the remote already has it
+                    toMerge.setClean();
+                    merged.put(id, toMerge);
+                    index(toMerge);
+                    dirty.track(toMerge);
+                    markForBackup(toMerge);
+                    changes.recordAdded(toMerge);
+                    Log.i("CacheDataSource", "New document retrieved from remote.");
+                }
+            }
+            local.putAll(merged);
+        }
+        return changed;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private <T extends Document> T copyOf(T doc) {
+        return (T) doc.copy();
+    }
+    
+    /**
+     * Put an edited Document back in the store if a sync merge replaced it with a copy while
+     * a view still held it.  The merged changes are adopted where newer than the edit.
+     */
+    private void restoreEdited(Document edited) {
+        if (edited instanceof User) {
+            this.<User>restoreEdited((User) edited, users);
+        } else if (edited instanceof Claim) {
+            this.<Claim>restoreEdited((Claim) edited, claims);
+        } else if (edited instanceof Item) {
+            this.<Item>restoreEdited((Item) edited, items);
+        } else if (edited instanceof Tag) {
+            this.<Tag>restoreEdited((Tag) edited, tags);
+        }
+    }
+    
+    private <T extends Document> void restoreEdited(T edited, SnapshotMap<T> local) {
+        synchronized (local) {
+            T current = local.get(edited.getUUID());
+            if (current == null || current == edited)
+                return;
+            
+            edited.mergeAttributesFrom(current);
+            dirty.untrack(current);
+            dirty.track(edited);
+            local.put(edited.getUUID(), edited);
+            Log.i("CacheDataSource", "Edited document restored over its merged copy.");
         }
     }
 
@@ -368,14 +925,28 @@ public class CacheDataSource extends InMemoryDataSource {
 
         ResultCallback<?> errCallback;
         
+        /** The caller's token, which outlives the caller's future settling.  Null if it has none. */
+        CancellationToken token;
+        
         public SyncWrappedResultCallback(ResultCallback<?> callback) {
             this.errCallback = callback;
+            if (callback instanceof ResultFuture)
+                this.token = ((ResultFuture<?>) callback).getToken();
         }
 
         @Override
         public void onError(String message) {
             errCallback.onError(message);
         }
+        
+        /**
+         * Cached results usually settle the caller's future before the server is asked, so this
+         * checks the future's token rather than the future.
+         * @return Whether the caller has cancelled the read, so that it need not go to the server.
+         */
+        public boolean isCancelled() {
+            return token != null && token.isCancelled();
+        }
     }
 
     /**
@@ -390,8 +961,8 @@ public class CacheDataSource extends InMemoryDataSource {
 
         @Override
         public void onResult(Boolean changesMade) {
+            // observers were already notified of the merged changes
             if (changesMade) {
-                updateHandler.post(updateRunnable);
                 Log.i("CacheDataSource", "New data retrieved from server.");
             } else {
                 Log.i("CacheDataSource", "All data retrieved from server was known");
@@ -407,69 +978,276 @@ public class CacheDataSource extends InMemoryDataSource {
     }
     
     /**
-     * Sensible wrapper for update tasks for use in the poll cycle. Reports results and updates observers.
+     * Runnable that runs an update task and then schedules the next poll once it completes, so that
+     * polls never pile up behind a slow server.
      * @author kdbanman
      *
      */
-    private class SyncUpdateTask extends AsyncTask<Void, Void, Void> {
+    private class PollServerTask implements Runnable {
 
-        String caller;
+        @Override
+        public void run() {
+            Log.i("CacheDataSource", "Executing server poll.");
+            nextPollTime = 0;
+            pollRunning = true;
+            requestSync(new InfoReportingCallback() {
+                @Override
+                public void onResult(Boolean changesMade) {
+                    super.onResult(changesMade);
+                    pollRunning = false;
+                    schedulePoll();
+                }
+                
+                @Override
+                public void onError(String message) {
+                    super.onError(message);
+                    pollRunning = false;
+                    schedulePoll();
+                }
+            }, "poll loop");
+        }
         
-        public SyncUpdateTask(String caller) {
-            this.caller = caller;
+    }
+    
+    /**
+     * Lightweight sync for a single screen's documents - pulls only the documents returned by
+     * retrieve() from the main helper and merges them with local content.  Pushes and deletions
+     * are left to the main sync cycle.
+     * 
+     * Connection failure is not an error; the cached documents simply stand.
+     * @author kdbanman
+     *
+     * @param <T> The type of Document retrieved.
+     */
+    private abstract class ScopedSyncTask<T extends Document> extends AsyncTask<Void, Void, String> {
+        
+        private SnapshotMap<T> local;
+        private SyncWrappedResultCallback callback;
+        
+        private boolean changesMade = false;
+        
+        /**
+         * @param local The in memory documents to merge into.
+         * @param callback sync result callback.
+         */
+        public ScopedSyncTask(SnapshotMap<T> local, SyncWrappedResultCallback callback) {
+            this.local = local;
+            this.callback = callback;
         }
         
-        @Override
-        protected Void doInBackground(Void... params) {
+        /**
+         * Fetch the scoped documents from the main helper.  Runs in the background.
+         * @return The retrieved documents.
+         * @throws Exception
+         */
+        protected abstract Collection<T> retrieve() throws Exception;
 
-            new SyncDocumentsTask(new InfoReportingCallback(), caller).executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+        @Override
+        protected String doInBackground(Void... params) {
+            // cancelled while queued, ex. by a destroyed activity
+            if (callback.isCancelled())
+                return null;
+            
+            Collection<T> retrieved;
+            try {
+                retrieved = retrieve();
+            } catch (IOException e) {
+                Log.i("CacheDataSource", "Connection error on scoped sync");
+                return null;
+            } catch (Exception e) {
+                Log.e("CacheDataSource", "UNKNOWN ERROR FROM SERVER HELPER");
+                return null;
+            }
+            
+            // documents queued for deletion are skipped by the merge
+            ChangeSet changes = new ChangeSet();
+            changesMade = mergeRetrieved(retrieved, local, changes);
+            publishChanges(changes);
             return null;
         }
         
+        @Override
+        protected void onPostExecute(String errMsg) {
+            if (callback.isCancelled()) {
+                return;
+            } else if (errMsg == null) {
+                callback.onResult(changesMade);
+            } else {
+                callback.onError(errMsg);
+            }
+        }
     }
     
     /**
-     * Runnable that runs an update task and then creates a delayed instance of itself on the main loop.
+     * Fetches Documents missing from the cache in one request, instead of syncing everything
+     * to find them.  Those the server does not have either are remembered as misses for a while.
+     * The callback result is whether any were found.  Connection errors count as not found,
+     * but are not remembered.
      * @author kdbanman
      *
      */
-    private class PollServerLoopTask implements Runnable {
-        long period;
+    private class FetchTask<T extends Document> extends AsyncTask<Void, Void, Boolean> {
         
-        public PollServerLoopTask(long intervalMillis) {
-
-            Log.i("CacheDataSource", "New delayed server poll created. " + Long.toString(intervalMillis) + " millis delay.");
-            this.period = intervalMillis;
+        private Type type;
+        private Collection<UUID> ids;
+        private SnapshotMap<T> local;
+        private SyncWrappedResultCallback callback;
+        
+        /**
+         * @param type The type of the Document.
+         * @param id The UUID of the Document.
+         * @param local The in memory documents to merge it into.
+         * @param callback fetch result callback.
+         */
+        public FetchTask(Type type, UUID id, SnapshotMap<T> local, SyncWrappedResultCallback callback) {
+            this(type, Collections.singletonList(id), local, callback);
         }
-
+        
+        /**
+         * @param type The type of the Documents.
+         * @param ids The UUIDs of the Documents.
+         * @param local The in memory documents to merge them into.
+         * @param callback fetch result callback.
+         */
+        public FetchTask(Type type, Collection<UUID> ids, SnapshotMap<T> local, SyncWrappedResultCallback callback) {
+            this.type = type;
+            this.ids = ids;
+            this.local = local;
+            this.callback = callback;
+        }
+        
         @Override
-        public void run() {
-            Log.i("CacheDataSource", "Executing server poll.");
-            new SyncUpdateTask("poll loop").executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
-
-            Log.i("CacheDataSource", "Registering new server poll.");
-            Handler uiHandler = new Handler(Looper.getMainLooper());
-            uiHandler.postDelayed(new PollServerLoopTask(period), period);
+        protected Boolean doInBackground(Void... params) {
+            if (callback.isCancelled())
+                return false;
+            
+            Collection<T> fetched;
+            try {
+                fetched = mainHelper.<T>getDocuments(type, ids);
+            } catch (IOException e) {
+                Log.i("CacheDataSource", "Connection error fetching " + Integer.toString(ids.size()) + " " + type.toString());
+                return false;
+            } catch (Exception e) {
+                Log.e("CacheDataSource", "UNKNOWN ERROR FROM SERVER HELPER");
+                return false;
+            }
+            
+            HashSet<UUID> missing = new HashSet<UUID>(ids);
+            for (T doc : fetched) {
+                missing.remove(doc.getUUID());
+            }
+            long now = SystemClock.uptimeMillis();
+            for (UUID id : missing) {
+                misses.add(id, now);
+                Log.i("CacheDataSource", "Remembering missing " + type.toString() + " " + id.toString());
+            }
+            
+            if (fetched.isEmpty())
+                return false;
+            ChangeSet changes = new ChangeSet();
+            mergeRetrieved(fetched, local, changes);
+            publishChanges(changes);
+            return true;
+        }
+        
+        @Override
+        protected void onPostExecute(Boolean found) {
+            if (!callback.isCancelled())
+                callback.onResult(found);
+        }
+    }
+    
+    /**
+     * Fetches a Claim with everything displayed alongside it, and merges it all.
+     * The callback result is whether changes were made.  A Claim the server does not have is
+     * remembered as missing, as with FetchTask.
+     * @author kdbanman
+     *
+     */
+    private class ClaimDetailsTask extends AsyncTask<Void, Void, Boolean> {
+        
+        private UUID id;
+        private SyncWrappedResultCallback callback;
+        
+        /**
+         * @param id The UUID of the Claim.
+         * @param callback fetch result callback.
+         */
+        public ClaimDetailsTask(UUID id, SyncWrappedResultCallback callback) {
+            this.id = id;
+            this.callback = callback;
         }
         
+        @Override
+        protected Boolean doInBackground(Void... params) {
+            if (callback.isCancelled())
+                return false;
+            
+            ClaimDetails details;
+            try {
+                details = mainHelper.getClaimDetails(id);
+            } catch (IOException e) {
+                Log.i("CacheDataSource", "Connection error fetching details of claim " + id.toString());
+                return false;
+            } catch (Exception e) {
+                Log.e("CacheDataSource", "UNKNOWN ERROR FROM SERVER HELPER");
+                return false;
+            }
+            
+            if (details == null) {
+                misses.add(id, SystemClock.uptimeMillis());
+                return false;
+            }
+            
+            ArrayList<Claim> fetchedClaims = new ArrayList<Claim>();
+            fetchedClaims.add(details.getClaim());
+            ArrayList<User> fetchedUsers = new ArrayList<User>();
+            if (details.getClaimant() != null) fetchedUsers.add(details.getClaimant());
+            if (details.getApprover() != null) fetchedUsers.add(details.getApprover());
+            
+            // users and claim first, so children never arrive before their parents
+            ChangeSet changes = new ChangeSet();
+            boolean changesMade = mergeRetrieved(fetchedUsers, users, changes);
+            changesMade |= mergeRetrieved(fetchedClaims, claims, changes);
+            changesMade |= mergeRetrieved(details.getItems(), items, changes);
+            changesMade |= mergeRetrieved(details.getTags(), tags, changes);
+            publishChanges(changes);
+            return changesMade;
+        }
+        
+        @Override
+        protected void onPostExecute(Boolean changesMade) {
+            if (!callback.isCancelled())
+                callback.onResult(changesMade);
+        }
     }
     
     /**
      * Main sync operation - pulls from main helper and merges with local content.
      * Background task sets a booloan attribute to indicate changes were made during the merge. 
+     * Only to be started through requestSync().
      * @author kdbanman
      *
      */
     private class SyncDocumentsTask extends AsyncTask<Void, Void, String> {
 
-        private ResultCallback<Boolean> callback;
+        private ArrayList<ResultCallback<Boolean>> callbacks = new ArrayList<ResultCallback<Boolean>>();
 
-        private Collection<User> retrievedUsers;
-        private Collection<Claim> retrievedClaims;
-        private Collection<Item> retrievedItems;
-        private Collection<Tag> retrievedTags;
+        /** Documents retrieved per type, for logging.  Guarded by itself. */
+        private HashMap<Type, Integer> retrievedCounts = new HashMap<Type, Integer>();
+        
+        /** Deletions to perform once the pull completes, per type.  Guarded by itself. */
+        private HashMap<Type, Collection<Tombstone>> pendingDeletions = new HashMap<Type, Collection<Tombstone>>();
         
+        private HashMap<Type, Date> newWatermarks = new HashMap<Type, Date>();
+        
+        /** Pages of every type are merged one at a time, under this lock. */
+        private final Object mergeLock = new Object();
+        
+        /** Guarded by mergeLock. */
         private boolean changesMade = false;
+        private boolean reachedServer = false;
+        private int pushed = 0;
         private long id;
 
         /**
@@ -477,7 +1255,7 @@ public class CacheDataSource extends InMemoryDataSource {
          * @param callback sync result callback, or null for no action.
          */
         public SyncDocumentsTask(ResultCallback<Boolean> callback) {
-            this.callback = callback;
+            addCallback(callback);
             this.id = syncNumber++;
             Log.i("CacheDataSource", "SyncDocs id " + Long.toString(id) + " created");
         }
@@ -490,6 +1268,15 @@ public class CacheDataSource extends InMemoryDataSource {
             this(callback);
             Log.i("CacheDataSource", "Sync requested from " + caller);
         }
+        
+        /**
+         * Attach another callback to be called when this sync completes.  Must be called before the
+         * sync is started.
+         * @param callback sync result callback, or null for no action.
+         */
+        public void addCallback(ResultCallback<Boolean> callback) {
+            if (callback != null) callbacks.add(callback);
+        }
 
         /**
          * back on UI thread, do callback stuff, update observers.
@@ -500,16 +1287,26 @@ public class CacheDataSource extends InMemoryDataSource {
         protected void onPostExecute(String errMsg) {
             updateRunning = false;
             
+            if (reachedServer) {
+                pollSchedule.syncSucceeded(changesMade || pushed > 0);
+            } else {
+                pollSchedule.syncFailed();
+            }
+            
             // if null errmsg assume success.
             
-            // sync documents callback may be null, or it may wrap a get*() callback.
-            // if not null, call the callback.
-            if (callback != null) {
-                if (errMsg == null) {
-                    callback.onResult(changesMade);
-                } else {
-                    callback.onError(errMsg);
+            // sync documents callbacks may wrap get*() callbacks.
+            try {
+                for (ResultCallback<Boolean> callback : callbacks) {
+                    if (errMsg == null) {
+                        callback.onResult(changesMade);
+                    } else {
+                        callback.onError(errMsg);
+                    }
                 }
+            } finally {
+                // a misbehaving callback must not stall every later sync
+                syncFinished();
             }
 
             Log.i("CacheDataSource", "SyncDocs id " + Long.toString(id) + " completed.");
@@ -521,8 +1318,18 @@ public class CacheDataSource extends InMemoryDataSource {
             updateRunning = true;
             Log.i("CacheDataSource", "SyncDocs id " + Long.toString(id) + " running");
             
-            // attempt to pull all data from main
-            // (push all in memory to backup and return if fail)
+            // skip the remote entirely while it is known to be down
+            if (!mainHelper.startCycle()) {
+                Log.i("CacheDataSource", "Remote unavailable, syncing locally only.");
+                if (!dumpToBackup()) {
+                    return "Error saving to backup cache!";
+                }
+                return null;
+            }
+            
+            // attempt to pull all data from main, merging each page as it arrives
+            // (push all in memory to backup and return if fail.  pages merged before the
+            // failure stand, but the watermarks do not advance past them)
             if (!retrieveFromMain()) {
                 if (!dumpToBackup()) {
                     return "Error saving to backup cache!";
@@ -530,46 +1337,40 @@ public class CacheDataSource extends InMemoryDataSource {
                 return null; // normal execution - saved to backup, no error.
             }
 
-            Log.i("CacheDataSource", "Documents retrieved from remote.");
+            reachedServer = true;
+            Log.i("CacheDataSource", "Documents retrieved from remote and merged.");
             
-            logSizes("Sizes before deletions:");
-
-            this.<User>performPendingDeletions(this.<User>filterNonStaleDeletions(retrievedUsers, userDeletions), userDeletions);
-            this.<Claim>performPendingDeletions(this.<Claim>filterNonStaleDeletions(retrievedClaims, claimDeletions), claimDeletions);
-            this.<Item>performPendingDeletions(this.<Item>filterNonStaleDeletions(retrievedItems, itemDeletions), itemDeletions);
-            this.<Tag>performPendingDeletions(this.<Tag>filterNonStaleDeletions(retrievedTags, tagDeletions), tagDeletions);
+            try {
+                awaitAll(syncExecutor.submit(deletionTask(Type.USER, pendingDeletions.get(Type.USER))),
+                        syncExecutor.submit(deletionTask(Type.CLAIM, pendingDeletions.get(Type.CLAIM))),
+                        syncExecutor.submit(deletionTask(Type.ITEM, pendingDeletions.get(Type.ITEM))),
+                        syncExecutor.submit(deletionTask(Type.TAG, pendingDeletions.get(Type.TAG))));
+            } catch (Exception e) {
+                // deletion failures are handled per type, the unconfirmed tombstones are retried next cycle
+                Log.e("CacheDataSource", "UNKNOWN ERROR WHILE PERFOMING DELETIONS ON MAIN");
+            }
+            int expired = tombstones.collectGarbage(new Date());
             
-            logSizes("Sizes after deletions:");
+            logSizes("Sizes after merge and deletions:");
             
             Log.i("CacheDataSource", "Locally queued deletions attempted. " +
-                    Integer.toString(userDeletions.size()) + " users, " + 
-                    Integer.toString(claimDeletions.size()) + " claims, " + 
-                    Integer.toString(itemDeletions.size()) + " items, " + 
-                    Integer.toString(tagDeletions.size()) + " tags " + " queued deletions remain.");
+                    Integer.toString(tombstones.pendingCount()) + " queued deletions remain, " + 
+                    Integer.toString(expired) + " expired tombstones dropped.");
             
-            // merge every remaining received document into inmemory
-            changesMade = this.<User>mergeRetrieved(retrievedUsers, users, userDeletions);
-            changesMade |= this.<Claim>mergeRetrieved(retrievedClaims, claims, claimDeletions);
-            changesMade |= this.<Item>mergeRetrieved(retrievedItems, items, itemDeletions);
-            changesMade |= this.<Tag>mergeRetrieved(retrievedTags, tags, tagDeletions);
-
-            Log.i("CacheDataSource", "Retrieved and existing documents merged.");
+            // everything up to the new watermarks is now known locally
+            watermarks.putAll(newWatermarks);
+            pullsSinceFull = (pullsSinceFull + 1) % FULL_PULL_PERIOD;
             
             // dump post-merge in memory stuff to cache
             if (!dumpToBackup()) {
                 return "Error saving to backup cache after merge!";
             }
             
-            // push in memory to server
+            // push dirty documents to server, cleaning them as they succeed
             if (!pushToMain()) {
                 Log.w("CacheDataSource", "push to main failed - maintaining dirty status");
                 return null; // normal behaviour - no erron massage.
             }
-            // set all documents to clean if successful
-            setDirtyToClean(getDirtyUsers());
-            setDirtyToClean(getDirtyClaims());
-            setDirtyToClean(getDirtyItems());
-            setDirtyToClean(getDirtyTags());
             
             Log.i("CacheDataSource", "Sync cycle completed.");
             
@@ -579,10 +1380,12 @@ public class CacheDataSource extends InMemoryDataSource {
         private void logSizes(String msg) {
             Log.v("CacheDataSource", msg);
             
-            Log.v("CacheDataSource", "Retrieved users " + retrievedUsers.size() + 
-                    ", claims " + retrievedClaims.size() + 
-                    ", items " + retrievedItems.size() +
-                    ", tags " + retrievedTags.size());
+            synchronized (retrievedCounts) {
+                Log.v("CacheDataSource", "Retrieved users " + retrievedCounts.get(Type.USER) + 
+                        ", claims " + retrievedCounts.get(Type.CLAIM) + 
+                        ", items " + retrievedCounts.get(Type.ITEM) +
+                        ", tags " + retrievedCounts.get(Type.TAG));
+            }
             
             Log.v("CacheDataSource", "In memory users " + users.size() + 
                     ", claims " + claims.size() + 
@@ -599,46 +1402,26 @@ public class CacheDataSource extends InMemoryDataSource {
             }
         }
 
-        private <T extends Document> boolean mergeRetrieved(Collection<T> retrieved, Map<UUID, T> local, List<DeletionFlag<T>> relevantDeletions) {
-            boolean changes = false;
-            for (T toMerge : retrieved) {
-                for (DeletionFlag<T> deletion : relevantDeletions) {
-                    if (deletion.getToDelete().equals(toMerge))
-                        continue; // do not merge pending deletions
-                }
-                if (local.containsKey(toMerge.getUUID())) {
-                    boolean mergeResults = local.get(toMerge.getUUID()).mergeAttributesFrom(toMerge);
-                    changes |= mergeResults;
-                    if (mergeResults) {
-                        Log.i("CacheDataSource", "Existing document updated from remote.");
-                    }
-                } else {
-                    changes |= true;
-                    local.put(toMerge.getUUID(), toMerge);
-                    Log.i("CacheDataSource", "New document retrieved from remote.");
-                }
-            }
-            return changes;
-        }
-
-        private void setDirtyToClean(Collection<? extends Document> dirty) {
-            for (Document doc : dirty) {
-                doc.setClean();
-            }
-        }
-
         /**
+         * Pushes only dirty documents, in batches of at most PUSH_BATCH_SIZE.
+         * Documents are set clean only if the remote accepted them.
          * @return false if push fails, true if success
          */
         private boolean pushToMain() {
-            Log.i("CacheDataSource", "Dumping to main storage (remote)");
-            // save all in memory documents
+            if (dirtyCount() == 0) {
+                Log.i("CacheDataSource", "No dirty documents to push to main storage (remote)");
+                pushed = 0;
+                return true;
+            }
+            Log.i("CacheDataSource", "Pushing dirty documents to main storage (remote)");
             try {
-                mainHelper.saveDocuments(getUsers());
-                mainHelper.saveDocuments(getClaims());
-                mainHelper.saveDocuments(getItems());
-                mainHelper.saveDocuments(getTags());
-                Log.i("CacheDataSource", "Remote dump successful.");
+                Future<Integer> users = syncExecutor.submit(this.<User>pushTask(getDirtyUsers()));
+                Future<Integer> claims = syncExecutor.submit(this.<Claim>pushTask(getDirtyClaims()));
+                Future<Integer> items = syncExecutor.submit(this.<Item>pushTask(getDirtyItems()));
+                Future<Integer> tags = syncExecutor.submit(this.<Tag>pushTask(getDirtyTags()));
+                awaitAll(users, claims, items, tags);
+                pushed = users.get() + claims.get() + items.get() + tags.get();
+                Log.i("CacheDataSource", "Remote push successful. " + Integer.toString(pushed) + " documents pushed.");
                 return true;
             } catch (IOException e) {
                 Log.i("CacheDataSource", "Could not save to main (connection err).");
@@ -649,110 +1432,139 @@ public class CacheDataSource extends InMemoryDataSource {
             
         }
 
-        private <T extends Document> void performPendingDeletions(ArrayList<Document> pendingDeletions, List<DeletionFlag<T>> deletions) {
-            // remove above pending from remote and local in batch using .deletDocuments()
-            if (pendingDeletions.size() == 0)
-                return;
-            
-            try {
-                mainHelper.deleteDocuments(pendingDeletions);
-                Log.i("CacheDataSource", "Remote deletion batch removed from remote storage.");
-            } catch (IOException e) {
-                Log.i("CacheDataSource", "Deletions from main unsuccessful, not clearing deletions list.");
-                return;
-            } catch (Exception e) {
-                Log.e("CacheDataSource", "UNKNOWN ERROR WHILE PERFOMING DELETIONS ON MAIN");
-                return;
-            }
-            try {
-                backupHelper.deleteDocuments(pendingDeletions);
-                Log.i("CacheDataSource", "Remote deletion batch removed from local storage.");
-            } catch (IOException e) {
-                Log.w("CacheDataSource", "Failed to delete from backup helper!");
-                return;
-            } catch (Exception e) {
-                Log.e("CacheDataSource", "UNKNOWN ERROR WHILE PERFOMING DELETIONS ON BACKUP");
-                return;
-            }
-            
-            // remove pending deletions from deletion list since they were successful
-            ArrayList<DeletionFlag<T>> flagsToClear = new ArrayList<DeletionFlag<T>>();
-            for (Document deleted : pendingDeletions) {
-                for (DeletionFlag<T> flag: deletions) {
-                    if (flag.getToDelete().equals(deleted)) {
-                        Log.i("CacheDataSource", "Completed deletion removed from local deletion flag queue.");
-                        flagsToClear.add(flag);
-                    }
+        private <T extends Document> Callable<Integer> pushTask(final Collection<T> toPush) {
+            return new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return pushBatches(toPush);
                 }
-            }
-            //deletions.removeAll(flagsToClear);  // Retrieved documents may contain deleted stuff after up to 3 ESHelper delete calls.  HACK: don't ever remove deletions
+            };
         }
         
         /**
-         * do deletions that are not out-of-date on received.
-         * 
-         * @param retrieved the retrieved documents to filter on
-         * @return 
-         * @return the deletions that were performed on retrieved (passed) documents.
+         * @return the number of documents the remote accepted.
          */
-        private <T extends Document> ArrayList<Document> filterNonStaleDeletions(Collection<T> retrieved, List<DeletionFlag<T>> deletions) {
-            ArrayList<Document> pendingDeletions = new ArrayList<Document>();
-            ArrayList<DeletionFlag<T>> overriddenDeletions = new ArrayList<DeletionFlag<T>>();
-            for (DeletionFlag<T> deletion : deletions) {
-                switch (mergeDeletion(deletion, retrieved)) {
-                case CHANGED:
-                    pendingDeletions.add(deletion.getToDelete());
-                    Log.i("CacheDataSource", "Local deletion added to remote removal batch.");
-                    break;
-                case OVERRIDDEN:
-                    overriddenDeletions.add(deletion);
-                    Log.i("CacheDataSource", "Local deletion added to local ignore batch.");
-                    break;
-                case NOT_FOUND:
-                    pendingDeletions.add(deletion.getToDelete());
-                    Log.i("CacheDataSource", "Local deletion not found in retrieved documents.");
-                    break;
-                default:
-                    Log.w("CacheDataSource", "Unexpected merge result!.");
-                    break;
+        private <T extends Document> int pushBatches(Collection<T> dirty) throws Exception {
+            int pushed = 0;
+            ArrayList<T> batch = new ArrayList<T>(PUSH_BATCH_SIZE);
+            for (T doc : dirty) {
+                batch.add(doc);
+                if (batch.size() == PUSH_BATCH_SIZE) {
+                    pushed += this.<T>pushBatch(batch);
+                    batch.clear();
                 }
             }
-            // remove overridden deletions from deletion list
-            deletions.removeAll(overriddenDeletions);
-            return pendingDeletions;
+            if (!batch.isEmpty())
+                pushed += this.<T>pushBatch(batch);
+            return pushed;
         }
         
-        private MergeResult mergeDeletion(DeletionFlag<? extends Document> deletion,
-                Collection<? extends Document> retrievedDocuments) {
+        private <T extends Document> int pushBatch(Collection<T> batch) throws Exception {
+            // documents may be edited on the UI thread mid-push, and those edits must stay dirty.
+            // by UUID, since their hash codes change as they are edited.
+            HashMap<UUID, Date> sentVersions = new HashMap<UUID, Date>();
+            for (T doc : batch) {
+                sentVersions.put(doc.getUUID(), doc.getLastChanged());
+            }
             
-            for (Document doc : retrievedDocuments) {
-                if (deletion.getToDelete().equals(doc)) {
-                    // perform delete if timestamp is newer than retrieved lastChanged,
-                    // override deletion otherwise
-                    if (deletion.getDate().after(doc.getLastChanged())) {
-                        retrievedDocuments.remove(deletion.getToDelete());
-                        Log.i("CacheDataSource", "Locally deleted document removed from retrieved documents.");
-                        return MergeResult.CHANGED;
-                    } else {
-                        Log.i("CacheDataSource", "Local deletion out of date - *not* removed from retrieved documents.");
-                        return MergeResult.OVERRIDDEN;
+            // documents the remote already has only need their changed fields sent
+            ArrayList<T> whole = new ArrayList<T>();
+            ArrayList<T> partial = new ArrayList<T>();
+            HashMap<UUID, Set<String>> partialFields = new HashMap<UUID, Set<String>>();
+            for (T doc : batch) {
+                Set<String> fields = doc.getUnsyncedFields();
+                if (fields == null || fields.isEmpty()) {
+                    whole.add(doc);
+                } else {
+                    partial.add(doc);
+                    partialFields.put(doc.getUUID(), fields);
+                }
+            }
+            
+            Collection<T> saved = new ArrayList<T>();
+            if (!whole.isEmpty())
+                saved.addAll(mainHelper.<T>saveDocuments(whole));
+            if (!partial.isEmpty()) {
+                Collection<T> updated = mainHelper.<T>updateDocuments(partial, partialFields);
+                saved.addAll(updated);
+                if (updated.size() < partial.size()) {
+                    // the remote may have lost them, so send them whole next time
+                    for (T doc : partial) {
+                        if (!updated.contains(doc)) doc.markUnsynced();
                     }
                 }
             }
-            return MergeResult.NOT_FOUND;
+            
+            for (T doc : saved) {
+                if (doc.getLastChanged().equals(sentVersions.get(doc.getUUID())))
+                    doc.setClean();
+            }
+            if (saved.size() < batch.size())
+                Log.w("CacheDataSource", Integer.toString(batch.size() - saved.size()) + " documents rejected by remote - maintaining dirty status");
+            Log.i("CacheDataSource", Integer.toString(partial.size()) + " of " + Integer.toString(batch.size()) + " documents pushed as partial updates.");
+            return saved.size();
         }
 
+        private Runnable deletionTask(final Type type, final Collection<Tombstone> pending) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    performPendingDeletions(type, pending);
+                }
+            };
+        }
+        
+        private void performPendingDeletions(Type type, Collection<Tombstone> pending) {
+            // remove above pending from remote in batch using .deleteDocuments()
+            if (pending.size() == 0)
+                return;
+            
+            ArrayList<UUID> ids = new ArrayList<UUID>();
+            for (Tombstone tombstone : pending) {
+                ids.add(tombstone.getUUID());
+            }
+            
+            Collection<UUID> deleted;
+            try {
+                deleted = mainHelper.deleteDocuments(type, ids);
+                Log.i("CacheDataSource", Integer.toString(deleted.size()) + " of " + Integer.toString(ids.size()) +
+                        " remote deletions removed from remote storage.");
+            } catch (IOException e) {
+                Log.i("CacheDataSource", "Deletions from main unsuccessful, tombstones remain unconfirmed.");
+                return;
+            } catch (Exception e) {
+                Log.e("CacheDataSource", "UNKNOWN ERROR WHILE PERFOMING DELETIONS ON MAIN");
+                return;
+            }
+            
+            // Retrieved documents may contain deleted stuff after up to 3 ESHelper delete calls,
+            // so confirmed tombstones are kept until they expire.  Rejected ones stay unconfirmed.
+            tombstones.confirm(deleted, new Date());
+        }
+        
         /**
+         * Flushes only the documents changed or deleted since the last successful flush.
          * @return false if save fails, true if success
          */
         private boolean dumpToBackup() {
-            Log.i("CacheDataSource", "Dumping to local cache");
-            // save all in memory documents
+            ArrayList<Document> saves;
+            ArrayList<Document> removals;
+            synchronized (backupSaves) {
+                saves = new ArrayList<Document>(backupSaves.values());
+                removals = new ArrayList<Document>(backupRemovals.values());
+                backupSaves.clear();
+                backupRemovals.clear();
+            }
+            if (saves.isEmpty() && removals.isEmpty()) {
+                Log.i("CacheDataSource", "Local cache up to date");
+                return true;
+            }
+            
+            Log.i("CacheDataSource", "Flushing to local cache. " + Integer.toString(saves.size()) + " changed, " + 
+                    Integer.toString(removals.size()) + " deleted.");
             try {
-                backupHelper.saveDocuments(getUsers());
-                backupHelper.saveDocuments(getClaims());
-                backupHelper.saveDocuments(getItems());
-                backupHelper.saveDocuments(getTags());
+                backupHelper.saveDocuments(saves);
+                backupHelper.deleteDocuments(removals);
                 Log.i("CacheDataSource", "local backup successful");
                 return true;
             } catch (IOException e) {
@@ -760,19 +1572,35 @@ public class CacheDataSource extends InMemoryDataSource {
             } catch (Exception e) {
                 Log.e("CacheDataSource", "UNKNOWN ERROR FROM BACKUP HELPER");
             }
-            return false;
             
+            // requeue for the next flush, unless superseded in the meantime
+            synchronized (backupSaves) {
+                for (Document doc : saves) {
+                    if (!backupSaves.containsKey(doc.getUUID()) && !backupRemovals.containsKey(doc.getUUID()))
+                        backupSaves.put(doc.getUUID(), doc);
+                }
+                for (Document doc : removals) {
+                    if (!backupSaves.containsKey(doc.getUUID()) && !backupRemovals.containsKey(doc.getUUID()))
+                        backupRemovals.put(doc.getUUID(), doc);
+                }
+            }
+            return false;
         }
 
         /**
+         * Pulls only the documents changed since the last successful pull (or everything, if a
+         * full pull is due).
          * @return false if retrieval fails, true if success
          */
         private boolean retrieveFromMain() {
+            boolean fullPull = pullsSinceFull == 0;
+            if (fullPull) Log.i("CacheDataSource", "Full pull from remote.");
             try {
-                 retrievedUsers = mainHelper.getAllUsers();
-                 retrievedClaims = mainHelper.getAllClaims();
-                 retrievedItems = mainHelper.getAllItems();
-                 retrievedTags = mainHelper.getAllTags();
+                 // one request per type, all in flight at once
+                 awaitAll(syncExecutor.submit(this.<User>retrieveTask(Type.USER, users, fullPull)),
+                         syncExecutor.submit(this.<Claim>retrieveTask(Type.CLAIM, claims, fullPull)),
+                         syncExecutor.submit(this.<Item>retrieveTask(Type.ITEM, items, fullPull)),
+                         syncExecutor.submit(this.<Tag>retrieveTask(Type.TAG, tags, fullPull)));
                  return true;
             } catch (IOException e) {
                 Log.i("CacheDataSource", "Connection error");
@@ -781,6 +1609,95 @@ public class CacheDataSource extends InMemoryDataSource {
             }
             return false;
         }
+        
+        private <T extends Document> Callable<Void> retrieveTask(final Type type, final SnapshotMap<T> local, final boolean fullPull) {
+            return new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    retrieveChanged(type, local, fullPull);
+                    return null;
+                }
+            };
+        }
+        
+        /**
+         * Pull the documents of a type changed since its watermark, and merge them a page at a
+         * time, so that no more than a page of them is held at once.  Retrieved documents that
+         * are being deleted are dropped, and deletions overridden by newer remote changes are
+         * discarded.  The deletions to perform, and the watermark the pull would advance to, are
+         * noted for once the pull completes.
+         */
+        private <T extends Document> void retrieveChanged(Type type, final SnapshotMap<T> local, boolean fullPull) throws Exception {
+            Date since = watermarks.get(type);
+            if (fullPull || since == null) {
+                since = null;
+            } else {
+                since = new Date(since.getTime() - WATERMARK_OVERLAP);
+            }
+            
+            final DeletionReconciliation<T> reconciliation = new DeletionReconciliation<T>(tombstones.get(type));
+            final Date[] newMark = { watermarks.get(type) };
+            final int[] count = { 0 };
+            final int[] discarded = { 0 };
+            mainHelper.<T>getChangedSince(type, since, new PageCallback<T>() {
+                
+                @Override
+                public void onPage(Collection<T> page) {
+                    count[0] += page.size();
+                    for (T doc : page) {
+                        Date changed = doc.getLastChanged();
+                        if (changed != null && (newMark[0] == null || changed.after(newMark[0])))
+                            newMark[0] = changed;
+                    }
+                    
+                    // pages delivered again after a restart reconcile and merge the same way
+                    ArrayList<T> remaining = reconciliation.reconcile(page);
+                    ArrayList<Tombstone> overridden = reconciliation.getOverridden();
+                    if (overridden.size() > discarded[0]) {
+                        tombstones.discard(overridden.subList(discarded[0], overridden.size()));
+                        discarded[0] = overridden.size();
+                    }
+                    ChangeSet changes = new ChangeSet();
+                    synchronized (mergeLock) {
+                        changesMade |= CacheDataSource.this.<T>mergeRetrieved(remaining, local, changes);
+                    }
+                    publishChanges(changes);
+                }
+            });
+            reconciliation.finish();
+            
+            Log.i("CacheDataSource", Integer.toString(reconciliation.getPending().size()) + " local deletions added to remote removal batch, " + 
+                    Integer.toString(reconciliation.getOverridden().size()) + " out of date.");
+            synchronized (pendingDeletions) {
+                pendingDeletions.put(type, reconciliation.getPending());
+            }
+            synchronized (retrievedCounts) {
+                retrievedCounts.put(type, count[0]);
+            }
+            if (newMark[0] != null) {
+                synchronized (newWatermarks) {
+                    newWatermarks.put(type, newMark[0]);
+                }
+            }
+        }
+        
+        /**
+         * Wait for every passed task to finish, so that no request is left running after a failure.
+         * @throws Exception the first failure, unwrapped, if any task failed.
+         */
+        private void awaitAll(Future<?>... futures) throws Exception {
+            Exception failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null)
+                        failure = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+                }
+            }
+            if (failure != null)
+                throw failure;
+        }
     }
 
 }
@@ -0,0 +1,207 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.model;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import cmput301w15t07.TravelTracker.serverinterface.Constants.Type;
+
+/**
+ * The Documents added, updated and deleted since observers were last notified, by type.
+ * 
+ * Changes to the same Document are coalesced, so each UUID appears at most once:
+ * a Document added and then updated is only listed as added, and one added and then
+ * deleted before anyone saw it is not listed at all.
+ * 
+ * @author kdbanman
+ *
+ */
+public class ChangeSet {
+    
+    private HashMap<Type, LinkedHashSet<UUID>> added;
+    private HashMap<Type, LinkedHashSet<UUID>> updated;
+    private HashMap<Type, LinkedHashSet<UUID>> deleted;
+    
+    public ChangeSet() {
+        added = new HashMap<Type, LinkedHashSet<UUID>>();
+        updated = new HashMap<Type, LinkedHashSet<UUID>>();
+        deleted = new HashMap<Type, LinkedHashSet<UUID>>();
+    }
+    
+    /**
+     * Record a newly stored Document.
+     * @param doc The Document added.
+     */
+    public void recordAdded(Document doc) {
+        recordAdded(doc.getType(), doc.getUUID());
+    }
+    
+    /**
+     * Record a change to a stored Document.
+     * @param doc The Document updated.
+     */
+    public void recordUpdated(Document doc) {
+        recordUpdated(doc.getType(), doc.getUUID());
+    }
+    
+    /**
+     * Record the removal of a Document.
+     * @param doc The Document deleted.
+     */
+    public void recordDeleted(Document doc) {
+        recordDeleted(doc.getType(), doc.getUUID());
+    }
+    
+    /**
+     * Fold later changes into this set, as if they had been recorded here.
+     * @param later The changes that happened after the ones already recorded.
+     */
+    public void addAll(ChangeSet later) {
+        for (Type type : later.added.keySet()) {
+            for (UUID id : later.added.get(type)) recordAdded(type, id);
+        }
+        for (Type type : later.updated.keySet()) {
+            for (UUID id : later.updated.get(type)) recordUpdated(type, id);
+        }
+        for (Type type : later.deleted.keySet()) {
+            for (UUID id : later.deleted.get(type)) recordDeleted(type, id);
+        }
+    }
+    
+    /**
+     * @return The UUIDs of added Documents of the type.  Unmodifiable.
+     */
+    public Set<UUID> getAdded(Type type) {
+        return view(added, type);
+    }
+    
+    /**
+     * @return The UUIDs of updated Documents of the type.  Unmodifiable.
+     */
+    public Set<UUID> getUpdated(Type type) {
+        return view(updated, type);
+    }
+    
+    /**
+     * @return The UUIDs of deleted Documents of the type.  Unmodifiable.
+     */
+    public Set<UUID> getDeleted(Type type) {
+        return view(deleted, type);
+    }
+    
+    /**
+     * @return Whether any Document of the type was added, updated or deleted.
+     */
+    public boolean affects(Type type) {
+        return added.containsKey(type) || updated.containsKey(type) || deleted.containsKey(type);
+    }
+    
+    /**
+     * @return Whether the Document was added, updated or deleted.
+     */
+    public boolean affects(UUID id) {
+        for (Type type : Type.values()) {
+            if (contains(added, type, id) || contains(updated, type, id) || contains(deleted, type, id))
+                return true;
+        }
+        return false;
+    }
+    
+    public boolean isEmpty() {
+        return added.isEmpty() && updated.isEmpty() && deleted.isEmpty();
+    }
+    
+    /**
+     * @return The number of Documents changed.
+     */
+    public int size() {
+        return count(added) + count(updated) + count(deleted);
+    }
+    
+    @Override
+    public String toString() {
+        return "ChangeSet [added=" + added + ", updated=" + updated + ", deleted=" + deleted + "]";
+    }
+    
+    private void recordAdded(Type type, UUID id) {
+        if (remove(deleted, type, id)) {
+            // replaced under the same UUID
+            put(updated, type, id);
+        } else {
+            put(added, type, id);
+        }
+    }
+    
+    private void recordUpdated(Type type, UUID id) {
+        if (!contains(added, type, id))
+            put(updated, type, id);
+    }
+    
+    private void recordDeleted(Type type, UUID id) {
+        if (remove(added, type, id))
+            return; // never seen by observers
+        remove(updated, type, id);
+        put(deleted, type, id);
+    }
+    
+    private static Set<UUID> view(HashMap<Type, LinkedHashSet<UUID>> ids, Type type) {
+        LinkedHashSet<UUID> ofType = ids.get(type);
+        if (ofType == null)
+            return Collections.emptySet();
+        return Collections.unmodifiableSet(ofType);
+    }
+    
+    private static boolean contains(HashMap<Type, LinkedHashSet<UUID>> ids, Type type, UUID id) {
+        LinkedHashSet<UUID> ofType = ids.get(type);
+        return ofType != null && ofType.contains(id);
+    }
+    
+    private static void put(HashMap<Type, LinkedHashSet<UUID>> ids, Type type, UUID id) {
+        LinkedHashSet<UUID> ofType = ids.get(type);
+        if (ofType == null) {
+            ofType = new LinkedHashSet<UUID>();
+            ids.put(type, ofType);
+        }
+        ofType.add(id);
+    }
+    
+    private static boolean remove(HashMap<Type, LinkedHashSet<UUID>> ids, Type type, UUID id) {
+        LinkedHashSet<UUID> ofType = ids.get(type);
+        if (ofType == null || !ofType.remove(id))
+            return false;
+        if (ofType.isEmpty())
+            ids.remove(type);
+        return true;
+    }
+    
+    private static int count(HashMap<Type, LinkedHashSet<UUID>> ids) {
+        int count = 0;
+        for (LinkedHashSet<UUID> ofType : ids.values()) {
+            count += ofType.size();
+        }
+        return count;
+    }
+}
@@ -36,6 +36,17 @@ import cmput301w15t07.TravelTracker.serverinterface.Constants.Type;
  *
  */
 public class Claim extends Document {
+    
+    /* JSON names of the fields, for field-level sync and merge. */
+    static final String USER = "user";
+    static final String APPROVER = "approver";
+    static final String STATUS = "status";
+    static final String START_DATE = "startDate";
+    static final String END_DATE = "endDate";
+    static final String DESTINATIONS = "destinations";
+    static final String COMMENTS = "comments";
+    static final String TAGS = "tags";
+    
     private UUID user;
     private UUID approver;
     private Status status;
@@ -86,7 +97,7 @@ public class Claim extends Document {
      */
     public void setUser(UUID user) {
         this.user = user;
-        this.<Claim>hasChanged(this);
+        this.<Claim>hasChanged(this, USER);
     }
     
     /**
@@ -103,7 +114,7 @@ public class Claim extends Document {
      */
     public void setApprover(UUID approver) {
         this.approver = approver;
-        this.<Claim>hasChanged(this);
+        this.<Claim>hasChanged(this, APPROVER);
     }
     
     /**
@@ -120,7 +131,7 @@ public class Claim extends Document {
      */
     public void setStatus(Status status) {
         this.status = status;
-        this.<Claim>hasChanged(this);
+        this.<Claim>hasChanged(this, STATUS);
     }
 
     /**
@@ -137,7 +148,7 @@ public class Claim extends Document {
      */
     public void setStartDate(Date startDate) {
         this.startDate = startDate;
-        this.<Claim>hasChanged(this);
+        this.<Claim>hasChanged(this, START_DATE);
     }
 
     /**
@@ -154,7 +165,7 @@ public class Claim extends Document {
      */
     public void setEndDate(Date endDate) {
         this.endDate = endDate;
-        this.<Claim>hasChanged(this);
+        this.<Claim>hasChanged(this, END_DATE);
     }
 
     /**
@@ -174,7 +185,7 @@ public class Claim extends Document {
      */
     public void setDestinations(ArrayList<Destination> destinations) {
         this.destinations = destinations;
-        this.<Claim>hasChanged(this);
+        this.<Claim>hasChanged(this, DESTINATIONS);
     }
 
     /**
@@ -194,7 +205,7 @@ public class Claim extends Document {
      */
     public void setComments(ArrayList<ApproverComment> comments) {
         this.comments = comments;
-        this.<Claim>hasChanged(this);
+        this.<Claim>hasChanged(this, COMMENTS);
     }
     
     /**
@@ -203,7 +214,7 @@ public class Claim extends Document {
      */
     public void addComment(ApproverComment comment) {
         this.comments.add(comment);
-        this.<Claim>hasChanged(this);
+        this.<Claim>hasChanged(this, COMMENTS);
     }
     
     /**
@@ -212,7 +223,7 @@ public class Claim extends Document {
      */
     public void addComment(String commentText) {
         this.comments.add(0, new ApproverComment(commentText, new Date()));
-        this.<Claim>hasChanged(this);
+        this.<Claim>hasChanged(this, COMMENTS);
     }
 
     /**
@@ -232,7 +243,7 @@ public class Claim extends Document {
      */
     public void setTags(ArrayList<UUID> tags) {
         this.tags = tags;
-        this.<Claim>hasChanged(this);
+        this.<Claim>hasChanged(this, TAGS);
     }
 
     @Override
@@ -290,6 +301,19 @@ public class Claim extends Document {
         return true;
     }
 
+    @Override
+    protected void copyMutableFields() {
+        // the getters hand out these lists, and addComment() edits one in place
+        if (destinations != null) destinations = new ArrayList<Destination>(destinations);
+        if (comments != null) comments = new ArrayList<ApproverComment>(comments);
+        if (tags != null) tags = new ArrayList<UUID>(tags);
+    }
+    
+    @Override
+    protected boolean mergesByField() {
+        return true;
+    }
+
     @Override
     protected boolean mergeFrom(Document sourceDoc) {
         if (!(sourceDoc instanceof Claim))
@@ -297,108 +321,45 @@ public class Claim extends Document {
         Claim sourceClaim = (Claim) sourceDoc;
         boolean changed = false;
         
-        if (this.approver != null) {
-            if (!this.approver.equals(sourceClaim.approver)) {
-                changed |= true;
-                this.approver = sourceClaim.approver;
-            }
-        } else {
-            // attribute is null, if source is not null then set it
-            if (!(sourceClaim.approver == null)) {
-                changed |= true;
-                this.approver = sourceClaim.approver;
-            }
+        // adopt each field only if the source changed it at least as recently
+        if (isNewerIn(sourceClaim, APPROVER) && !equal(approver, sourceClaim.approver)) {
+            changed |= true;
+            this.approver = sourceClaim.approver;
         }
         
-        if (this.comments != null) {
-            if (!this.comments.equals(sourceClaim.comments)) {
-                changed |= true;
-                this.comments = sourceClaim.comments;
-            }
-        } else {
-            // attribute is null, if source is not null then set it
-            if (!(sourceClaim.comments == null)) {
-                changed |= true;
-                this.comments = sourceClaim.comments;
-            }
+        if (isNewerIn(sourceClaim, COMMENTS) && !equal(comments, sourceClaim.comments)) {
+            changed |= true;
+            this.comments = sourceClaim.comments;
         }
         
-        if (this.destinations != null) {
-            if (!this.destinations.equals(sourceClaim.destinations)) {
-                changed |= true;
-                this.destinations = sourceClaim.destinations;
-            }
-        } else {
-            // attribute is null, if source is not null then set it
-            if (!(sourceClaim.destinations == null)) {
-                changed |= true;
-                this.destinations = sourceClaim.destinations;
-            }
+        if (isNewerIn(sourceClaim, DESTINATIONS) && !equal(destinations, sourceClaim.destinations)) {
+            changed |= true;
+            this.destinations = sourceClaim.destinations;
         }
         
-        if (this.endDate != null) {
-            if (!this.endDate.equals(sourceClaim.endDate)) {
-                changed |= true;
-                this.endDate = sourceClaim.endDate;
-            }
-        } else {
-            // attribute is null, if source is not null then set it
-            if (!(sourceClaim.endDate == null)) {
-                changed |= true;
-                this.endDate = sourceClaim.endDate;
-            }
+        if (isNewerIn(sourceClaim, END_DATE) && !equal(endDate, sourceClaim.endDate)) {
+            changed |= true;
+            this.endDate = sourceClaim.endDate;
         }
         
-        if (this.startDate != null) {
-            if (!this.startDate.equals(sourceClaim.startDate)) {
-                changed |= true;
-                this.startDate = sourceClaim.startDate;
-            }
-        } else {
-            // attribute is null, if source is not null then set it
-            if (!(sourceClaim.startDate == null)) {
-                changed |= true;
-                this.startDate = sourceClaim.startDate;
-            }
+        if (isNewerIn(sourceClaim, START_DATE) && !equal(startDate, sourceClaim.startDate)) {
+            changed |= true;
+            this.startDate = sourceClaim.startDate;
         }
         
-        if (this.status != null) {
-            if (!this.status.equals(sourceClaim.status)) {
-                changed |= true;
-                this.status = sourceClaim.status;
-            }
-        } else {
-            // attribute is null, if source is not null then set it
-            if (!(sourceClaim.status == null)) {
-                changed |= true;
-                this.status = sourceClaim.status;
-            }
+        if (isNewerIn(sourceClaim, STATUS) && !equal(status, sourceClaim.status)) {
+            changed |= true;
+            this.status = sourceClaim.status;
         }
         
-        if (this.tags != null) {
-            if (!this.tags.equals(sourceClaim.tags)) {
-                changed |= true;
-                this.tags = sourceClaim.tags;
-            }
-        } else {
-            // attribute is null, if source is not null then set it
-            if (!(sourceClaim.tags == null)) {
-                changed |= true;
-                this.tags = sourceClaim.tags;
-            }
+        if (isNewerIn(sourceClaim, TAGS) && !equal(tags, sourceClaim.tags)) {
+            changed |= true;
+            this.tags = sourceClaim.tags;
         }
         
-        if (this.user != null) {
-            if (!this.user.equals(sourceClaim.user)) {
-                changed |= true;
-                this.user = sourceClaim.user;
-            }
-        } else {
-            // attribute is null, if source is not null then set it
-            if (!(sourceClaim.user == null)) {
-                changed |= true;
-                this.user = sourceClaim.user;
-            }
+        if (isNewerIn(sourceClaim, USER) && !equal(user, sourceClaim.user)) {
+            changed |= true;
+            this.user = sourceClaim.user;
         }
         
         return changed;
@@ -0,0 +1,81 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.model;
+
+import java.util.Collection;
+
+/**
+ * A Claim together with the Documents displayed alongside it: its Items, its claimant and
+ * approver, and the claimant's Tags.  Read together, so the parts are consistent.
+ * 
+ * @author kdbanman
+ *
+ */
+public class ClaimDetails {
+    
+    private Claim claim;
+    private Collection<Item> items;
+    private User claimant;
+    private User approver;
+    private Collection<Tag> tags;
+    
+    /**
+     * @param claim The Claim.
+     * @param items The Claim's Items.
+     * @param claimant The User who created the Claim.
+     * @param approver The Claim's approver, or null if it has none.
+     * @param tags The claimant's Tags.
+     */
+    public ClaimDetails(Claim claim, Collection<Item> items, User claimant, User approver, Collection<Tag> tags) {
+        this.claim = claim;
+        this.items = items;
+        this.claimant = claimant;
+        this.approver = approver;
+        this.tags = tags;
+    }
+    
+    public Claim getClaim() {
+        return claim;
+    }
+    
+    public Collection<Item> getItems() {
+        return items;
+    }
+    
+    public User getClaimant() {
+        return claimant;
+    }
+    
+    /**
+     * @return The Claim's approver, or null if it has none.
+     */
+    public User getApprover() {
+        return approver;
+    }
+    
+    /**
+     * @return The claimant's Tags.
+     */
+    public Collection<Tag> getTags() {
+        return tags;
+    }
+}
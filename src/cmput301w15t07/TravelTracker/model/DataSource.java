@@ -42,6 +42,18 @@ public interface DataSource {
     public void addObserver(Observer<DataSource> obs);
     public void removeObserver(Observer<DataSource> obs);
     public void updateObservers(DataSource self);
+    
+    /**
+     * Observe the Documents added, updated and deleted, rather than just that something changed.
+     * Observers are notified on the UI thread, with bursts of changes coalesced into one ChangeSet.
+     * @param obs The observer to add.
+     */
+    public void addChangeObserver(Observer<ChangeSet> obs);
+    
+    /**
+     * @param obs The observer to remove.
+     */
+    public void removeChangeObserver(Observer<ChangeSet> obs);
 
     /**
      * Add a user.
@@ -63,6 +75,14 @@ public interface DataSource {
      */
     public void addItem(Claim claim, ResultCallback<Item> callback);
 
+    /**
+     * Add several expense items at once, as a single change.
+     * @param claim The claim to which the items belong.
+     * @param count The number of items to add.
+     * @param callback The result callback. On success, the result is the collection of new Items.
+     */
+    public void addItems(Claim claim, int count, ResultCallback<Collection<Item>> callback);
+
     /**
      * Add a tag.
      * @param user The user to which the tag belongs. 
@@ -98,6 +118,30 @@ public interface DataSource {
      */
     public void deleteTag(UUID id, ResultCallback<Void> callback);
 
+    /**
+     * Delete several claims, and their items, as a single change.
+     * @param ids The claims' IDs.
+     * @param callback The result callback. On success, the result is null.  If some claims
+     * are not found, the rest are still deleted and the callback gets an error.
+     */
+    public void deleteClaims(Collection<UUID> ids, ResultCallback<Void> callback);
+
+    /**
+     * Delete several items as a single change.
+     * @param ids The items' IDs.
+     * @param callback The result callback. On success, the result is null.  If some items
+     * are not found, the rest are still deleted and the callback gets an error.
+     */
+    public void deleteItems(Collection<UUID> ids, ResultCallback<Void> callback);
+
+    /**
+     * Delete several tags as a single change.
+     * @param ids The tags' IDs.
+     * @param callback The result callback. On success, the result is null.  If some tags
+     * are not found, the rest are still deleted and the callback gets an error.
+     */
+    public void deleteTags(Collection<UUID> ids, ResultCallback<Void> callback);
+
     /**
      * Get a user.
      * @param id The user's ID.
@@ -126,6 +170,21 @@ public interface DataSource {
      */
     public void getTag(UUID id, ResultCallback<Tag> callback);
 
+    /**
+     * Get several users at once, ex. the claimants of a list of claims.
+     * @param ids The users' IDs.
+     * @param callback The result callback. On success, the result is the collection of Users
+     * found.  Users that do not exist are omitted.
+     */
+    public void getUsers(Collection<UUID> ids, ResultCallback<Collection<User>> callback);
+
+    /**
+     * Get a claim along with its items, claimant, approver and the claimant's tags, all at once.
+     * @param id The claim's ID.
+     * @param callback The result callback. On success, the result is the ClaimDetails.
+     */
+    public void getClaimDetails(UUID id, ResultCallback<ClaimDetails> callback);
+
     /**
      * Get the collection of all users.
      * @param callback The result callback. On success, the result is the collection of Users.
@@ -149,4 +208,40 @@ public interface DataSource {
      * @param callback The result callback. On success, the result is the collection of Tags.
      */
     public void getAllTags(ResultCallback<Collection<Tag>> callback);
+
+    /**
+     * Get the claims belonging to a user.
+     * @param user The user's ID.
+     * @param callback The result callback. On success, the result is the collection of the user's Claims.
+     */
+    public void getClaimsForUser(UUID user, ResultCallback<Collection<Claim>> callback);
+
+    /**
+     * Get the claims waiting for an approver: submitted claims assigned to them or to nobody,
+     * except their own, ordered by start date.
+     * @param approver The approver's ID.
+     * @param callback The result callback. On success, the result is the collection of Claims.
+     */
+    public void getApprovalQueue(UUID approver, ResultCallback<Collection<Claim>> callback);
+
+    /**
+     * Get the expense items belonging to a claim.
+     * @param claim The claim's ID.
+     * @param callback The result callback. On success, the result is the collection of the claim's Items.
+     */
+    public void getItemsForClaim(UUID claim, ResultCallback<Collection<Item>> callback);
+
+    /**
+     * Get the expense items belonging to any of several claims.
+     * @param claims The claims' IDs.
+     * @param callback The result callback. On success, the result is the collection of the claims' Items.
+     */
+    public void getItemsForClaims(Collection<UUID> claims, ResultCallback<Collection<Item>> callback);
+
+    /**
+     * Get the tags belonging to a user.
+     * @param user The user's ID.
+     * @param callback The result callback. On success, the result is the collection of the user's Tags.
+     */
+    public void getTagsForUser(UUID user, ResultCallback<Collection<Tag>> callback);
 }
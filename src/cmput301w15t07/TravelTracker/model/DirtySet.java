@@ -0,0 +1,122 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+
+import cmput301w15t07.TravelTracker.serverinterface.Constants.Type;
+
+/**
+ * The dirty Documents of a data source, by type.  Tracked Documents report their own
+ * dirty/clean transitions, so finding the work to push costs time proportional to the
+ * number of dirty Documents rather than the number stored.
+ * 
+ * Safe to use from several threads.  Each transition re-reads the Document's flag under
+ * the set's lock, so racing setters and sync threads cannot leave the set stale.
+ * 
+ * Documents are kept by UUID, since their hash codes change as they are edited.
+ * 
+ * @author kdbanman
+ *
+ */
+public class DirtySet {
+    
+    private HashMap<Type, LinkedHashMap<UUID, Document>> dirty;
+    private int count;
+    
+    public DirtySet() {
+        dirty = new HashMap<Type, LinkedHashMap<UUID, Document>>();
+        count = 0;
+    }
+    
+    /**
+     * Start tracking a stored Document.
+     * @param doc The Document, which is added to the set if it is already dirty.
+     */
+    public synchronized void track(Document doc) {
+        doc.setDirtySet(this);
+        markDirty(doc);
+    }
+    
+    /**
+     * Stop tracking a Document that is no longer stored.
+     * @param doc The Document to forget.
+     */
+    public synchronized void untrack(Document doc) {
+        if (doc.getDirtySet() == this)
+            doc.setDirtySet(null);
+        remove(doc);
+    }
+    
+    /**
+     * Called by a tracked Document that was marked dirty.
+     */
+    synchronized void markDirty(Document doc) {
+        if (!doc.isDirty())
+            return; // cleaned again before we got here
+        
+        LinkedHashMap<UUID, Document> ofType = dirty.get(doc.getType());
+        if (ofType == null) {
+            ofType = new LinkedHashMap<UUID, Document>();
+            dirty.put(doc.getType(), ofType);
+        }
+        if (ofType.put(doc.getUUID(), doc) == null) count++;
+    }
+    
+    /**
+     * Called by a tracked Document that was marked clean.
+     */
+    synchronized void markClean(Document doc) {
+        if (doc.isDirty())
+            return; // dirtied again before we got here
+        remove(doc);
+    }
+    
+    /**
+     * @param type The type of Document wanted.  Must match T.
+     * @return A copy of the dirty Documents of the type.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T extends Document> ArrayList<T> get(Type type) {
+        ArrayList<T> ofType = new ArrayList<T>();
+        LinkedHashMap<UUID, Document> docs = dirty.get(type);
+        if (docs != null) {
+            for (Document doc : docs.values()) ofType.add((T) doc);
+        }
+        return ofType;
+    }
+    
+    /**
+     * @return The number of dirty Documents of every type.
+     */
+    public synchronized int size() {
+        return count;
+    }
+    
+    private void remove(Document doc) {
+        LinkedHashMap<UUID, Document> ofType = dirty.get(doc.getType());
+        if (ofType != null && ofType.remove(doc.getUUID()) != null) count--;
+    }
+}
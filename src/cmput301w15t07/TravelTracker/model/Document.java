@@ -21,7 +21,11 @@
 
 package cmput301w15t07.TravelTracker.model;
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.UUID;
 
 import cmput301w15t07.TravelTracker.serverinterface.Constants.Type;
@@ -34,13 +38,38 @@ import cmput301w15t07.TravelTracker.util.Observable;
 * @author kdbanman
 *
 */
-public abstract class Document extends Observable<Document> {
+public abstract class Document extends Observable<Document> implements Cloneable {
 
     // A new document may be synced, but dirty is a safer default.
-    transient private boolean dirty = true;
+    transient private volatile boolean dirty = true;
+    
+    /** The data source's set of dirty Documents, kept current on dirty/clean transitions. */
+    transient private DirtySet dirtySet;
+    
+    /** Nesting depth of open edits.  Changes within an edit are reported once, on commit. */
+    transient private int editDepth = 0;
+    
+    /** Whether a setter was called within the open edit. */
+    transient private boolean changedInEdit = false;
+    
+    /** Fields changed by setters since the change was last applied, by JSON name. */
+    transient private HashSet<String> pendingFields = new HashSet<String>();
+    
+    /** Whether a change to unknown fields is pending. */
+    transient private boolean pendingWhole = false;
+    
+    /** Fields changed since the last sync, or null if the whole Document must be sent. */
+    transient private HashSet<String> unsyncedFields = null;
     
     private Date lastChanged;
     
+    /**
+     * When each field was last changed, by JSON name, for field-level merges.  Fields missing
+     * from the map have not changed since it was started.  Null if changes are only known for
+     * the whole Document, in which case every field dates from lastChanged.
+     */
+    private HashMap<String, Date> fieldChanged;
+    
     private UUID docID;
     
     private Type type;
@@ -89,7 +118,42 @@ public abstract class Document extends Observable<Document> {
      * Flag document as synchronized.
      */
     public void setClean() {
+        synchronized (this) {
+            unsyncedFields = new HashSet<String>();
+        }
         dirty = false;
+        DirtySet set = dirtySet;
+        if (set != null) set.markClean(this);
+    }
+    
+    /**
+     * Package protected, intended for use only by DirtySet.
+     * @param dirtySet The set to report dirty/clean transitions to, or null.
+     */
+    void setDirtySet(DirtySet dirtySet) {
+        this.dirtySet = dirtySet;
+    }
+    
+    DirtySet getDirtySet() {
+        return dirtySet;
+    }
+    
+    /**
+     * @return A copy of the fields, by JSON name, changed since the last sync, or null if the
+     * whole Document must be sent.
+     */
+    public synchronized Set<String> getUnsyncedFields() {
+        if (unsyncedFields == null)
+            return null;
+        return Collections.unmodifiableSet(new HashSet<String>(unsyncedFields));
+    }
+    
+    /**
+     * Require the whole Document to be sent on the next sync, e.g. after a partial update was
+     * rejected because the remote does not have it.
+     */
+    public synchronized void markUnsynced() {
+        unsyncedFields = null;
     }
     
     /**
@@ -99,16 +163,107 @@ public abstract class Document extends Observable<Document> {
      * @param self the Document that has changed.
      */
     public <E extends Document> void hasChanged(E self) {
-        setDirty();
-        setChangedDate();
+        hasChanged(self, null);
+    }
+    
+    /**
+     * Maintain caching state and update observers with a change to one field, so that it
+     * can be synced and merged on its own.
+     * 
+     * @param self the Document that has changed.
+     * @param field the JSON name of the field changed, or null if unknown.
+     */
+    public <E extends Document> void hasChanged(E self, String field) {
+        synchronized (this) {
+            if (field == null) {
+                pendingWhole = true;
+            } else {
+                pendingFields.add(field);
+            }
+        }
+        if (editDepth > 0) {
+            changedInEdit = true;
+            return;
+        }
+        applyChange();
         updateObservers(self);
     }
     
+    /**
+     * Start an edit, deferring the effects of setters until commit().  Edits may be nested,
+     * in which case only the outermost commit() takes effect.
+     */
+    public void beginEdit() {
+        editDepth++;
+    }
+    
+    /**
+     * Finish an edit.  If any setter was called since beginEdit(), the Document is marked
+     * changed once and observers are notified once.
+     */
+    public void commit() {
+        if (endEdit()) {
+            applyChange();
+            updateObservers(this);
+        }
+    }
+    
+    /**
+     * Finish an edit without notifying observers, e.g. when populating a Document in bulk.
+     * The Document is still marked changed if any setter was called.
+     */
+    public void commitQuietly() {
+        if (endEdit()) {
+            applyChange();
+        }
+    }
+    
+    /**
+     * @return Whether the outermost edit ended with changes to report.
+     */
+    private boolean endEdit() {
+        if (editDepth == 0)
+            throw new IllegalStateException("commit() without beginEdit()");
+        if (--editDepth > 0)
+            return false;
+        
+        boolean changed = changedInEdit;
+        changedInEdit = false;
+        return changed;
+    }
+    
+    /**
+     * Mark the pending field changes as changed now, and the Document as dirty.
+     */
+    private void applyChange() {
+        setChangedDate();
+        synchronized (this) {
+            if (pendingWhole) {
+                // unknown fields changed, so only whole Document sync and merge are safe
+                fieldChanged = null;
+                unsyncedFields = null;
+            } else {
+                if (fieldChanged == null)
+                    fieldChanged = new HashMap<String, Date>();
+                for (String field : pendingFields) {
+                    fieldChanged.put(field, lastChanged);
+                }
+                if (unsyncedFields != null)
+                    unsyncedFields.addAll(pendingFields);
+            }
+            pendingWhole = false;
+            pendingFields.clear();
+        }
+        setDirty();
+    }
+    
     /**
      * Flag document as modified and not yet synchronized.
      */
     private void setDirty() {
         dirty = true;
+        DirtySet set = dirtySet;
+        if (set != null) set.markDirty(this);
     }
     
     /**
@@ -126,6 +281,39 @@ public abstract class Document extends Observable<Document> {
         this.type = type;
     }
     
+    /**
+     * Copy the Document, e.g. to merge remote changes into off the UI thread without changing
+     * the Document under the views showing it.  The copy is observed by nothing, tracked by no
+     * dirty set, and has no open edit.
+     * @return A copy with the same UUID, attributes, and sync state.
+     */
+    public Document copy() {
+        Document copy;
+        synchronized (this) {
+            try {
+                copy = (Document) clone();
+            } catch (CloneNotSupportedException e) {
+                throw new AssertionError(e);
+            }
+            copy.pendingFields = new HashSet<String>(pendingFields);
+            copy.unsyncedFields = (unsyncedFields == null) ? null : new HashSet<String>(unsyncedFields);
+            copy.fieldChanged = (fieldChanged == null) ? null : new HashMap<String, Date>(fieldChanged);
+        }
+        copy.dirtySet = null;
+        copy.editDepth = 0;
+        copy.changedInEdit = false;
+        copy.copyMutableFields();
+        return copy;
+    }
+    
+    /**
+     * Called on a fresh copy to replace the mutable attribute values it shares with the
+     * original, e.g. lists edited in place, with copies of its own.  Attribute values that
+     * are only ever replaced may stay shared.
+     */
+    protected void copyMutableFields() {
+    }
+    
     /**
      * @param sourceDoc the document whose attributes should be adopted
      * @return whether or not changes were made to attributes that equality or hashcode depend upon.
@@ -133,10 +321,20 @@ public abstract class Document extends Observable<Document> {
     public boolean mergeAttributesFrom(Document sourceDoc) {
         if (!this.docID.equals(sourceDoc.getUUID()) || !this.type.equals(sourceDoc.getType()))
             return false;
-        if (this.lastChanged.after(sourceDoc.getLastChanged()))
-            return false;
-        this.lastChanged = sourceDoc.getLastChanged();
-        return mergeFrom(sourceDoc);
+        
+        if (!mergesByField()) {
+            if (this.lastChanged.after(sourceDoc.getLastChanged()))
+                return false;
+            this.lastChanged = sourceDoc.getLastChanged();
+            return mergeFrom(sourceDoc);
+        }
+        
+        // each field is adopted only if the source changed it more recently
+        boolean changed = mergeFrom(sourceDoc);
+        adoptNewerStamps(sourceDoc);
+        if (sourceDoc.getLastChanged().after(this.lastChanged))
+            this.lastChanged = sourceDoc.getLastChanged();
+        return changed;
     }
     
     /**
@@ -144,6 +342,64 @@ public abstract class Document extends Observable<Document> {
      * @return whether or not changes were made.
      */
     protected abstract boolean mergeFrom(Document sourceDoc);
+    
+    /**
+     * Subclasses whose setters name their fields can merge field by field, so that concurrent
+     * edits to different fields both survive.  In mergeFrom(), they must then only adopt
+     * fields for which isNewerIn() holds.
+     * @return Whether mergeFrom() merges field by field.
+     */
+    protected boolean mergesByField() {
+        return false;
+    }
+    
+    /**
+     * @return Whether the source's value of the field is at least as recent as this Document's.
+     */
+    protected boolean isNewerIn(Document sourceDoc, String field) {
+        return !getFieldChanged(field).after(sourceDoc.getFieldChanged(field));
+    }
+    
+    /**
+     * @return Whether the source's value of the field is more recent than this Document's.
+     */
+    protected boolean isStrictlyNewerIn(Document sourceDoc, String field) {
+        return sourceDoc.getFieldChanged(field).after(getFieldChanged(field));
+    }
+    
+    /**
+     * Null-safe equality, for comparing field values when merging.
+     */
+    protected static boolean equal(Object a, Object b) {
+        return (a == null) ? b == null : a.equals(b);
+    }
+    
+    private synchronized Date getFieldChanged(String field) {
+        if (fieldChanged == null)
+            return lastChanged;
+        Date stamp = fieldChanged.get(field);
+        return (stamp == null) ? new Date(0) : stamp;
+    }
+    
+    private void adoptNewerStamps(Document sourceDoc) {
+        HashMap<String, Date> sourceStamps;
+        synchronized (sourceDoc) {
+            if (sourceDoc.fieldChanged == null)
+                return;
+            sourceStamps = new HashMap<String, Date>(sourceDoc.fieldChanged);
+        }
+        synchronized (this) {
+            // without stamps of our own, every field already dates from lastChanged
+            if (fieldChanged == null)
+                return;
+            for (String field : sourceStamps.keySet()) {
+                Date stamp = sourceStamps.get(field);
+                Date ours = fieldChanged.get(field);
+                if (ours == null || stamp.after(ours))
+                    fieldChanged.put(field, stamp);
+            }
+        }
+    }
 
     @Override
     public int hashCode() {
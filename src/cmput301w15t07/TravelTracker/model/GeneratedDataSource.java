@@ -54,17 +54,21 @@ public class GeneratedDataSource extends InMemoryDataSource {
         // Add ten random tags
         for (int i = 0; i < 10; ++i) {
             Tag t = new Tag(UUID.randomUUID(), user.getUUID());
+            t.beginEdit();
             
             // Set data
             t.setTitle(getRandomString(r, 5, 10));
             
             internalAddTag(t);
+            t.commitQuietly();
         }
         
         // Want 10 random claims
         for (int i = 0; i < 10; ++i) {
             // Create claim and set data
             Claim claim = new Claim(UUID.randomUUID(), user.getUUID());
+            // populated without notifying anyone, the whole user is announced at once
+            claim.beginEdit();
             
             // Random start time (up to 10 days ago)
             Calendar calendar = Calendar.getInstance();
@@ -103,9 +107,11 @@ public class GeneratedDataSource extends InMemoryDataSource {
             internalAddClaim(claim);
             
             // With 10 items each
+            ArrayList<Item> claimItems = new ArrayList<Item>();
             for (int j = 0; j < 10; ++j) {
                 
                 Item item = new Item(UUID.randomUUID(), claim.getUUID());
+                item.beginEdit();
                 
                 item.setAmount(r.nextFloat()*(10+r.nextInt(6))*r.nextInt(4)); // Set amount
                 
@@ -137,8 +143,10 @@ public class GeneratedDataSource extends InMemoryDataSource {
                 
                 // Set receipt, can't generate a receipt right now
                 //item.setReceipt(receipt);
-                internalAddItem(item);
+                item.commitQuietly();
+                claimItems.add(item);
             }
+            internalAddItems(claimItems);
             
             //Add some destinations
             for (int k = 0; k < r.nextInt(5); k++){
@@ -154,9 +162,12 @@ public class GeneratedDataSource extends InMemoryDataSource {
                 calendar.add(Calendar.DAY_OF_MONTH, r.nextInt(20) - 10);
                 claim.getComments().add(new ApproverComment(getRandomString(r, 50, 200), calendar.getTime()));
             }
+            
+            claim.commitQuietly();
         }
         
         callback.onResult(user);
+        postChanges();
     }
 
     
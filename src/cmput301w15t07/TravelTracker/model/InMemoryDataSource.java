@@ -23,16 +23,22 @@ package cmput301w15t07.TravelTracker.model;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.UUID;
 
 import android.os.Handler;
 import android.os.Looper;
 import cmput301w15t07.TravelTracker.serverinterface.ResultCallback;
+import cmput301w15t07.TravelTracker.serverinterface.Constants.Type;
 import cmput301w15t07.TravelTracker.util.Observable;
 import cmput301w15t07.TravelTracker.util.Observer;
+import cmput301w15t07.TravelTracker.util.ParentIndex;
+import cmput301w15t07.TravelTracker.util.SnapshotMap;
 
 /**
  * Mock data source for early stages of development and unit testing.  Intended for use
@@ -44,22 +50,73 @@ import cmput301w15t07.TravelTracker.util.Observer;
  */
 public class InMemoryDataSource extends Observable<DataSource> implements DataSource, Observer<Document> {
 
-    protected HashMap<UUID, Claim> claims;
-    protected HashMap<UUID, User> users;
-    protected HashMap<UUID, Item> items;
-    protected HashMap<UUID, Tag> tags;
+    /**
+     * Documents by UUID, published as immutable snapshots so readers on the UI thread
+     * never see a half-applied merge from a background thread.
+     */
+    protected SnapshotMap<Claim> claims;
+    protected SnapshotMap<User> users;
+    protected SnapshotMap<Item> items;
+    protected SnapshotMap<Tag> tags;
+    
+    /**
+     * Secondary indexes so cascading deletes and parent lookups only touch children.
+     * Children are indexed before they are published and unindexed after they are removed,
+     * so ids from an index may be missing from the documents but never the reverse.
+     */
+    protected ParentIndex claimsByUser;
+    protected ParentIndex tagsByUser;
+    protected ParentIndex itemsByClaim;
+    
+    /**
+     * Submitted Claims by assigned approver, or under UNASSIGNED if they have none.  Kept current
+     * on every change to a Claim, so approvers' queues cost only their own size.
+     */
+    protected ParentIndex submittedByApprover;
+    
+    /** The approver key of submitted Claims with no approver. */
+    private static final UUID UNASSIGNED = new UUID(0, 0);
+    
+    /** Orders Claims by start date, earliest first. */
+    private static final Comparator<Claim> START_DATE_ORDER = new Comparator<Claim>() {
+        @Override
+        public int compare(Claim lhs, Claim rhs) {
+            return lhs.getStartDate().compareTo(rhs.getStartDate());
+        }
+    };
+    
+    /** The stored Documents that are dirty, kept current by the Documents themselves. */
+    protected DirtySet dirty;
     
     /** Handler that puts a Runnable onto the UI thread. */
     Handler updateHandler;
     
-    /** Runnable that executes update on the UI thread. */
+    /** Runnable that delivers the pending changes to observers on the UI thread. */
     Runnable updateRunnable;
+    
+    /** Observers of fine-grained changes. */
+    private Observable<ChangeSet> changeObservers = new Observable<ChangeSet>() {};
+    
+    /**
+     * Changes recorded since observers were last notified.  Guarded by changeLock, as
+     * background syncs record changes too.
+     */
+    private ChangeSet pendingChanges = new ChangeSet();
+    private boolean updatePosted = false;
+    private final Object changeLock = new Object();
 
     public InMemoryDataSource() {
-        claims = new HashMap<UUID, Claim>();
-        users = new HashMap<UUID, User>();
-        items = new HashMap<UUID, Item>();
-        tags = new HashMap<UUID, Tag>();
+        claims = new SnapshotMap<Claim>();
+        users = new SnapshotMap<User>();
+        items = new SnapshotMap<Item>();
+        tags = new SnapshotMap<Tag>();
+        
+        claimsByUser = new ParentIndex();
+        tagsByUser = new ParentIndex();
+        itemsByClaim = new ParentIndex();
+        submittedByApprover = new ParentIndex();
+        
+        dirty = new DirtySet();
         
         /* Use the main looper (UI thread)
          * 
@@ -71,11 +128,34 @@ public class InMemoryDataSource extends Observable<DataSource> implements DataSo
         updateRunnable = new Runnable() {
             @Override
             public void run() {
+                ChangeSet changes;
+                synchronized (changeLock) {
+                    changes = pendingChanges;
+                    pendingChanges = new ChangeSet();
+                    updatePosted = false;
+                }
                 updateObservers(InMemoryDataSource.this);
+                if (!changes.isEmpty())
+                    changeObservers.updateObservers(changes);
             }
         };
     }
     
+    @Override
+    public void addChangeObserver(Observer<ChangeSet> obs) {
+        changeObservers.addObserver(obs);
+    }
+    
+    @Override
+    public void removeChangeObserver(Observer<ChangeSet> obs) {
+        changeObservers.removeObserver(obs);
+    }
+    
+    @Override
+    public boolean hasObservers() {
+        return super.hasObservers() || changeObservers.hasObservers();
+    }
+    
     @Override
     public void addUser(ResultCallback<User> callback) {
         User user = new User(UUID.randomUUID());
@@ -84,7 +164,7 @@ public class InMemoryDataSource extends Observable<DataSource> implements DataSo
         internalAddUser(user);
         
         callback.onResult(user);
-        updateHandler.post(updateRunnable);
+        postChanges();
     }
     
     @Override
@@ -100,7 +180,7 @@ public class InMemoryDataSource extends Observable<DataSource> implements DataSo
         internalAddClaim(claim);
         
         callback.onResult(claim);
-        updateHandler.post(updateRunnable);
+        postChanges();
     }
 
     @Override
@@ -116,7 +196,24 @@ public class InMemoryDataSource extends Observable<DataSource> implements DataSo
         internalAddItem(item);
         
         callback.onResult(item);
-        updateHandler.post(updateRunnable);
+        postChanges();
+    }
+
+    @Override
+    public void addItems(Claim claim, int count, ResultCallback<Collection<Item>> callback) {
+        if (!claims.containsValue(claim)) {
+            callback.onError("Claim not found.");
+            return;
+        }
+        
+        ArrayList<Item> added = new ArrayList<Item>();
+        for (int i = 0; i < count; i++) {
+            added.add(new Item(UUID.randomUUID(), claim.getUUID()));
+        }
+        internalAddItems(added);
+        
+        callback.onResult(added);
+        postChanges();
     }
 
     @Override
@@ -132,7 +229,7 @@ public class InMemoryDataSource extends Observable<DataSource> implements DataSo
         internalAddTag(tag);
         
         callback.onResult(tag);
-        updateHandler.post(updateRunnable);
+        postChanges();
     }
 
     @Override
@@ -143,7 +240,7 @@ public class InMemoryDataSource extends Observable<DataSource> implements DataSo
         } else {
             internalDeleteUser(id);
             callback.onResult(null);
-            updateHandler.post(updateRunnable);
+            postChanges();
         }
     }
 
@@ -155,7 +252,7 @@ public class InMemoryDataSource extends Observable<DataSource> implements DataSo
         } else {
             internalDeleteClaim(id);
             callback.onResult(null);
-            updateHandler.post(updateRunnable);
+            postChanges();
         }
     }
 
@@ -167,7 +264,7 @@ public class InMemoryDataSource extends Observable<DataSource> implements DataSo
         } else {
             internalDeleteItem(id);
             callback.onResult(null);
-            updateHandler.post(updateRunnable);
+            postChanges();
         }
     }
 
@@ -179,10 +276,54 @@ public class InMemoryDataSource extends Observable<DataSource> implements DataSo
         } else {
             internalDeleteTag(id);
             callback.onResult(null);
-            updateHandler.post(updateRunnable);
+            postChanges();
         }
     }
 
+    @Override
+    public void deleteClaims(Collection<UUID> ids, ResultCallback<Void> callback) {
+        LinkedHashSet<UUID> distinct = new LinkedHashSet<UUID>(ids);
+        ArrayList<Document> deleted = new ArrayList<Document>();
+        int found = removeClaims(distinct, deleted);
+        finishBatchDelete(deleted, distinct.size() - found, "claims", callback);
+    }
+
+    @Override
+    public void deleteItems(Collection<UUID> ids, ResultCallback<Void> callback) {
+        LinkedHashSet<UUID> distinct = new LinkedHashSet<UUID>(ids);
+        ArrayList<Document> deleted = new ArrayList<Document>();
+        int found = removeItems(distinct, deleted);
+        finishBatchDelete(deleted, distinct.size() - found, "expense items", callback);
+    }
+
+    @Override
+    public void deleteTags(Collection<UUID> ids, ResultCallback<Void> callback) {
+        LinkedHashSet<UUID> distinct = new LinkedHashSet<UUID>(ids);
+        ArrayList<Document> deleted = new ArrayList<Document>();
+        int found = removeTags(distinct, deleted);
+        finishBatchDelete(deleted, distinct.size() - found, "tags", callback);
+    }
+    
+    /**
+     * Report a batch delete, once the Documents are removed.
+     * @param deleted Every Document removed, including orphans.
+     * @param missing The number of requested Documents that were not found.
+     * @param what The plural name of the requested Documents, for the error message.
+     */
+    private void finishBatchDelete(List<Document> deleted, int missing, String what, ResultCallback<Void> callback) {
+        if (!deleted.isEmpty())
+            deleteHook(deleted);
+        
+        if (missing > 0) {
+            callback.onError(Integer.toString(missing) + " " + what + " not found.");
+        } else {
+            callback.onResult(null);
+        }
+        
+        if (!deleted.isEmpty())
+            postChanges();
+    }
+
     @Override
     public void getUser(UUID id, ResultCallback<User> callback) {
         User user = users.get(id);
@@ -231,6 +372,40 @@ public class InMemoryDataSource extends Observable<DataSource> implements DataSo
         }
     }
 
+    @Override
+    public void getClaimDetails(UUID id, ResultCallback<ClaimDetails> callback) {
+        Claim claim = claims.get(id);
+        if (claim == null) {
+            callback.onError("Claim not found.");
+            return;
+        }
+        
+        // one snapshot of the users, so claimant and approver are consistent
+        Map<UUID, User> currentUsers = users.snapshot();
+        User claimant = currentUsers.get(claim.getUser());
+        User approver = null;
+        if (claim.getApprover() != null)
+            approver = currentUsers.get(claim.getApprover());
+        if (claimant == null || claim.getApprover() != null && approver == null) {
+            callback.onError("User not found.");
+            return;
+        }
+        
+        claim.addObserver(this);
+        claimant.addObserver(this);
+        if (approver != null) approver.addObserver(this);
+        callback.onResult(new ClaimDetails(claim,
+                this.<Item>getIndexed(itemsByClaim.getChildren(id), items),
+                claimant,
+                approver,
+                this.<Tag>getIndexed(tagsByUser.getChildren(claim.getUser()), tags)));
+    }
+
+    @Override
+    public void getUsers(Collection<UUID> ids, ResultCallback<Collection<User>> callback) {
+        callback.onResult(this.<User>getIndexed(new LinkedHashSet<UUID>(ids), users));
+    }
+
     @Override
     public void getAllUsers(ResultCallback<Collection<User>> callback) {
         callback.onResult(users.values());
@@ -253,23 +428,111 @@ public class InMemoryDataSource extends Observable<DataSource> implements DataSo
         callback.onResult(tags.values());
 
     }
+
+    @Override
+    public void getClaimsForUser(UUID user, ResultCallback<Collection<Claim>> callback) {
+        callback.onResult(this.<Claim>getIndexed(claimsByUser.getChildren(user), claims));
+    }
+
+    @Override
+    public void getApprovalQueue(UUID approver, ResultCallback<Collection<Claim>> callback) {
+        ArrayList<UUID> ids = new ArrayList<UUID>(submittedByApprover.getChildren(approver));
+        ids.addAll(submittedByApprover.getChildren(UNASSIGNED));
+        
+        ArrayList<Claim> queue = new ArrayList<Claim>();
+        for (Claim claim : this.<Claim>getIndexed(ids, claims)) {
+            // nobody approves their own claims
+            if (!claim.getUser().equals(approver)) queue.add(claim);
+        }
+        Collections.sort(queue, START_DATE_ORDER);
+        callback.onResult(queue);
+    }
+
+    @Override
+    public void getItemsForClaim(UUID claim, ResultCallback<Collection<Item>> callback) {
+        callback.onResult(this.<Item>getIndexed(itemsByClaim.getChildren(claim), items));
+    }
+
+    @Override
+    public void getItemsForClaims(Collection<UUID> claimIDs, ResultCallback<Collection<Item>> callback) {
+        ArrayList<Item> claimItems = new ArrayList<Item>();
+        for (UUID claimID : claimIDs) {
+            claimItems.addAll(this.<Item>getIndexed(itemsByClaim.getChildren(claimID), items));
+        }
+        callback.onResult(claimItems);
+    }
+
+    @Override
+    public void getTagsForUser(UUID user, ResultCallback<Collection<Tag>> callback) {
+        callback.onResult(this.<Tag>getIndexed(tagsByUser.getChildren(user), tags));
+    }
     
     @Override
     public void update(Document observable) {
-        /* http://developer.android.com/reference/android/os/Handler.html#removeCallbacks%28java.lang.Runnable%29
-         * Might be useful in the near future.
-         */
+        // Setters may have changed the parent UUID
+        reindex(observable);
         
-        // Post the updateRunnable to the main thread (UI thread)
+        if (isStored(observable)) {
+            synchronized (changeLock) {
+                pendingChanges.recordUpdated(observable);
+            }
+            postChanges();
+        }
+    }
+    
+    /**
+     * Record a batch of changes made off the UI thread, e.g. by a sync merge, and notify
+     * observers of them together.
+     * @param changes The changes to deliver.
+     */
+    protected void publishChanges(ChangeSet changes) {
+        if (changes.isEmpty())
+            return;
+        synchronized (changeLock) {
+            pendingChanges.addAll(changes);
+        }
+        postChanges();
+    }
+    
+    /**
+     * Deliver the pending changes to observers on the UI thread.  Changes recorded before the
+     * UI thread gets to the delivery are coalesced into it, so a burst of changes results in a
+     * single notification.
+     */
+    protected void postChanges() {
+        synchronized (changeLock) {
+            if (updatePosted)
+                return;
+            updatePosted = true;
+        }
         updateHandler.post(updateRunnable);
     }
     
+    private void recordAdded(Document doc) {
+        synchronized (changeLock) {
+            pendingChanges.recordAdded(doc);
+        }
+    }
+    
+    /**
+     * @return Whether the Document is in the store, rather than deleted or not yet added.
+     */
+    protected boolean isStored(Document doc) {
+        UUID id = doc.getUUID();
+        return doc instanceof User && users.containsKey(id)
+                || doc instanceof Claim && claims.containsKey(id)
+                || doc instanceof Item && items.containsKey(id)
+                || doc instanceof Tag && tags.containsKey(id);
+    }
+    
     /**
      * Add a User internally.
      * @param u The User to add.
      */
     protected void internalAddUser(User u) {
         users.put(u.getUUID(), u);
+        recordAdded(u);
+        dirty.track(u);
         u.addObserver(this);
     }
     
@@ -278,42 +541,18 @@ public class InMemoryDataSource extends Observable<DataSource> implements DataSo
      * @param id The User's UUID.
      */
     protected void internalDeleteUser(UUID id) {
-        // Get all child Claims
-        ArrayList<UUID> claimsToRemove = new ArrayList<UUID>();
-        for (Entry<UUID, Claim> entry : claims.entrySet()) {
-            Claim claim = entry.getValue();
-            
-            if (claim.getUser() == id) {
-                claimsToRemove.add(entry.getKey());
-            }
-        }
-        
-        // Handle in a separate loop to avoid modifying while iterating
-        for (UUID claimID : claimsToRemove) {
-            internalDeleteClaim(claimID);
-        }
-        
-        // Get all child Tags
-        ArrayList<UUID> tagsToRemove = new ArrayList<UUID>();
-        for (Entry<UUID, Tag> entry : tags.entrySet()) {
-            Tag claim = entry.getValue();
-            
-            if (claim.getUser() == id) {
-                tagsToRemove.add(entry.getKey());
-            }
-        }
-        
-        for (UUID tagID : tagsToRemove) {
-            internalDeleteTag(tagID);
-        }
-        
-        User toDelete = users.get(id);
-        // Finally, delete the User
-        users.remove(id);
-        if (toDelete != null) deleteUserHook(toDelete);
+        ArrayList<Document> deleted = new ArrayList<Document>();
+        removeUsers(Collections.singleton(id), deleted);
+        if (!deleted.isEmpty())
+            deleteHook(deleted);
     }
     
-    protected void deleteUserHook(User deleted) {
+    /**
+     * Called once for each delete, single or batch, with every Document it removed.
+     * Orphans precede the Documents they belonged to.
+     * @param deleted The removed Documents.
+     */
+    protected void deleteHook(Collection<Document> deleted) {
         return;
     }
 
@@ -322,7 +561,11 @@ public class InMemoryDataSource extends Observable<DataSource> implements DataSo
      * @param c The Claim to add.
      */
     protected void internalAddClaim(Claim c) {
+        claimsByUser.put(c.getUUID(), c.getUser());
+        indexSubmitted(c);
         claims.put(c.getUUID(), c);
+        recordAdded(c);
+        dirty.track(c);
         c.addObserver(this);
     }
     
@@ -331,29 +574,10 @@ public class InMemoryDataSource extends Observable<DataSource> implements DataSo
      * @param id The Claim's UUID.
      */
     protected void internalDeleteClaim(UUID id) {
-        // Get all child Claims
-        ArrayList<UUID> itemsToRemove = new ArrayList<UUID>();
-        for (Entry<UUID, Item> entry : items.entrySet()) {
-            Item item = entry.getValue();
-            
-            if (item.getClaim() == id) {
-                itemsToRemove.add(entry.getKey());
-            }
-        }
-        
-        // Handle in a separate loop to avoid modifying while iterating
-        for (UUID claimID : itemsToRemove) {
-            internalDeleteItem(claimID);
-        }
-        
-        Claim toDelete = claims.get(id);
-        // Finally, delete the Claim
-        claims.remove(id);
-        if (toDelete != null) deleteClaimHook(toDelete);
-    }
-    
-    protected void deleteClaimHook (Claim deleted) {
-        return;
+        ArrayList<Document> deleted = new ArrayList<Document>();
+        removeClaims(Collections.singleton(id), deleted);
+        if (!deleted.isEmpty())
+            deleteHook(deleted);
     }
     
     /**
@@ -361,22 +585,40 @@ public class InMemoryDataSource extends Observable<DataSource> implements DataSo
      * @param i The Item to add.
      */
     protected void internalAddItem(Item i) {
+        itemsByClaim.put(i.getUUID(), i.getClaim());
         items.put(i.getUUID(), i);
+        recordAdded(i);
+        dirty.track(i);
         i.addObserver(this);
     }
     
+    /**
+     * Add several Items internally, publishing them together.
+     * @param added The Items to add.
+     */
+    protected void internalAddItems(Collection<Item> added) {
+        HashMap<UUID, Item> byID = new HashMap<UUID, Item>();
+        for (Item i : added) {
+            itemsByClaim.put(i.getUUID(), i.getClaim());
+            byID.put(i.getUUID(), i);
+        }
+        items.putAll(byID);
+        for (Item i : added) {
+            recordAdded(i);
+            dirty.track(i);
+            i.addObserver(this);
+        }
+    }
+    
     /**
      * Delete an Item internally.
      * @param id The Item's ID.
      */
     protected void internalDeleteItem(UUID id) {
-        Item toDelete = items.get(id);
-        items.remove(id);
-        if (toDelete != null) deleteItemHook(toDelete);
-    }
-    
-    protected void deleteItemHook(Item deleted) {
-        return;
+        ArrayList<Document> deleted = new ArrayList<Document>();
+        removeItems(Collections.singleton(id), deleted);
+        if (!deleted.isEmpty())
+            deleteHook(deleted);
     }
     
     /**
@@ -384,7 +626,10 @@ public class InMemoryDataSource extends Observable<DataSource> implements DataSo
      * @param t The Tag to add.
      */
     protected void internalAddTag(Tag t) {
+        tagsByUser.put(t.getUUID(), t.getUser());
         tags.put(t.getUUID(), t);
+        recordAdded(t);
+        dirty.track(t);
         t.addObserver(this);
     }
     
@@ -393,49 +638,185 @@ public class InMemoryDataSource extends Observable<DataSource> implements DataSo
      * @param id The Tag's ID.
      */
     protected void internalDeleteTag(UUID id) {
-        Tag toDelete = tags.get(id);
-        tags.remove(id);
-        if (toDelete != null) deleteTagHook(toDelete);
+        ArrayList<Document> deleted = new ArrayList<Document>();
+        removeTags(Collections.singleton(id), deleted);
+        if (!deleted.isEmpty())
+            deleteHook(deleted);
     }
     
-    protected void deleteTagHook(Tag deleted) {
-        return;
+    /**
+     * Remove Users along with their Claims and Tags.
+     * @param ids The Users' UUIDs.
+     * @param deleted Collects every Document removed.
+     * @return The number of Users removed.
+     */
+    private int removeUsers(Collection<UUID> ids, List<Document> deleted) {
+        ArrayList<UUID> claimIDs = new ArrayList<UUID>();
+        ArrayList<UUID> tagIDs = new ArrayList<UUID>();
+        for (UUID id : ids) {
+            claimIDs.addAll(claimsByUser.getChildren(id));
+            tagIDs.addAll(tagsByUser.getChildren(id));
+        }
+        removeClaims(claimIDs, deleted);
+        removeTags(tagIDs, deleted);
+        
+        return remove(ids, users, null, deleted);
     }
     
     /**
-     * @return A collection of references to the Users
+     * Remove Claims along with their Items.
+     * @param ids The Claims' UUIDs.
+     * @param deleted Collects every Document removed.
+     * @return The number of Claims removed.
+     */
+    private int removeClaims(Collection<UUID> ids, List<Document> deleted) {
+        ArrayList<UUID> itemIDs = new ArrayList<UUID>();
+        for (UUID id : ids) {
+            itemIDs.addAll(itemsByClaim.getChildren(id));
+        }
+        removeItems(itemIDs, deleted);
+        
+        int removed = remove(ids, claims, claimsByUser, deleted);
+        for (UUID id : ids) {
+            submittedByApprover.remove(id);
+        }
+        return removed;
+    }
+    
+    private int removeItems(Collection<UUID> ids, List<Document> deleted) {
+        return remove(ids, items, itemsByClaim, deleted);
+    }
+    
+    private int removeTags(Collection<UUID> ids, List<Document> deleted) {
+        return remove(ids, tags, tagsByUser, deleted);
+    }
+    
+    /**
+     * Remove Documents of one type, publishing a single snapshot without them.
+     * @param ids The Documents' UUIDs.  Those not stored are ignored.
+     * @param documents The Documents of the type.
+     * @param index The index of the type under parents, or null if it has none.
+     * @param deleted Collects the Documents removed.
+     * @return The number of Documents removed.
+     */
+    private <T extends Document> int remove(Collection<UUID> ids, SnapshotMap<T> documents,
+            ParentIndex index, List<Document> deleted) {
+        if (ids.isEmpty())
+            return 0;
+        
+        Map<UUID, T> current = documents.snapshot();
+        ArrayList<T> removed = new ArrayList<T>();
+        for (UUID id : ids) {
+            T doc = current.get(id);
+            if (doc != null) removed.add(doc);
+        }
+        
+        documents.removeAll(ids);
+        if (index != null) {
+            for (UUID id : ids) {
+                index.remove(id);
+            }
+        }
+        
+        synchronized (changeLock) {
+            for (T doc : removed) {
+                pendingChanges.recordDeleted(doc);
+            }
+        }
+        for (T doc : removed) {
+            dirty.untrack(doc);
+        }
+        deleted.addAll(removed);
+        return removed.size();
+    }
+    
+    /**
+     * Bring the parent indexes up to date with a Document whose parent UUID may have changed.
+     * Must be called whenever a stored Document is modified without notifying this data source,
+     * e.g. when merging in remote attributes.
+     * @param doc The Document to reindex.  Ignored if it is not stored here.
+     */
+    protected void reindex(Document doc) {
+        if (doc instanceof Claim && claims.containsKey(doc.getUUID())
+                || doc instanceof Item && items.containsKey(doc.getUUID())
+                || doc instanceof Tag && tags.containsKey(doc.getUUID())) {
+            index(doc);
+        }
+    }
+    
+    /**
+     * Index a Document under its parent, whether or not it is stored yet.  Documents
+     * about to be published in bulk must be indexed first.
+     * @param doc The Document to index.
+     */
+    protected void index(Document doc) {
+        if (doc instanceof Claim) {
+            Claim claim = (Claim) doc;
+            claimsByUser.put(claim.getUUID(), claim.getUser());
+            indexSubmitted(claim);
+        } else if (doc instanceof Item) {
+            Item item = (Item) doc;
+            itemsByClaim.put(item.getUUID(), item.getClaim());
+        } else if (doc instanceof Tag) {
+            Tag tag = (Tag) doc;
+            tagsByUser.put(tag.getUUID(), tag.getUser());
+        }
+    }
+    
+    /**
+     * Bring the approval queues up to date with a Claim whose status or approver may have changed.
+     * @param claim The Claim to index.
+     */
+    private void indexSubmitted(Claim claim) {
+        if (claim.getStatus() == Status.SUBMITTED) {
+            UUID approver = claim.getApprover();
+            submittedByApprover.put(claim.getUUID(), approver == null ? UNASSIGNED : approver);
+        } else {
+            submittedByApprover.remove(claim.getUUID());
+        }
+    }
+    
+    /**
+     * @return A collection of references to the Users, as of the current snapshot
      */
     public Collection<User> getUsers() {
         return users.values();
     }
     
     /**
-     * @return A collection of references to the Claims
+     * @return A collection of references to the Claims, as of the current snapshot
      */
     public Collection<Claim> getClaims() {
         return claims.values();
     }
     
     /**
-     * @return A collection of references to the Items
+     * @return A collection of references to the Items, as of the current snapshot
      */
     public Collection<Item> getItems() {
         return items.values();
     }
     
     /**
-     * @return A collection of references to the Tags
+     * @return A collection of references to the Tags, as of the current snapshot
      */
     public Collection<Tag> getTags() {
         return tags.values();
     }
     
+    /**
+     * @return The number of stored Documents of every type that are dirty.  Constant time.
+     */
+    public int dirtyCount() {
+        return dirty.size();
+    }
+    
     /**
      * Get the Users that are dirty.
      * @return A collection of references to the Users that are marked dirty.
      */
     public Collection<User> getDirtyUsers() {
-        return this.<User>getDirty(users);
+        return dirty.<User>get(Type.USER);
     }
     
     /**
@@ -443,7 +824,7 @@ public class InMemoryDataSource extends Observable<DataSource> implements DataSo
      * @return A collection of references to the Claims that are marked dirty.
      */
     public Collection<Claim> getDirtyClaims() {
-        return this.<Claim>getDirty(claims);
+        return dirty.<Claim>get(Type.CLAIM);
     }
     
     /**
@@ -451,7 +832,7 @@ public class InMemoryDataSource extends Observable<DataSource> implements DataSo
      * @return A collection of references to the Items that are marked dirty.
      */
     public Collection<Item> getDirtyItems() {
-        return this.<Item>getDirty(items);
+        return dirty.<Item>get(Type.ITEM);
     }
     
     /**
@@ -459,14 +840,18 @@ public class InMemoryDataSource extends Observable<DataSource> implements DataSo
      * @return A collection of references to the Tags that are marked dirty.
      */
     public Collection<Tag> getDirtyTags() {
-        return this.<Tag>getDirty(tags);
+        return dirty.<Tag>get(Type.TAG);
     }
     
-    private <T extends Document> Collection<T> getDirty(Map<UUID, T> documents) {
-        Collection<T> dirty = new ArrayList<T>();
-        for (T document : documents.values()) {
-            if (document.isDirty()) dirty.add(document);
+    private <T extends Document> ArrayList<T> getIndexed(Collection<UUID> ids, SnapshotMap<T> documents) {
+        // one snapshot for the whole lookup, so the result is consistent
+        Map<UUID, T> current = documents.snapshot();
+        ArrayList<T> indexed = new ArrayList<T>();
+        for (UUID id : ids) {
+            T document = current.get(id);
+            if (document != null) indexed.add(document);
         }
-        return dirty;
+        return indexed;
     }
+    
 }
@@ -36,6 +36,18 @@ import cmput301w15t07.TravelTracker.serverinterface.Constants.Type;
  *
  */
 public class Item extends Document {
+    
+    /* JSON names of the fields, for field-level sync and merge. */
+    static final String CLAIM = "claim";
+    static final String DESCRIPTION = "description";
+    static final String CATEGORY = "category";
+    static final String DATE = "date";
+    static final String AMOUNT = "amount";
+    static final String CURRENCY = "currency";
+    static final String RECEIPT = "receipt";
+    static final String GEOLOCATION = "geolocation";
+    static final String IS_COMPLETE = "isComplete";
+    
     private UUID claim;
     private String description;
     private ItemCategory category;
@@ -89,7 +101,7 @@ public class Item extends Document {
      */
     public void setClaim(UUID claim) {
         this.claim = claim;
-        this.<Item>hasChanged(this);
+        this.<Item>hasChanged(this, CLAIM);
     }
     
     /**
@@ -106,7 +118,7 @@ public class Item extends Document {
      */
     public void setDescription(String description) {
         this.description = description;
-        this.<Item>hasChanged(this);
+        this.<Item>hasChanged(this, DESCRIPTION);
     }
     
     /**
@@ -123,7 +135,7 @@ public class Item extends Document {
      */
     public void setCategory(ItemCategory category) {
         this.category = category;
-        this.<Item>hasChanged(this);
+        this.<Item>hasChanged(this, CATEGORY);
     }
     
     /**
@@ -140,7 +152,7 @@ public class Item extends Document {
      */
     public void setDate(Date date) {
         this.date = date;
-        this.<Item>hasChanged(this);
+        this.<Item>hasChanged(this, DATE);
     }
     
     /**
@@ -157,7 +169,7 @@ public class Item extends Document {
      */
     public void setAmount(Float amount) {
         this.amount = amount;
-        this.<Item>hasChanged(this);
+        this.<Item>hasChanged(this, AMOUNT);
     }
     
     /**
@@ -174,7 +186,7 @@ public class Item extends Document {
      */
     public void setCurrency(ItemCurrency currency) {
         this.currency = currency;
-        this.<Item>hasChanged(this);
+        this.<Item>hasChanged(this, CURRENCY);
     }
     
     /**
@@ -191,7 +203,7 @@ public class Item extends Document {
      */
     public void setReceipt(Receipt receipt) {
         this.receipt = receipt;
-        this.<Item>hasChanged(this);
+        this.<Item>hasChanged(this, RECEIPT);
     }
     
     /**
@@ -208,7 +220,7 @@ public class Item extends Document {
      */
     public void setGeolocation(Geolocation geolocation) {
         this.geolocation = geolocation;
-        this.<Item>hasChanged(this);
+        this.<Item>hasChanged(this, GEOLOCATION);
     }
     
     /**
@@ -225,7 +237,7 @@ public class Item extends Document {
      */
     public void setComplete(boolean isComplete) {
         this.isComplete = isComplete;
-        this.<Item>hasChanged(this);
+        this.<Item>hasChanged(this, IS_COMPLETE);
     }
 
     @Override
@@ -288,6 +300,11 @@ public class Item extends Document {
         return true;
     }
 
+    @Override
+    protected boolean mergesByField() {
+        return true;
+    }
+
     @Override
     protected boolean mergeFrom(Document sourceDoc) {
         if (!(sourceDoc instanceof Item))
@@ -295,106 +312,50 @@ public class Item extends Document {
         Item sourceItem = (Item) sourceDoc;
         boolean changed = false;
         
-        if (this.amount != null) {
-            if (!this.amount.equals(sourceItem.amount)) {
-                changed |= true;
-                this.amount = sourceItem.amount;
-            }
-        } else {
-            // attribute is null, if source is not null then set it
-            if (!(sourceItem.amount == null)) {
-                changed |= true;
-                this.amount = sourceItem.amount;
-            }
+        // adopt each field only if the source changed it at least as recently
+        if (isNewerIn(sourceItem, AMOUNT) && !equal(amount, sourceItem.amount)) {
+            changed |= true;
+            this.amount = sourceItem.amount;
         }
         
-        if (this.category != null) {
-            if (!this.category.equals(sourceItem.category)) {
-                changed |= true;
-                this.category = sourceItem.category;
-            }
-        } else {
-            // attribute is null, if source is not null then set it
-            if (!(sourceItem.category == null)) {
-                changed |= true;
-                this.category = sourceItem.category;
-            }
+        if (isNewerIn(sourceItem, CATEGORY) && !equal(category, sourceItem.category)) {
+            changed |= true;
+            this.category = sourceItem.category;
         }
         
-        if (this.claim != null) {
-            if (!this.claim.equals(sourceItem.claim)) {
-                changed |= true;
-                this.claim = sourceItem.claim;
-            }
-        } else {
-            // attribute is null, if source is not null then set it
-            if (!(sourceItem.claim == null)) {
-                changed |= true;
-                this.claim = sourceItem.claim;
-            }
+        if (isNewerIn(sourceItem, CLAIM) && !equal(claim, sourceItem.claim)) {
+            changed |= true;
+            this.claim = sourceItem.claim;
         }
         
-        if (this.currency != null) {
-            if (!this.currency.equals(sourceItem.currency)) {
-                changed |= true;
-                this.currency = sourceItem.currency;
-            }
-        } else {
-            // attribute is null, if source is not null then set it
-            if (!(sourceItem.currency == null)) {
-                changed |= true;
-                this.currency = sourceItem.currency;
-            }
+        if (isNewerIn(sourceItem, CURRENCY) && !equal(currency, sourceItem.currency)) {
+            changed |= true;
+            this.currency = sourceItem.currency;
         }
         
-        if (this.date != null) {
-            if (!this.date.equals(sourceItem.date)) {
-                changed |= true;
-                this.date = sourceItem.date;
-            }
-        } else {
-            // attribute is null, if source is not null then set it
-            if (!(sourceItem.date == null)) {
-                changed |= true;
-                this.date = sourceItem.date;
-            }
+        if (isNewerIn(sourceItem, DATE) && !equal(date, sourceItem.date)) {
+            changed |= true;
+            this.date = sourceItem.date;
         }
         
-        if (this.description != null) {
-            if (!this.description.equals(sourceItem.description)) {
-                changed |= true;
-                this.description = sourceItem.description;
-            }
-        } else {
-            // attribute is null, if source is not null then set it
-            if (!(sourceItem.description == null)) {
-                changed |= true;
-                this.description = sourceItem.description;
-            }
+        if (isNewerIn(sourceItem, DESCRIPTION) && !equal(description, sourceItem.description)) {
+            changed |= true;
+            this.description = sourceItem.description;
         }
         
-        if (this.geolocation != null) {
-            if (!this.geolocation.equals(sourceItem.geolocation)) {
-                changed |= true;
-                this.geolocation = sourceItem.geolocation;
-            }
-        } else {
-            // attribute is null, if source is not null then set it
-            if (!(sourceItem.geolocation == null)) {
-                changed |= true;
-                this.geolocation = sourceItem.geolocation;
-            }
+        if (isNewerIn(sourceItem, GEOLOCATION) && !equal(geolocation, sourceItem.geolocation)) {
+            changed |= true;
+            this.geolocation = sourceItem.geolocation;
         }
         
-        // boolean primitive does not support null or .equals
-        if (this.isComplete != sourceItem.isComplete) {
+        if (isNewerIn(sourceItem, IS_COMPLETE) && this.isComplete != sourceItem.isComplete) {
             changed |= true;
             this.isComplete = sourceItem.isComplete;
         }
         
-        // Bitmap doesn't support equals, so only set if null
-        if (this.receipt == null && sourceItem.receipt != null) {
-            // attribute is null, if source is not null then set it
+        // Bitmap doesn't support equals, so only take a strictly newer receipt, or fill a null one
+        if (sourceItem.receipt != null
+                && (this.receipt == null || isStrictlyNewerIn(sourceItem, RECEIPT))) {
             changed |= true;
             this.receipt = sourceItem.receipt;
         }
@@ -0,0 +1,48 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.serverinterface;
+
+/**
+ * Tells background work started for a read whether its results are still wanted.
+ * 
+ * A read's ResultFuture may settle long before the work behind it finishes, ex. with a cached
+ * result while a refresh is still queued.  Cancelling the future does nothing once it has
+ * settled, but cancelling its token still stops the refresh.
+ * 
+ * @author kdbanman
+ *
+ */
+public class CancellationToken {
+    
+    private volatile boolean cancelled = false;
+    
+    /**
+     * Mark the results unwanted.  Cannot be undone.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+    
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -21,6 +21,12 @@
 
 package cmput301w15t07.TravelTracker.serverinterface;
 
+import cmput301w15t07.TravelTracker.model.Claim;
+import cmput301w15t07.TravelTracker.model.Document;
+import cmput301w15t07.TravelTracker.model.Item;
+import cmput301w15t07.TravelTracker.model.Tag;
+import cmput301w15t07.TravelTracker.model.User;
+
 /**
  * Contains constants used in server setup.
  * 
@@ -33,15 +39,24 @@ public class Constants {
     
     
     public enum Type {
-        USER("User"),
-        CLAIM("Claim"),
-        ITEM("Item"),
-        TAG("Tag");
+        USER("User", User.class),
+        CLAIM("Claim", Claim.class),
+        ITEM("Item", Item.class),
+        TAG("Tag", Tag.class);
         
         private final String name;
+        private final Class<? extends Document> documentClass;
         
-        private Type(String s){
+        private Type(String s, Class<? extends Document> c){
             name = s;
+            documentClass = c;
+        }
+        
+        /**
+         * @return The model class stored under this Document Type.
+         */
+        public Class<? extends Document> getDocumentClass() {
+            return documentClass;
         }
         
         /**
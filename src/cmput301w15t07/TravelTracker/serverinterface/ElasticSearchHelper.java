@@ -21,25 +21,85 @@
 
 package cmput301w15t07.TravelTracker.serverinterface;
 
+import io.searchbox.action.BulkableAction;
+import io.searchbox.client.AbstractJestClient;
 import io.searchbox.client.JestClient;
+import io.searchbox.client.JestResult;
 import io.searchbox.core.Bulk;
 import io.searchbox.core.Bulk.Builder;
 import io.searchbox.core.Delete;
+import io.searchbox.core.Get;
 import io.searchbox.core.Index;
+import io.searchbox.core.MultiGet;
+import io.searchbox.core.MultiSearch;
 import io.searchbox.core.Search;
-import io.searchbox.core.SearchResult;
+import io.searchbox.core.Update;
+import io.searchbox.indices.IndicesExists;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import ch.boye.httpclientandroidlib.conn.ConnectTimeoutException;
+import ch.boye.httpclientandroidlib.HttpEntity;
+import ch.boye.httpclientandroidlib.HttpResponse;
+import ch.boye.httpclientandroidlib.client.HttpClient;
+import ch.boye.httpclientandroidlib.client.methods.HttpDelete;
+import ch.boye.httpclientandroidlib.client.methods.HttpEntityEnclosingRequestBase;
+import ch.boye.httpclientandroidlib.client.methods.HttpPost;
+import ch.boye.httpclientandroidlib.client.methods.HttpUriRequest;
+import ch.boye.httpclientandroidlib.entity.ContentType;
+import ch.boye.httpclientandroidlib.entity.StringEntity;
+import ch.boye.httpclientandroidlib.util.EntityUtils;
 import cmput301w15t07.TravelTracker.model.Claim;
+import cmput301w15t07.TravelTracker.model.ClaimDetails;
 import cmput301w15t07.TravelTracker.model.Document;
 import cmput301w15t07.TravelTracker.model.Item;
 import cmput301w15t07.TravelTracker.model.Tag;
 import cmput301w15t07.TravelTracker.model.User;
 import cmput301w15t07.TravelTracker.serverinterface.Constants.Type;
+import cmput301w15t07.TravelTracker.util.CircuitBreaker;
+import cmput301w15t07.TravelTracker.util.Observer;
+import cmput301w15t07.TravelTracker.util.RetryPolicy;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+import com.google.gson.stream.JsonReader;
+import com.searchly.jestdroid.JestDroidClient;
+
+import android.os.SystemClock;
+import android.util.Log;
 import com.searchly.jestdroid.DroidClientConfig;
 import com.searchly.jestdroid.JestClientFactory;
 
@@ -49,34 +109,150 @@ import com.searchly.jestdroid.JestClientFactory;
  * @author kdbanman
  */
 public class ElasticSearchHelper implements ServerHelper{
+    
+    /** Concurrent connections allowed, so that requests for several types can be in flight at once. */
+    private static final int MAX_CONNECTIONS = 4;
+    
+    /** Documents per search response, unless another page size is passed. */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    
+    /** Most searches sent in one multi search. */
+    private static final int MAX_MULTI_SEARCHES = 50;
+    
+    /** Most actions sent in one bulk request. */
+    private static final int MAX_BULK_ACTIONS = 100;
+    
+    /** Most bytes of documents sent in one bulk request, so that no request is slow enough to time out. */
+    private static final int MAX_BULK_BYTES = 512 * 1024;
+    
+    /** Bulk requests in flight at once, shared by every caller. */
+    private static final int BULK_CONCURRENCY = 2;
+    
+    /** Times items are sent again when the server was too busy for them. */
+    private static final int BULK_ITEM_RETRIES = 2;
+    
+    /** Pause before sending busy items again, multiplied by the attempt number. */
+    private static final long BULK_RETRY_DELAY = 500;
+    
+    /** Most retries of one request, unless another retry policy is passed. */
+    private static final int MAX_RETRIES = 3;
+    
+    /** Delays between retries, in ms, before jitter. */
+    private static final long RETRY_BASE_DELAY = 250;
+    private static final long RETRY_MAX_DELAY = 4000;
+    
+    /** Most retries of all requests in one sync cycle. */
+    private static final int RETRY_BUDGET = 10;
+    
+    /** Connection failures in a row after which the server is left alone. */
+    private static final int FAILURE_THRESHOLD = 5;
+    
+    /** How long the server is left alone before it is probed again, in ms. */
+    private static final long OPEN_PERIOD = 60000;
+    
+    /** How long the server keeps a scroll open between pages. */
+    private static final String SCROLL_KEEP_ALIVE = "1m";
+    
+    /**
+     * Applies a partial update, keeping the later of the stored and sent lastChanged.
+     * Written to run as both MVEL and Groovy, the default languages of different server versions.
+     */
+    private static final String PARTIAL_UPDATE_SCRIPT =
+            "ctx._source.putAll(fields); " +
+            "if (ctx._source.fieldChanged == null) { ctx._source.fieldChanged = stamps; } " +
+            "else { ctx._source.fieldChanged.putAll(stamps); } " +
+            "if (ctx._source.lastChanged == null || ctx._source.lastChanged.compareTo(lastChanged) < 0) " +
+            "{ ctx._source.lastChanged = lastChanged; }";
+    
     private JestClient conn;
     
+    /** The client's own connections, for requests whose responses are streamed rather than read whole. */
+    private HttpClient http;
+    
+    private final int pageSize;
+    
+    private ExecutorService bulkExecutor = Executors.newFixedThreadPool(BULK_CONCURRENCY);
+    
+    private RetryPolicy retries;
+    private CircuitBreaker breaker;
+    
+    /** Shared with the client, so partial updates serialize exactly as indexed documents do. */
+    private Gson gson;
+    
     public ElasticSearchHelper(){
+        this(DEFAULT_PAGE_SIZE);
+    }
+    
+    /**
+     * @param pageSize The number of documents per search response.  Larger searches are
+     * retrieved a page at a time.
+     */
+    public ElasticSearchHelper(int pageSize){
+        this(pageSize,
+                new RetryPolicy(MAX_RETRIES, RETRY_BASE_DELAY, RETRY_MAX_DELAY, RETRY_BUDGET, new Random()),
+                new CircuitBreaker(FAILURE_THRESHOLD, OPEN_PERIOD));
+    }
+    
+    /**
+     * @param pageSize The number of documents per search response.
+     * @param retries Decides which failed requests are retried, and when.
+     * @param breaker Stops requests while the server keeps failing.  Observe it for its
+     * state changes.
+     */
+    public ElasticSearchHelper(int pageSize, RetryPolicy retries, CircuitBreaker breaker){
+        this.pageSize = pageSize;
+        this.retries = retries;
+        this.breaker = breaker;
+        breaker.addObserver(new Observer<CircuitBreaker>() {
+            
+            @Override
+            public void update(CircuitBreaker observable) {
+                Log.i("ElasticSearchHelper", "Circuit " + observable.getState().toString());
+            }
+        });
+        
+        gson = new GsonBuilder().registerTypeAdapter(Date.class, new DateAdapter()).create();
+        
         JestClientFactory factory = new JestClientFactory();
-        factory.setDroidClientConfig(new DroidClientConfig.Builder(Constants.CONNECTION_URL).build());
+        factory.setDroidClientConfig(new DroidClientConfig.Builder(Constants.CONNECTION_URL)
+                .gson(gson)
+                .multiThreaded(true)
+                .maxTotalConnection(MAX_CONNECTIONS)
+                .defaultMaxTotalConnectionPerRoute(MAX_CONNECTIONS)
+                .build());
         
         conn = factory.getObject();
+        http = ((JestDroidClient) conn).getHttpClient();
     }
 
     @Override
-    public <T extends Document> void deleteDocuments(Collection<T> documents) throws Exception {
-        final Builder bulkBuilder = new Bulk.Builder();
-        bulkBuilder.defaultIndex(Constants.INDEX);
+    public <T extends Document> Collection<T> deleteDocuments(Collection<T> documents) throws Exception {
+        Map<String, T> byID = new HashMap<String, T>();
+        ArrayList<BulkItem> bulkItems = new ArrayList<BulkItem>();
+        for (T d : documents){
+            byID.put(d.getUUID().toString(), d);
+            bulkItems.add(new BulkItem(d.getUUID().toString(), new Delete.Builder(d.getUUID().toString())
+            .index(Constants.INDEX)
+            .type(d.getType().toString()).build(), 0));
+        }
         
-        for (Document d : documents){
-            bulkBuilder.addAction(new Delete.Builder(d.getUUID().toString())
+        return pick(runBulk(bulkItems), byID);
+    }
+    
+    @Override
+    public Collection<UUID> deleteDocuments(Type type, Collection<UUID> ids) throws Exception {
+        ArrayList<BulkItem> bulkItems = new ArrayList<BulkItem>();
+        for (UUID id : ids){
+            bulkItems.add(new BulkItem(id.toString(), new Delete.Builder(id.toString())
             .index(Constants.INDEX)
-            .type(d.getType().toString()).build());
+            .type(type.toString()).build(), 0));
         }
         
-        runESOperation(new ESOperation<Void>() {
-
-            @Override
-            public Void run() throws Exception {
-                conn.execute(bulkBuilder.build());
-                return null;
-            }
-        });
+        ArrayList<UUID> deleted = new ArrayList<UUID>();
+        for (String id : runBulk(bulkItems)) {
+            deleted.add(UUID.fromString(id));
+        }
+        return deleted;
     }
     
     @Override
@@ -99,74 +275,457 @@ public class ElasticSearchHelper implements ServerHelper{
         return getAllAction(Constants.Type.USER, User.class);
     }
     
-    private <T> Collection<T> getAllAction(Constants.Type type, Class<T> t) throws Exception{
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T extends Document> Collection<T> getChangedSince(Type type, Date since) throws Exception {
+        if (since == null) {
+            return getAllAction(type, (Class<T>) type.getDocumentClass());
+        }
+        String query = getChangedSinceQueryString(since);
+        return runSearch(query, type, (Class<T>) type.getDocumentClass());
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T extends Document> void getChangedSince(Type type, Date since, PageCallback<T> callback) throws Exception {
+        String query = since == null ? getAllQueryString() : getChangedSinceQueryString(since);
+        scrollSearch(query, type, (Class<T>) type.getDocumentClass(), callback);
+    }
+    
+    private <T extends Document> Collection<T> getAllAction(Constants.Type type, Class<T> t) throws Exception{
         String query = getAllQueryString();
-        Search search = getSearch(query, type);
-        return runSearch(search, t);
+        return runSearch(query, type, t);
     }
 
     @Override
     public Collection<Claim> getClaims(UUID user) throws Exception {
         String query = getQueryString("user", user.toString());
-        Search search = getSearch(query, Constants.Type.CLAIM);
-        return runSearch(search, Claim.class);
+        return runSearch(query, Constants.Type.CLAIM, Claim.class);
     }
 
     @Override
     public Collection<Item> getExpenses(UUID claim) throws Exception {
         String query = getQueryString("claim", claim.toString());
-        Search search = getSearch(query, Constants.Type.ITEM);
-        return runSearch(search, Item.class);
+        return runSearch(query, Constants.Type.ITEM, Item.class);
+    }
+
+    @Override
+    public Collection<Item> getExpenses(Collection<UUID> claims) throws Exception {
+        ArrayList<UUID> claimList = new ArrayList<UUID>(claims);
+        ArrayList<Item> items = new ArrayList<Item>();
+        // one search per claim, a chunk of them per round trip
+        for (int start = 0; start < claimList.size(); start += MAX_MULTI_SEARCHES) {
+            List<UUID> chunk = claimList.subList(start, Math.min(start + MAX_MULTI_SEARCHES, claimList.size()));
+            ArrayList<Search> searches = new ArrayList<Search>();
+            for (UUID claim : chunk) {
+                searches.add(getSearch(getPagedQuery(getQueryString("claim", claim.toString())), Type.ITEM));
+            }
+            
+            JsonArray responses = runMultiSearch(searches);
+            for (int i = 0; i < chunk.size(); i++) {
+                // claims with more than a page of items are searched on their own
+                items.addAll(isComplete(responses.get(i)) ? getHits(responses.get(i), Item.class) : getExpenses(chunk.get(i)));
+            }
+        }
+        return items;
     }
 
     @Override
     public Collection<Tag> getTags(UUID user) throws Exception {
         String query = getQueryString("user", user.toString());
-        Search search = getSearch(query, Constants.Type.TAG);
-        return runSearch(search, Tag.class);
+        return runSearch(query, Constants.Type.TAG, Tag.class);
     }
 
     @Override
     public User getUser(String name) throws Exception {
         String query = getQueryString("userName", name);
-        Search search = getSearch(query, Constants.Type.USER);
         User [] out = new User[1];
-        runSearch(search, User.class).toArray(out);
+        runSearch(query, Constants.Type.USER, User.class).toArray(out);
         return out[0];
     }
     
     @Override
     public User getUser(UUID user) throws Exception {
-        String query = getQueryString("docID", user.toString());
-        Search search = getSearch(query, Constants.Type.USER);
-        User [] out = new User[1];
-        runSearch(search, User.class).toArray(out);
-        return out[0];
+        return this.<User>getDocument(Constants.Type.USER, user);
+    }
+    
+    @Override
+    public ClaimDetails getClaimDetails(UUID claimID) throws Exception {
+        // the claim names the users, so it must be fetched before the rest
+        Claim claim = this.<Claim>getDocument(Type.CLAIM, claimID);
+        if (claim == null)
+            return null;
+        
+        ArrayList<UUID> userIDs = new ArrayList<UUID>();
+        userIDs.add(claim.getUser());
+        if (claim.getApprover() != null)
+            userIDs.add(claim.getApprover());
+        
+        // everything else in one round trip, unless a search needs more than a page
+        JsonArray responses = runMultiSearch(Arrays.asList(
+                getSearch(getPagedQuery(getQueryString("claim", claimID.toString())), Type.ITEM),
+                getSearch(getIdsQueryString(userIDs), Type.USER),
+                getSearch(getPagedQuery(getQueryString("user", claim.getUser().toString())), Type.TAG)));
+        
+        Collection<Item> items = isComplete(responses.get(0)) ? getHits(responses.get(0), Item.class) : getExpenses(claimID);
+        User claimant = null;
+        User approver = null;
+        for (User user : getHits(responses.get(1), User.class)) {
+            if (user.getUUID().equals(claim.getUser())) claimant = user;
+            if (user.getUUID().equals(claim.getApprover())) approver = user;
+        }
+        Collection<Tag> tags = isComplete(responses.get(2)) ? getHits(responses.get(2), Tag.class) : getTags(claim.getUser());
+        
+        return new ClaimDetails(claim, items, claimant, approver, tags);
+    }
+    
+    /**
+     * Sends searches in one round trip.
+     * @return The response of each search, in order.  Each may have failed on its own.
+     * @throws IOException if the multi search as a whole failed.
+     */
+    private JsonArray runMultiSearch(List<Search> searches) throws Exception {
+        MultiSearch.Builder builder = new MultiSearch.Builder(searches.get(0));
+        for (Search search : searches.subList(1, searches.size())) {
+            builder.addSearch(search);
+        }
+        final MultiSearch multiSearch = builder.build();
+        
+        JestResult result = runESOperation(new ESOperation<JestResult>() {
+
+            @Override
+            public JestResult run() throws Exception {
+                return conn.execute(multiSearch);
+            }
+        });
+        
+        JsonObject json = result.getJsonObject();
+        if (!result.isSucceeded() || json == null || !json.has("responses"))
+            throw new IOException("Multi search failed: " + result.getErrorMessage());
+        return json.getAsJsonArray("responses");
+    }
+    
+    /**
+     * Reads the documents found by one search response, or one search of a multi search response.
+     * @throws IOException if that search failed.
+     */
+    private <T> Collection<T> getHits(JsonElement response, Class<T> t) throws IOException {
+        JsonObject json = response.getAsJsonObject();
+        if (json.has("error"))
+            throw new IOException("Search failed: " + json.get("error").toString());
+        
+        ArrayList<T> hits = new ArrayList<T>();
+        for (JsonElement hit : json.getAsJsonObject("hits").getAsJsonArray("hits")) {
+            hits.add(gson.fromJson(hit.getAsJsonObject().get("_source"), t));
+        }
+        return hits;
+    }
+    
+    /**
+     * @return whether a search response holds every document the search found.
+     */
+    private boolean isComplete(JsonElement response) {
+        JsonObject hits = response.getAsJsonObject().getAsJsonObject("hits");
+        return hits == null || hits.get("total").getAsInt() <= hits.getAsJsonArray("hits").size();
     }
 
     @Override
-    public <T extends Document> void saveDocuments(Collection<T> documents) throws Exception {
-        final Builder bulkBuilder = new Bulk.Builder();
-        for (Document d : documents){
-            bulkBuilder.addAction(new Index.Builder(d)
+    @SuppressWarnings("unchecked")
+    public <T extends Document> T getDocument(Type type, UUID id) throws Exception {
+        final Get get = new Get.Builder(Constants.INDEX, id.toString())
+        .type(type.toString()).build();
+        
+        JestResult result = runESOperation(new ESOperation<JestResult>() {
+
+            @Override
+            public JestResult run() throws Exception {
+                return conn.execute(get);
+            }
+        });
+        
+        // a missing document is an answer, not a failure
+        JsonObject json = result.getJsonObject();
+        if (json != null && json.has("found") && !json.get("found").getAsBoolean())
+            return null;
+        if (!result.isSucceeded())
+            throw new IOException("Get failed: " + result.getErrorMessage());
+        
+        return (T) result.getSourceAsObject(type.getDocumentClass());
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Document> Collection<T> getDocuments(Type type, Collection<UUID> ids) throws Exception {
+        ArrayList<String> idStrings = new ArrayList<String>();
+        for (UUID id : ids) {
+            idStrings.add(id.toString());
+        }
+        
+        // a page of documents per request, as with searches
+        ArrayList<T> found = new ArrayList<T>();
+        for (int start = 0; start < idStrings.size(); start += pageSize) {
+            List<String> chunk = idStrings.subList(start, Math.min(start + pageSize, idStrings.size()));
+            final MultiGet multiGet = new MultiGet.Builder.ById(Constants.INDEX, type.toString())
+            .addId(chunk).build();
+            
+            JestResult result = runESOperation(new ESOperation<JestResult>() {
+
+                @Override
+                public JestResult run() throws Exception {
+                    return conn.execute(multiGet);
+                }
+            });
+            
+            JsonObject json = result.getJsonObject();
+            if (!result.isSucceeded() || json == null || !json.has("docs"))
+                throw new IOException("Multi get failed: " + result.getErrorMessage());
+            
+            for (JsonElement doc : json.getAsJsonArray("docs")) {
+                JsonObject docJson = doc.getAsJsonObject();
+                // as with a single get, a missing document is an answer, but an error is not
+                if (docJson.has("error"))
+                    throw new IOException("Multi get failed: " + docJson.get("error").toString());
+                if (docJson.has("found") && docJson.get("found").getAsBoolean())
+                    found.add((T) gson.fromJson(docJson.get("_source"), type.getDocumentClass()));
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public <T extends Document> Collection<T> saveDocuments(Collection<T> documents) throws Exception {
+        Map<String, T> byID = new HashMap<String, T>();
+        ArrayList<BulkItem> bulkItems = new ArrayList<BulkItem>();
+        for (T d : documents){
+            // serialized once, both to measure it and to send it
+            String source = gson.toJson(d);
+            byID.put(d.getUUID().toString(), d);
+            bulkItems.add(new BulkItem(d.getUUID().toString(), new Index.Builder(source)
             .index(Constants.INDEX)
             .type(d.getType().toString())
-            .id(d.getUUID().toString()).build());
+            .id(d.getUUID().toString()).build(), source.length()));
         }
         
-        runESOperation(new ESOperation<Void>() {
-
+        return pick(runBulk(bulkItems), byID);
+    }
+    
+    @Override
+    public <T extends Document> Collection<T> updateDocuments(Collection<T> documents, Map<UUID, Set<String>> fields) throws Exception {
+        Map<String, T> byID = new HashMap<String, T>();
+        ArrayList<BulkItem> bulkItems = new ArrayList<BulkItem>();
+        for (T d : documents){
+            String update = getPartialUpdate(d, fields.get(d.getUUID()));
+            byID.put(d.getUUID().toString(), d);
+            bulkItems.add(new BulkItem(d.getUUID().toString(), new Update.Builder(update)
+            .index(Constants.INDEX)
+            .type(d.getType().toString())
+            .id(d.getUUID().toString()).build(), update.length()));
+        }
+        
+        return pick(runBulk(bulkItems), byID);
+    }
+    
+    /**
+     * Builds a scripted partial document update with the passed fields, along with the change
+     * dates that field-level merges need.  Another device may have pushed a newer version since,
+     * so lastChanged is only ever moved forward; dates are all in UTC, so they compare as strings.
+     * @return the update request body.
+     */
+    private String getPartialUpdate(Document d, Set<String> fields) {
+        JsonObject whole = gson.toJsonTree(d).getAsJsonObject();
+        JsonObject wholeStamps = whole.getAsJsonObject("fieldChanged");
+        
+        JsonObject partial = new JsonObject();
+        JsonObject stamps = new JsonObject();
+        for (String field : fields) {
+            // Gson omits null fields, but a field set to null must be cleared remotely
+            partial.add(field, whole.has(field) ? whole.get(field) : JsonNull.INSTANCE);
+            if (wholeStamps != null && wholeStamps.has(field))
+                stamps.add(field, wholeStamps.get(field));
+        }
+        
+        JsonObject params = new JsonObject();
+        params.add("fields", partial);
+        params.add("stamps", stamps);
+        params.add("lastChanged", whole.get("lastChanged"));
+        
+        JsonObject update = new JsonObject();
+        update.addProperty("script", PARTIAL_UPDATE_SCRIPT);
+        update.add("params", params);
+        return update.toString();
+    }
+    
+    /**
+     * @return the documents with the passed IDs.
+     */
+    private <T> Collection<T> pick(Collection<String> ids, Map<String, T> byID) {
+        ArrayList<T> picked = new ArrayList<T>();
+        for (String id : ids) {
+            T d = byID.get(id);
+            if (d != null) picked.add(d);
+        }
+        return picked;
+    }
+    
+    /**
+     * Sends bulk actions in requests bounded by action count and size, a few requests at a
+     * time.  Only the items the server was too busy for are sent again, after a pause.
+     * @return the IDs of the documents whose actions succeeded.
+     * @throws Exception if no request could be sent, in which case nothing succeeded.
+     */
+    private Collection<String> runBulk(Collection<BulkItem> bulkItems) throws Exception {
+        Set<String> succeeded = new HashSet<String>();
+        Exception failure = null;
+        
+        Collection<BulkItem> pending = bulkItems;
+        for (int attempt = 0; !pending.isEmpty(); attempt++) {
+            if (attempt > 0)
+                Thread.sleep(BULK_RETRY_DELAY * attempt);
+            
+            List<List<BulkItem>> chunks = chunk(pending);
+            ArrayList<Future<JestResult>> sent = new ArrayList<Future<JestResult>>();
+            for (List<BulkItem> chunk : chunks) {
+                sent.add(bulkExecutor.submit(bulkTask(chunk)));
+            }
+            
+            ArrayList<BulkItem> retry = new ArrayList<BulkItem>();
+            for (int i = 0; i < chunks.size(); i++) {
+                try {
+                    readBulkResult(sent.get(i).get(), chunks.get(i), succeeded, retry);
+                } catch (ExecutionException e) {
+                    // the request already had its timeout retry, so its items are failures
+                    if (failure == null)
+                        failure = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+                }
+            }
+            
+            if (attempt == BULK_ITEM_RETRIES)
+                break;
+            pending = retry;
+        }
+        
+        if (succeeded.isEmpty() && failure != null)
+            throw failure;
+        return succeeded;
+    }
+    
+    /**
+     * Splits bulk items into requests of at most MAX_BULK_ACTIONS actions and, unless a
+     * single item is larger, MAX_BULK_BYTES of documents.
+     */
+    private List<List<BulkItem>> chunk(Collection<BulkItem> bulkItems) {
+        ArrayList<List<BulkItem>> chunks = new ArrayList<List<BulkItem>>();
+        ArrayList<BulkItem> chunk = new ArrayList<BulkItem>();
+        int bytes = 0;
+        for (BulkItem item : bulkItems) {
+            if (!chunk.isEmpty() && (chunk.size() == MAX_BULK_ACTIONS || bytes + item.size > MAX_BULK_BYTES)) {
+                chunks.add(chunk);
+                chunk = new ArrayList<BulkItem>();
+                bytes = 0;
+            }
+            chunk.add(item);
+            bytes += item.size;
+        }
+        if (!chunk.isEmpty())
+            chunks.add(chunk);
+        return chunks;
+    }
+    
+    private Callable<JestResult> bulkTask(List<BulkItem> chunk) {
+        final Builder bulkBuilder = new Bulk.Builder();
+        for (BulkItem item : chunk) {
+            bulkBuilder.addAction(item.action);
+        }
+        
+        return new Callable<JestResult>() {
+            
             @Override
-            public Void run() throws Exception {
-                conn.execute(bulkBuilder.build());
-                return null;
+            public JestResult call() throws Exception {
+                return runESOperation(new ESOperation<JestResult>() {
+
+                    @Override
+                    public JestResult run() throws Exception {
+                        return conn.execute(bulkBuilder.build());
+                    }
+                });
             }
-        });
+        };
+    }
+    
+    /**
+     * Reads the per-item statuses of a bulk response.
+     * @param succeeded Receives the IDs whose items succeeded.
+     * @param retry Receives the items that failed only because the server was busy.
+     */
+    private void readBulkResult(JestResult result, List<BulkItem> chunk, Set<String> succeeded, List<BulkItem> retry) {
+        JsonObject json = result.getJsonObject();
+        if (json == null || !json.has("items")) {
+            // no per-item detail, so the whole request succeeded or was turned away
+            for (BulkItem item : chunk) {
+                if (result.isSucceeded()) {
+                    succeeded.add(item.id);
+                } else {
+                    retry.add(item);
+                }
+            }
+            return;
+        }
         
+        Map<String, BulkItem> byID = new HashMap<String, BulkItem>();
+        for (BulkItem item : chunk) {
+            byID.put(item.id, item);
+        }
+        
+        JsonArray items = json.getAsJsonArray("items");
+        for (JsonElement item : items) {
+            // each item is keyed by its action, ex. {"index": {"_id": ..., "status": 201}}
+            for (Map.Entry<String, JsonElement> action : item.getAsJsonObject().entrySet()) {
+                JsonObject status = action.getValue().getAsJsonObject();
+                String id = status.get("_id").getAsString();
+                int code = status.has("status") ? status.get("status").getAsInt() : 200;
+                
+                if (action.getKey().equals("delete") && code == 404) {
+                    // already gone, which is all a delete asks for
+                    succeeded.add(id);
+                } else if (!status.has("error") && code < 300) {
+                    succeeded.add(id);
+                } else if ((code == 429 || code >= 500) && byID.containsKey(id)) {
+                    retry.add(byID.get(id));
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return The circuit breaker guarding requests, to observe its state changes.
+     */
+    public CircuitBreaker getCircuitBreaker(){
+        return breaker;
+    }
+    
+    @Override
+    public boolean startCycle(){
+        retries.newCycle();
+        boolean probing = breaker.getState() != CircuitBreaker.State.CLOSED;
+        if (!breaker.allowRequest(SystemClock.uptimeMillis()))
+            return false;
+        if (!probing)
+            return true;
+        
+        // any answer at all means the server is back, so ask something cheap
+        try {
+            conn.execute(new IndicesExists.Builder(Constants.INDEX).build());
+            breaker.recordSuccess();
+            return true;
+        } catch (Exception e) {
+            breaker.recordFailure(SystemClock.uptimeMillis());
+            return false;
+        }
     }
     
     public void closeConnection(){
         conn.shutdownClient();
+        bulkExecutor.shutdown();
     }
     
     private Search getSearch(String query, Type type){
@@ -177,8 +736,6 @@ public class ElasticSearchHelper implements ServerHelper{
     
     private String getQueryString(String field, String value){
         String query = "{\n" +
-                "    \"from\": 0," +
-                "    \"size\": 100," +
                 "    \"query\" : {\n" +
                 "        \"match\" : {\n" +
                 "            \""+ field + "\" : \"" + value + "\" \n" +
@@ -188,63 +745,353 @@ public class ElasticSearchHelper implements ServerHelper{
         return query;
     }
     
-    private String getAllQueryString(){
-        //NOTE arbitrary size limit of 100
+    private String getIdsQueryString(Collection<UUID> ids){
+        JsonArray values = new JsonArray();
+        for (UUID id : ids) {
+            values.add(new JsonPrimitive(id.toString()));
+        }
         return "{\n" +
                 "    \"from\": 0," +
-                "    \"size\": 100," +
+                "    \"size\": " + Integer.toString(ids.size()) + "," +
+                "    \"query\" : {\n" +
+                "        \"ids\" : {\n" +
+                "            \"values\" : " + values.toString() + "\n" +
+                "        }\n" +
+                "    }\n" +
+                "}";
+    }
+    
+    private String getAllQueryString(){
+        return "{\n" +
                 "    \"query\" : {\n" +
                 "        \"match_all\" : {}\n" +
                 "    }\n" +
                 "}";
     }
     
-    @SuppressWarnings("deprecation")
-    private <T> Collection<T> runSearch(Search search, Class<T> t) throws Exception{
-        Collection<T> out = null;
-        final Search methodSearch = search;
-        final Class<T> classT = t;
+    private String getChangedSinceQueryString(Date since){
+        // the bound is formatted as stored dates are, and has second precision, so it is inclusive
+        return "{\n" +
+                "    \"query\" : {\n" +
+                "        \"range\" : {\n" +
+                "            \"lastChanged\" : { \"gte\" : \"" + getDateFormat().format(since) + "\" }\n" +
+                "        }\n" +
+                "    }\n" +
+                "}";
+    }
+    
+    /**
+     * Adds the page size to a query, and a sort by document ID so that pages follow a stable order.
+     */
+    private String getPagedQuery(String query){
+        JsonObject paged = new JsonParser().parse(query).getAsJsonObject();
+        paged.addProperty("size", pageSize);
+        JsonArray sort = new JsonArray();
+        sort.add(new JsonPrimitive("_uid"));
+        paged.add("sort", sort);
+        return paged.toString();
+    }
+    
+    /**
+     * Runs a search, collecting every page of results.  A page delivered again after a restart
+     * replaces the documents it held the first time.
+     */
+    private <T extends Document> Collection<T> runSearch(String query, Type type, Class<T> t) throws Exception{
+        final LinkedHashMap<UUID, T> out = new LinkedHashMap<UUID, T>();
+        scrollSearch(query, type, t, new PageCallback<T>() {
+            
+            @Override
+            public void onPage(Collection<T> page) {
+                for (T doc : page) {
+                    out.put(doc.getUUID(), doc);
+                }
+            }
+        });
+        return out.values();
+    }
+    
+    /**
+     * Runs a search, a page at a time so that no response holds more than a page of documents.
+     * Most results fit in one page, so a plain search is sent first, and the results are only
+     * scrolled through if its page is full.
+     * 
+     * A scroll cannot resume from a failed page, since the server may already have moved it
+     * past the page it sent, so a failed page restarts the whole search instead, within the
+     * retry policy.
+     * @param callback Receives each page as it arrives, and again after a restart.
+     */
+    private <T> void scrollSearch(String query, Type type, Class<T> t, PageCallback<T> callback) throws Exception{
+        HttpPost search = new HttpPost(Constants.CONNECTION_URL + Constants.INDEX + "/" + type.toString() + "/_search");
+        search.setEntity(new StringEntity(getPagedQuery(query), ContentType.APPLICATION_JSON));
+        ArrayList<T> hits = new ArrayList<T>();
+        streamPage(search, t, hits, true);
+        if (hits.size() < pageSize) {
+            if (!hits.isEmpty())
+                callback.onPage(hits);
+            return;
+        }
         
-        out = runESOperation(new ESOperation<Collection<T>>() {
+        // the scroll delivers the first page too, as the results may have changed since
+        for (int restart = 0; !scrollPages(query, type, t, callback, restart); restart++) {
+            Log.i("ElasticSearchHelper", "Scroll of " + type.toString() + " failed part way, restarting search.");
+        }
+    }
+    
+    /**
+     * Scrolls through the results once, from the first page, and clears the scroll after.
+     * @param restart The number of times the search has already been restarted.
+     * @return Whether every page was delivered.  False if a page after the first failed, and
+     * the search may start over.
+     * @throws IOException if a page failed, and the retry policy allows no restart.
+     */
+    private <T> boolean scrollPages(String query, Type type, Class<T> t, PageCallback<T> callback, int restart) throws Exception{
+        HttpPost search = new HttpPost(Constants.CONNECTION_URL + Constants.INDEX + "/" + type.toString()
+                + "/_search?scroll=" + SCROLL_KEEP_ALIVE);
+        search.setEntity(new StringEntity(getPagedQuery(query), ContentType.APPLICATION_JSON));
+        
+        // nothing was delivered yet, so the first page is retried like any request
+        ArrayList<T> hits = new ArrayList<T>();
+        String scrollID = streamPage(search, t, hits, true);
+        try {
+            while (!hits.isEmpty()) {
+                callback.onPage(hits);
+                if (hits.size() < pageSize)
+                    break; // a short page is the last, so skip asking for an empty one
+                
+                if (scrollID == null)
+                    throw new IOException("Search returned a full page without a scroll ID.");
+                HttpPost scroll = new HttpPost(Constants.CONNECTION_URL + "_search/scroll?scroll=" + SCROLL_KEEP_ALIVE);
+                scroll.setEntity(new StringEntity(scrollID, ContentType.TEXT_PLAIN));
+                hits = new ArrayList<T>();
+                try {
+                    String nextID = streamPage(scroll, t, hits, false);
+                    if (nextID != null) scrollID = nextID;
+                } catch (IOException e) {
+                    if (!retries.tryRetry(restart))
+                        throw e;
+                    Thread.sleep(retries.getDelay(restart));
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            clearScroll(scrollID);
+        }
+    }
+    
+    /**
+     * Frees a scroll on the server, rather than leaving it open until it expires.  Best effort,
+     * since it expires on its own anyway.
+     * @param scrollID The scroll to clear, or null for none.
+     */
+    private void clearScroll(String scrollID) {
+        if (scrollID == null)
+            return;
+        HttpDeleteWithBody clear = new HttpDeleteWithBody(Constants.CONNECTION_URL + "_search/scroll");
+        clear.setEntity(new StringEntity(scrollID, ContentType.TEXT_PLAIN));
+        try {
+            HttpResponse response = http.execute(clear);
+            EntityUtils.consumeQuietly(response.getEntity());
+        } catch (IOException e) {
+            Log.i("ElasticSearchHelper", "Could not clear scroll, leaving it to expire.");
+        }
+    }
+    
+    /**
+     * A DELETE request with a body, which HttpDelete does not allow, for clearing scrolls.
+     */
+    private static class HttpDeleteWithBody extends HttpEntityEnclosingRequestBase {
+        
+        public HttpDeleteWithBody(String uri) {
+            setURI(URI.create(uri));
+        }
+        
+        @Override
+        public String getMethod() {
+            return HttpDelete.METHOD_NAME;
+        }
+    }
+    
+    /**
+     * Runs a search or scroll request for one page of results, decoding each hit straight
+     * from the response stream.  Jest would read the whole response into a string and a JSON
+     * tree before decoding any of it, so searches go around it.
+     * @param hits Receives the documents of the page
+     * @param retryable Whether the request may be sent again if it fails.  Scroll continuations
+     * may not, since the server moves the scroll on whether or not the response arrives.
+     * @return the scroll ID to ask for the next page with, or null if there was none.
+     * @throws IOException if the request failed in a way that may pass, ex. the server was busy.
+     * @throws IllegalStateException if the server rejected the request.
+     */
+    private <T> String streamPage(final HttpUriRequest request, final Class<T> t, final Collection<T> hits, boolean retryable) throws Exception{
+        return runESOperation(retryable, new ESOperation<String>() {
 
             @Override
-            public Collection<T> run() throws Exception {
-                SearchResult result = conn.execute(methodSearch);
-                return result.getSourceAsObjectList(classT);
+            public String run() throws Exception {
+                // start over if retried
+                hits.clear();
+                HttpResponse response = http.execute(request);
+                HttpEntity entity = response.getEntity();
+                try {
+                    if (entity == null)
+                        throw new IOException("Search returned no response body.");
+                    int code = response.getStatusLine().getStatusCode();
+                    if (code == 429 || code >= 500)
+                        throw new IOException("Search failed: " + EntityUtils.toString(entity));
+                    if (code >= 300)
+                        // the server rejected the request itself, so sending it again will not help
+                        throw new IllegalStateException("Search rejected: " + EntityUtils.toString(entity));
+                    
+                    JsonReader reader = new JsonReader(new InputStreamReader(entity.getContent(), "UTF-8"));
+                    return readPage(reader, t, hits);
+                } finally {
+                    // release the connection, even if the body was not read to the end
+                    EntityUtils.consumeQuietly(entity);
+                }
             }
         });
+    }
+    
+    /**
+     * Reads a search response, ex. {"_scroll_id": ..., "hits": {"hits": [{"_source": ...}]}}
+     * @return the scroll ID, or null if the response had none.
+     */
+    private <T> String readPage(JsonReader reader, Class<T> t, Collection<T> hits) throws IOException{
+        String scrollID = null;
+        boolean found = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("_scroll_id")) {
+                scrollID = reader.nextString();
+            } else if (name.equals("hits")) {
+                found = true;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals("hits")) {
+                        readHits(reader, t, hits);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
         
-        return out;
-        
+        if (!found)
+            throw new IOException("Search response had no hits.");
+        return scrollID;
+    }
+    
+    /**
+     * Reads a hits array, decoding each _source as soon as it is reached.
+     */
+    private <T> void readHits(JsonReader reader, Class<T> t, Collection<T> hits) throws IOException{
+        reader.beginArray();
+        while (reader.hasNext()) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("_source")) {
+                    T hit = gson.fromJson(reader, t);
+                    hits.add(hit);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
     }
     
     /**
-     * This method performs runs an ESOperation with a single retry for timeouts
+     * Runs an ESOperation, retrying connection failures with backoff while the retry policy
+     * allows, and refusing it outright while the circuit is open.
      * @param opp the operation that should be run
      * @return T the return type of the passed ESOperation
      * @throws Exception
      */
     private <T> T runESOperation(ESOperation<T> opp) throws Exception{
-        T out = null;
-        boolean retry = true;
-        while (true){
-            try{
-                out = opp.run();                
-                break;
-            } catch (ConnectTimeoutException e){
-                if (retry){
-                    retry = false;
-                    continue;
-                } else {
+        return runESOperation(true, opp);
+    }
+    
+    /**
+     * Runs an ESOperation, refusing it outright while the circuit is open.
+     * @param retryable Whether connection failures may be retried.
+     * @param opp the operation that should be run
+     * @return T the return type of the passed ESOperation
+     * @throws Exception
+     */
+    private <T> T runESOperation(boolean retryable, ESOperation<T> opp) throws Exception{
+        for (int attempt = 0; ; attempt++) {
+            if (!breaker.allowRequest(SystemClock.uptimeMillis()))
+                throw new IOException("Server unavailable, circuit open.");
+            try {
+                T out = opp.run();
+                breaker.recordSuccess();
+                return out;
+            } catch (IOException e) {
+                breaker.recordFailure(SystemClock.uptimeMillis());
+                if (!retryable || !retries.tryRetry(attempt))
                     throw e;
-                }
+                Thread.sleep(retries.getDelay(attempt));
+            } catch (Exception e) {
+                // the server answered, so the failure is ours and retrying will not help
+                breaker.recordSuccess();
+                throw e;
             }
         }
-        return out;
     }
 
     private interface ESOperation <T> {
         public T run() throws Exception;
     }
     
+    /**
+     * @return Jest's date format, in UTC, so that dates written by devices in different time
+     * zones are stored and compared alike.  A new one each time, as they are not thread safe.
+     */
+    private static SimpleDateFormat getDateFormat() {
+        SimpleDateFormat format = new SimpleDateFormat(AbstractJestClient.ELASTIC_SEARCH_DATE_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+    
+    /**
+     * Writes dates in UTC.  Dates stored with any other offset are still read correctly.
+     */
+    private static class DateAdapter implements JsonDeserializer<Date>, JsonSerializer<Date> {
+        @Override
+        public Date deserialize(JsonElement json, java.lang.reflect.Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
+            try {
+                return getDateFormat().parse(json.getAsString());
+            } catch (ParseException e) {
+                throw new JsonParseException(e);
+            }
+        }
+
+        @Override
+        public JsonElement serialize(Date date, java.lang.reflect.Type typeOfT, JsonSerializationContext context) {
+            return new JsonPrimitive(getDateFormat().format(date));
+        }
+    }
+    
+    /**
+     * One action of a bulk request, with the ID of the document it acts on and the estimated
+     * size of the document it sends.
+     */
+    private static class BulkItem {
+        final String id;
+        final BulkableAction<?> action;
+        final int size;
+        
+        BulkItem(String id, BulkableAction<?> action, int size) {
+            this.id = id;
+            this.action = action;
+            this.size = size;
+        }
+    }
+    
 }
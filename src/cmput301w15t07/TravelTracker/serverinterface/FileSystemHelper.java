@@ -24,7 +24,12 @@ package cmput301w15t07.TravelTracker.serverinterface;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import android.content.Context;
@@ -35,10 +40,12 @@ import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
 
 import cmput301w15t07.TravelTracker.model.Claim;
+import cmput301w15t07.TravelTracker.model.ClaimDetails;
 import cmput301w15t07.TravelTracker.model.Document;
 import cmput301w15t07.TravelTracker.model.Item;
 import cmput301w15t07.TravelTracker.model.Tag;
 import cmput301w15t07.TravelTracker.model.User;
+import cmput301w15t07.TravelTracker.serverinterface.Constants.Type;
 import cmput301w15t07.TravelTracker.util.GsonIOManager;
 import cmput301w15t07.TravelTracker.util.PersistentList;
 
@@ -89,12 +96,37 @@ public class FileSystemHelper implements ServerHelper {
     }
 
     @Override
-    public <T extends Document> void deleteDocuments(Collection<T> documents)
+    public <T extends Document> Collection<T> deleteDocuments(Collection<T> documents)
             throws Exception {
+        // group by class so each saved list is rewritten once, not once per document
+        HashMap<Class<? extends Document>, ArrayList<UUID>> removed = new HashMap<Class<? extends Document>, ArrayList<UUID>>();
         for (Document doc : documents) {
-            deleteDocument(doc);
+            if (deleteDocument(doc)) {
+                if (!removed.containsKey(doc.getClass()))
+                    removed.put(doc.getClass(), new ArrayList<UUID>());
+                removed.get(doc.getClass()).add(doc.getUUID());
+            }
         }
-        
+        for (Class<? extends Document> clazz : removed.keySet()) {
+            savedDocs.get(clazz).removeAll(removed.get(clazz));
+        }
+        // documents that were never saved are just as gone
+        return new ArrayList<T>(documents);
+    }
+
+    @Override
+    public Collection<UUID> deleteDocuments(Type type, Collection<UUID> ids) throws Exception {
+        PersistentList<UUID> savedList = savedDocs.get(type.getDocumentClass());
+        ArrayList<UUID> removed = new ArrayList<UUID>();
+        for (UUID id : ids) {
+            if (savedList.contains(id)) {
+                if (!ctx.deleteFile(id.toString()))
+                    warn("Could not find cached " + id.toString() + " to delete.");
+                removed.add(id);
+            }
+        }
+        savedList.removeAll(removed);
+        return new ArrayList<UUID>(ids);
     }
 
     @Override
@@ -128,6 +160,17 @@ public class FileSystemHelper implements ServerHelper {
         }
         return claimItems;
     }
+    
+    @Override
+    public Collection<Item> getExpenses(Collection<UUID> claims) throws Exception {
+        Set<UUID> claimSet = new HashSet<UUID>(claims);
+        ArrayList<Item> claimItems = new ArrayList<Item>();
+        for (Item item : getAllItems()) {
+            if (claimSet.contains(item.getClaim()))
+                claimItems.add(item);
+        }
+        return claimItems;
+    }
 
     @Override
     public Collection<Tag> getTags(UUID user) throws Exception {
@@ -172,11 +215,91 @@ public class FileSystemHelper implements ServerHelper {
     }
 
     @Override
-    public <T extends Document> void saveDocuments(Collection<T> documents)
+    public <T extends Document> Collection<T> getChangedSince(Type type, Date since) throws Exception {
+        Collection<T> docs = this.<T>loadAll(savedDocs.get(type.getDocumentClass()), type.getDocumentClass());
+        if (since == null)
+            return docs;
+        
+        ArrayList<T> changed = new ArrayList<T>();
+        for (T doc : docs) {
+            if (!doc.getLastChanged().before(since))
+                changed.add(doc);
+        }
+        return changed;
+    }
+    
+    @Override
+    public <T extends Document> void getChangedSince(Type type, Date since, PageCallback<T> callback) throws Exception {
+        // everything is already on disk, so one page
+        Collection<T> changed = this.<T>getChangedSince(type, since);
+        if (!changed.isEmpty())
+            callback.onPage(changed);
+    }
+
+    @Override
+    public ClaimDetails getClaimDetails(UUID claimID) throws Exception {
+        Claim claim = this.<Claim>getDocument(Type.CLAIM, claimID);
+        if (claim == null)
+            return null;
+        
+        User approver = null;
+        if (claim.getApprover() != null)
+            approver = this.<User>getDocument(Type.USER, claim.getApprover());
+        return new ClaimDetails(claim, getExpenses(claimID), this.<User>getDocument(Type.USER, claim.getUser()),
+                approver, getTags(claim.getUser()));
+    }
+
+    @Override
+    public <T extends Document> T getDocument(Type type, UUID id) throws Exception {
+        if (!savedDocs.get(type.getDocumentClass()).contains(id))
+            return null;
+        
+        Collection<T> loaded = this.<T>loadAll(Collections.singletonList(id), type.getDocumentClass());
+        return loaded.isEmpty() ? null : loaded.iterator().next();
+    }
+    
+    @Override
+    public <T extends Document> Collection<T> getDocuments(Type type, Collection<UUID> ids) throws Exception {
+        // each document is its own file, so load only the ones that were saved
+        PersistentList<UUID> savedList = savedDocs.get(type.getDocumentClass());
+        ArrayList<UUID> saved = new ArrayList<UUID>();
+        for (UUID id : ids) {
+            if (savedList.contains(id)) saved.add(id);
+        }
+        return this.<T>loadAll(saved, type.getDocumentClass());
+    }
+
+    @Override
+    public boolean startCycle() {
+        // the file system is always there
+        return true;
+    }
+
+    @Override
+    public <T extends Document> Collection<T> saveDocuments(Collection<T> documents)
             throws Exception {
+        // group by class so each saved list is rewritten once, not once per document
+        HashMap<Class<? extends Document>, ArrayList<UUID>> added = new HashMap<Class<? extends Document>, ArrayList<UUID>>();
         for (Document doc : documents) {
-            saveDocument(doc);
+            if (saveDocument(doc)) {
+                if (!added.containsKey(doc.getClass()))
+                    added.put(doc.getClass(), new ArrayList<UUID>());
+                added.get(doc.getClass()).add(doc.getUUID());
+            }
         }
+        for (Class<? extends Document> clazz : added.keySet()) {
+            savedDocs.get(clazz).addAll(added.get(clazz));
+        }
+        return documents;
+    }
+    
+    /**
+     * Documents are stored whole in their own files, so the whole document is saved.
+     */
+    @Override
+    public <T extends Document> Collection<T> updateDocuments(Collection<T> documents, Map<UUID, Set<String>> fields)
+            throws Exception {
+        return saveDocuments(documents);
     }
     
     
@@ -204,31 +327,34 @@ public class FileSystemHelper implements ServerHelper {
     }
 
     /**
-     * save document to a file named the uuid and add the UUID to the saved list.
+     * save document to a file named the uuid.
      * 
      * @param doc document to save.
+     * @return whether the UUID must be added to the saved list.
      */
-    private <T extends Document> void saveDocument(T doc) {
+    private <T extends Document> boolean saveDocument(T doc) {
         GsonIOManager gson = new GsonIOManager(ctx);
         // create or overwrite file named as UUID string
         gson.save(doc, doc.getUUID().toString(), (new TypeToken<T>() {}).getType());
         // add to saved list if not seen before
-        PersistentList<UUID> saved = savedDocs.get(doc.getClass());
-        if (!saved.contains(doc.getUUID())) saved.add(doc.getUUID());
+        return !savedDocs.get(doc.getClass()).contains(doc.getUUID());
     }
     
     /**
-     * delete document file named the_uuid.json and remove the UUID from the saved list.
+     * delete document file named the_uuid.json.
      * 
      * @param doc document to delete.
+     * @return whether the UUID must be removed from the saved list.
      */
-    private <T extends Document> void deleteDocument(T doc) {
+    private <T extends Document> boolean deleteDocument(T doc) {
         PersistentList<UUID> savedList = savedDocs.get(doc.getClass());
-        if (savedList.remove(doc.getUUID())) {
+        if (savedList.contains(doc.getUUID())) {
             if (!ctx.deleteFile(doc.getUUID().toString()))
                 warn("Could not find cached " + doc.getUUID().toString() + " to delete.");
+            return true;
         } else {
             Log.i("FileSystemHelper", "delete called on nonexistent document " + doc.getUUID().toString());
+            return false;
         }
     }
     
@@ -21,26 +21,34 @@
 
 package cmput301w15t07.TravelTracker.serverinterface;
 
+import java.util.ArrayList;
+
 import android.util.SparseArray;
 
 /**
  * Allows several ResultCallbacks to return their data through a single
  * callback.
  * 
+ * The final callback is called exactly once: with all the data, or with the
+ * first error.  The callbacks may return on any thread.
+ * 
  * @author colp
  */
 public class MultiCallback {
-    /** SparseArray of results. */
+    /** SparseArray of results.  Guarded by itself. */
     private SparseArray<Object> results;
     
-    /** The number of remaining callbacks this is waiting for. */
-    private int remainingCallbacks;
+    /** The pending result of each callback created. */
+    private ArrayList<ResultFuture<?>> futures;
     
     /** Whether all callbacks have been created by the user. */
     private boolean ready = false;
     
-    /** The callback to call when everything else has returned. */
-    private ResultCallback<SparseArray<Object>> finalCallback;
+    /** The result returned to the final callback. */
+    private ResultFuture<SparseArray<Object>> combined;
+    
+    /** Shared by the combined future and every created callback. */
+    private CancellationToken token;
     
     /**
      * Construct a MultiCallback.
@@ -52,67 +60,77 @@ public class MultiCallback {
      * @param finalCallback The ResultCallback to return the SparseArray of data to.
      */
     public MultiCallback(ResultCallback<SparseArray<Object>> finalCallback) {
-        this.finalCallback = finalCallback;
-        remainingCallbacks = 0;
         results = new SparseArray<Object>();
+        futures = new ArrayList<ResultFuture<?>>();
+        token = new CancellationToken();
+        combined = new ResultFuture<SparseArray<Object>>(token);
+        combined.addCallback(finalCallback);
     }
     
     /**
      * Creates a ResultCallback. When the data is returned to the final
      * callback, the key for the callback's result will be the ID passed to
-     * this function.  
+     * this function.  Only the first result returned to it is kept.
      * 
      * @param id The ID to use.
      * @return The callback.
      */
     public <T> ResultCallback<T> createCallback(final int id) {
-        ++remainingCallbacks;
-        
-        if (results.indexOfKey(id) >= 0) {
-            throw new RuntimeException("Already added a callback with this ID");
-        }
-        
         if (ready) {
             throw new RuntimeException("Can't add callback after ready() has been called");
         }
         
-        ResultCallback<T> callback = new ResultCallback<T>() {
+        synchronized (results) {
+            if (results.indexOfKey(id) >= 0) {
+                throw new RuntimeException("Already added a callback with this ID");
+            }
+            // reserve the ID until the result arrives
+            results.put(id, null);
+        }
+        
+        ResultFuture<T> future = new ResultFuture<T>(token);
+        future.addCallback(new ResultCallback<T>() {
             @Override
             public void onResult(T result) {
-                // One callback complete; store the result
-                --remainingCallbacks;
-                results.put(id, result);
-                
-                // Try calling back to final callback if ready
-                if (ready) {
-                    attemptCallback();
+                synchronized (results) {
+                    results.put(id, result);
                 }
             }
 
             @Override
             public void onError(String message) {
-                finalCallback.onError(message);
+                // reported through the combined future
             }
-        };
+        });
+        futures.add(future);
         
-        return callback;
+        return future;
     }
     
     /**
      * Call this when all desired callbacks have been added.
+     * 
+     * @return The pending result of the final callback, which may be cancelled
+     * or given a timeout.  Cancelling it cancels the created callbacks, so
+     * reads still running for them can stop early.  It shares its token with
+     * them, so cancelling the token also stops reads still refreshing them
+     * after they have settled.
      */
-    public void ready() {
+    public ResultFuture<SparseArray<Object>> ready() {
         ready = true;
         
-        attemptCallback();
-    }
-    
-    /**
-     * Call back the final callback if everything has been received.
-     */
-    private void attemptCallback() {
-        if (remainingCallbacks == 0) {
-            finalCallback.onResult(results);
-        }
+        ResultFuture.allOf(futures).addCallback(new ResultCallback<Void>() {
+            @Override
+            public void onResult(Void result) {
+                combined.onResult(results);
+            }
+
+            @Override
+            public void onError(String message) {
+                combined.onError(message);
+            }
+        });
+        combined.dependOn(futures);
+        return combined;
     }
 }
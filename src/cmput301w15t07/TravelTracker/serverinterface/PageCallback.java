@@ -0,0 +1,44 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.serverinterface;
+
+import java.util.Collection;
+
+/**
+ * Receives the results of a server query one page at a time, so that large results are never
+ * held in a single response.
+ * 
+ * @author kdbanman
+ *
+ * @param <T> The type of the results.
+ */
+public interface PageCallback<T> {
+    
+    /**
+     * Called on the querying thread with each page of results, in order.  If the query fails
+     * part way and starts over, pages already delivered are delivered again, so handling a page
+     * must not depend on seeing each document only once.
+     * @param page The next page of results.  Never empty.
+     * @throws Exception to stop paging, in which case the query throws it.
+     */
+    public void onPage(Collection<T> page) throws Exception;
+}
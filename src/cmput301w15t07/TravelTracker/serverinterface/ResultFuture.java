@@ -0,0 +1,344 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.serverinterface;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * The result of an asynchronous action.  It settles exactly once, by succeeding, failing or
+ * being cancelled, and anything reported after that is ignored.
+ * 
+ * A ResultFuture is a ResultCallback, so it can be passed to any DataSource read.  Callbacks
+ * added with addCallback() are called once when it succeeds or fails, on the thread that
+ * settled it, or immediately if it already has.  They are never called if it is cancelled.
+ * 
+ * Futures composed with allOf() or anyOf() cancel their inputs once they settle, so inputs
+ * that are no longer needed stop consuming resources.
+ * 
+ * Each future has a CancellationToken, which may be shared with related futures.  Cancelling
+ * a pending future also cancels its token.  Once a future has settled, cancel its token to stop
+ * work still running behind it.
+ * 
+ * @author kdbanman
+ *
+ * @param <T> The result type.
+ */
+public class ResultFuture<T> implements ResultCallback<T> {
+    
+    private enum State { PENDING, SUCCEEDED, FAILED, CANCELLED }
+    
+    private State state = State.PENDING;
+    private T result;
+    private String error;
+    
+    private ArrayList<ResultCallback<? super T>> callbacks = new ArrayList<ResultCallback<? super T>>();
+    
+    /** Futures this one depends on, cancelled once it settles. */
+    private ArrayList<ResultFuture<?>> inputs = new ArrayList<ResultFuture<?>>();
+    
+    private Handler timeoutHandler;
+    private Runnable timeoutTask;
+    
+    private final CancellationToken token;
+    
+    public ResultFuture() {
+        this(new CancellationToken());
+    }
+    
+    /**
+     * @param token The token of the work behind this future, ex. one shared by a group of reads.
+     */
+    public ResultFuture(CancellationToken token) {
+        this.token = token;
+    }
+    
+    /**
+     * Succeed, if not yet settled.
+     * @param result The result to pass to callbacks.
+     */
+    @Override
+    public void onResult(T result) {
+        ArrayList<ResultCallback<? super T>> toCall;
+        ArrayList<ResultFuture<?>> toCancel;
+        synchronized (this) {
+            if (state != State.PENDING)
+                return;
+            this.result = result;
+            state = State.SUCCEEDED;
+            toCall = takeCallbacks();
+            toCancel = takeInputs();
+        }
+        cancelAll(toCancel);
+        for (ResultCallback<? super T> callback : toCall) {
+            callback.onResult(result);
+        }
+    }
+    
+    /**
+     * Fail, if not yet settled.
+     * @param message The error message to pass to callbacks.
+     */
+    @Override
+    public void onError(String message) {
+        ArrayList<ResultCallback<? super T>> toCall;
+        ArrayList<ResultFuture<?>> toCancel;
+        synchronized (this) {
+            if (state != State.PENDING)
+                return;
+            this.error = message;
+            state = State.FAILED;
+            toCall = takeCallbacks();
+            toCancel = takeInputs();
+        }
+        cancelAll(toCancel);
+        for (ResultCallback<? super T> callback : toCall) {
+            callback.onError(message);
+        }
+    }
+    
+    /**
+     * Cancel, if not yet settled.  Callbacks are dropped without being called, and the token
+     * is cancelled too.
+     * @return Whether this call cancelled it.
+     */
+    public boolean cancel() {
+        ArrayList<ResultFuture<?>> toCancel;
+        synchronized (this) {
+            if (state != State.PENDING)
+                return false;
+            state = State.CANCELLED;
+            takeCallbacks();
+            toCancel = takeInputs();
+        }
+        token.cancel();
+        cancelAll(toCancel);
+        return true;
+    }
+    
+    /**
+     * @return The token telling work behind this future whether it is still wanted.
+     */
+    public CancellationToken getToken() {
+        return token;
+    }
+    
+    /**
+     * Call back once settled, or now if already settled.
+     * @param callback The callback.  Not called if this is cancelled.
+     * @return This future, for chaining.
+     */
+    public ResultFuture<T> addCallback(ResultCallback<? super T> callback) {
+        synchronized (this) {
+            if (state == State.PENDING) {
+                callbacks.add(callback);
+                return this;
+            }
+        }
+        
+        if (state == State.SUCCEEDED) {
+            callback.onResult(result);
+        } else if (state == State.FAILED) {
+            callback.onError(error);
+        }
+        return this;
+    }
+    
+    /**
+     * Fail if not settled within a time limit.  The timeout is reported on the UI thread.
+     * @param millis The time limit in milliseconds.
+     * @return This future, for chaining.
+     */
+    public ResultFuture<T> withTimeout(long millis) {
+        return withTimeout(millis, new Handler(Looper.getMainLooper()));
+    }
+    
+    /**
+     * Fail if not settled within a time limit.
+     * @param millis The time limit in milliseconds.
+     * @param handler The handler to report the timeout on.
+     * @return This future, for chaining.
+     */
+    public ResultFuture<T> withTimeout(long millis, Handler handler) {
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                onError("Timed out.");
+            }
+        };
+        synchronized (this) {
+            if (state != State.PENDING)
+                return this;
+            clearTimeout();
+            timeoutHandler = handler;
+            timeoutTask = task;
+        }
+        handler.postDelayed(task, millis);
+        return this;
+    }
+    
+    public synchronized boolean isDone() {
+        return state != State.PENDING;
+    }
+    
+    public synchronized boolean isCancelled() {
+        return state == State.CANCELLED;
+    }
+    
+    /**
+     * @return The result, or null if it has not succeeded.
+     */
+    public synchronized T getResult() {
+        return result;
+    }
+    
+    /**
+     * @return The error message, or null if it has not failed.
+     */
+    public synchronized String getError() {
+        return error;
+    }
+    
+    /**
+     * @param futures The futures to wait for.
+     * @return A future that succeeds when all of the futures succeed, and fails as soon as any of
+     * them fails.  Read the results from the futures themselves.
+     */
+    public static ResultFuture<Void> allOf(ResultFuture<?>... futures) {
+        return allOf(Arrays.asList(futures));
+    }
+    
+    /**
+     * @param futures The futures to wait for.
+     * @return A future that succeeds when all of the futures succeed, and fails as soon as any of
+     * them fails.  Read the results from the futures themselves.
+     */
+    public static ResultFuture<Void> allOf(Collection<? extends ResultFuture<?>> futures) {
+        final ResultFuture<Void> all = new ResultFuture<Void>();
+        all.dependOn(futures);
+        if (futures.isEmpty()) {
+            all.onResult(null);
+            return all;
+        }
+        
+        final AtomicInteger remaining = new AtomicInteger(futures.size());
+        for (ResultFuture<?> future : futures) {
+            future.addCallback(new ResultCallback<Object>() {
+                @Override
+                public void onResult(Object result) {
+                    if (remaining.decrementAndGet() == 0)
+                        all.onResult(null);
+                }
+                
+                @Override
+                public void onError(String message) {
+                    all.onError(message);
+                }
+            });
+        }
+        return all;
+    }
+    
+    /**
+     * @param futures The futures to wait for.
+     * @return A future with the first result of any of the futures, which fails only if all of
+     * them fail.
+     */
+    public static <T> ResultFuture<T> anyOf(Collection<? extends ResultFuture<? extends T>> futures) {
+        final ResultFuture<T> any = new ResultFuture<T>();
+        any.dependOn(futures);
+        if (futures.isEmpty()) {
+            any.onError("No results.");
+            return any;
+        }
+        
+        final AtomicInteger remaining = new AtomicInteger(futures.size());
+        for (ResultFuture<? extends T> future : futures) {
+            future.addCallback(new ResultCallback<T>() {
+                @Override
+                public void onResult(T result) {
+                    any.onResult(result);
+                }
+                
+                @Override
+                public void onError(String message) {
+                    if (remaining.decrementAndGet() == 0)
+                        any.onError(message);
+                }
+            });
+        }
+        return any;
+    }
+    
+    /**
+     * Cancel the passed futures once this one settles.
+     */
+    void dependOn(Collection<? extends ResultFuture<?>> futures) {
+        synchronized (this) {
+            if (state == State.PENDING) {
+                inputs.addAll(futures);
+                return;
+            }
+        }
+        cancelAll(futures);
+    }
+    
+    /**
+     * Settle the callbacks and timeout.  Must hold the lock.
+     * @return The callbacks to call.
+     */
+    private ArrayList<ResultCallback<? super T>> takeCallbacks() {
+        clearTimeout();
+        ArrayList<ResultCallback<? super T>> toCall = callbacks;
+        callbacks = new ArrayList<ResultCallback<? super T>>();
+        return toCall;
+    }
+    
+    /**
+     * Must hold the lock.
+     * @return The inputs, which are no longer needed once this future settles.
+     */
+    private ArrayList<ResultFuture<?>> takeInputs() {
+        ArrayList<ResultFuture<?>> toCancel = inputs;
+        inputs = new ArrayList<ResultFuture<?>>();
+        return toCancel;
+    }
+    
+    private void clearTimeout() {
+        if (timeoutTask != null) {
+            timeoutHandler.removeCallbacks(timeoutTask);
+            timeoutTask = null;
+            timeoutHandler = null;
+        }
+    }
+    
+    private static void cancelAll(Collection<? extends ResultFuture<?>> futures) {
+        for (ResultFuture<?> future : futures) {
+            future.cancel();
+        }
+    }
+}
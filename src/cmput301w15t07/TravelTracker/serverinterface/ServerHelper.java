@@ -22,13 +22,18 @@
 package cmput301w15t07.TravelTracker.serverinterface;
 
 import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import cmput301w15t07.TravelTracker.model.Claim;
+import cmput301w15t07.TravelTracker.model.ClaimDetails;
 import cmput301w15t07.TravelTracker.model.Document;
 import cmput301w15t07.TravelTracker.model.Item;
 import cmput301w15t07.TravelTracker.model.Tag;
 import cmput301w15t07.TravelTracker.model.User;
+import cmput301w15t07.TravelTracker.serverinterface.Constants.Type;
 
 /**
  * Contains helper functions for server operations.
@@ -39,10 +44,23 @@ public interface ServerHelper {
     
     /**
      * This method deletes all passed documents from the ES cluster.
-     * When finished or on error will use the callback. 
      * @param documents
+     * @return the passed documents that are no longer stored.  Documents whose deletion was
+     * rejected are omitted.
+     * @throws Exception if the deletion could not be attempted at all
      */
-    public <T extends Document> void deleteDocuments(Collection<T> documents) throws Exception;
+    public <T extends Document> Collection<T> deleteDocuments(Collection<T> documents) throws Exception;
+    
+    /**
+     * This method deletes the documents of a type with the passed UUIDs.
+     * Used when only the identity of a deleted document is kept.
+     * @param type The type of the documents
+     * @param ids The UUIDs of the documents
+     * @return the passed UUIDs whose documents are no longer stored.  Those whose deletion was
+     * rejected are omitted.
+     * @throws Exception if the deletion could not be attempted at all
+     */
+    public Collection<UUID> deleteDocuments(Type type, Collection<UUID> ids) throws Exception;
     
     /**
      * This method returns all claims from the server
@@ -72,6 +90,26 @@ public interface ServerHelper {
      */
     public Collection<User> getAllUsers() throws Exception;
     
+    /**
+     * This method returns all documents of a type that were changed at or after a given time.
+     * Used for incremental synchronization.
+     * @param type The type of document to retrieve
+     * @param since The high-water mark of Document.getLastChanged(), or null for all documents
+     * @return all documents of the type changed since the passed time
+     * @throws Exception
+     */
+    public <T extends Document> Collection<T> getChangedSince(Type type, Date since) throws Exception;
+    
+    /**
+     * Passes all documents of a type that were changed at or after a given time to a callback,
+     * page by page in a stable order, for results too large to retrieve at once.
+     * @param type The type of document to retrieve
+     * @param since The high-water mark of Document.getLastChanged(), or null for all documents
+     * @param callback Receives each page of documents as it arrives
+     * @throws Exception if any page could not be retrieved, or the callback threw
+     */
+    public <T extends Document> void getChangedSince(Type type, Date since, PageCallback<T> callback) throws Exception;
+    
     /**
      * Gets all claims for the passed user from the server asynchronously, returns it via 
      * ResultCallback
@@ -87,6 +125,14 @@ public interface ServerHelper {
      * @return collection of expense Items
      */
     public Collection<Item> getExpenses(UUID claim) throws Exception;
+    
+    /**
+     * Gets all expense items for any of the passed claims, in as few requests as possible.
+     * @param claims
+     * @return collection of expense Items
+     */
+    public Collection<Item> getExpenses(Collection<UUID> claims) throws Exception;
+    
     /**
      * Gets all tags for the passed user from the server asynchronously, returns it
      * via ResultCallback
@@ -112,9 +158,56 @@ public interface ServerHelper {
     public User getUser(UUID user) throws Exception;
     
     /**
-     * Saves passed documents to the server asynchronously, returns the documents that
-     * were successfully saved via callback 
+     * Gets a claim along with its items, claimant, approver and the claimant's tags, in as few
+     * requests as possible.
+     * @param claim The UUID of the claim
+     * @return the claim details, or null if the server does not have the claim.  Users the
+     * server does not have are null.
+     * @throws Exception if the server could not be asked
+     */
+    public ClaimDetails getClaimDetails(UUID claim) throws Exception;
+    
+    /**
+     * Gets a single document by its UUID, for documents missing from the cache.
+     * @param type The type of the document
+     * @param id The UUID of the document
+     * @return the document, or null if the server does not have it
+     * @throws Exception if the server could not be asked
+     */
+    public <T extends Document> T getDocument(Type type, UUID id) throws Exception;
+    
+    /**
+     * Gets several documents of a type by their UUIDs, in as few requests as possible.
+     * @param type The type of the documents
+     * @param ids The UUIDs of the documents
+     * @return the documents found.  Documents the server does not have are omitted.
+     * @throws Exception if the server could not be asked
+     */
+    public <T extends Document> Collection<T> getDocuments(Type type, Collection<UUID> ids) throws Exception;
+    
+    /**
+     * Saves passed documents to the server, returns the documents that were successfully saved.
      * @param documents
+     * @return the passed documents that were saved.  Documents that were rejected are omitted.
+     * @throws Exception if the save could not be attempted at all
+     */
+    public <T extends Document> Collection<T> saveDocuments(Collection<T> documents) throws Exception;
+    
+    /**
+     * Saves only some fields of documents already on the server, leaving the rest as stored.
+     * Documents the server does not have are rejected rather than created.
+     * The stored last changed date is never moved backward.
+     * @param documents The documents to update.
+     * @param fields The JSON names of the fields to send, by document UUID.
+     * @return the passed documents that were updated.  Documents that were rejected are omitted.
+     * @throws Exception if the update could not be attempted at all
+     */
+    public <T extends Document> Collection<T> updateDocuments(Collection<T> documents, Map<UUID, Set<String>> fields) throws Exception;
+    
+    /**
+     * Called before each synchronization cycle.  Resets per-cycle limits, such as the retry
+     * budget, and may send a cheap probe if the server was recently unreachable.
+     * @return whether the server should be used this cycle.  False while it is known to be down.
      */
-    public <T extends Document> void saveDocuments(Collection<T> documents) throws Exception;
+    public boolean startCycle();
 }
@@ -0,0 +1,117 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.util;
+
+/**
+ * Stops requests to a server that keeps failing.  After enough failures in a row the circuit
+ * opens and requests are refused without being sent.  Once it has been open long enough, a
+ * single probe request is let through: the circuit closes if it succeeds and opens again if
+ * it fails.
+ * 
+ * Observers are updated on every change of state, ex. for metrics.
+ * 
+ * @author kdbanman
+ *
+ */
+public class CircuitBreaker extends Observable<CircuitBreaker> {
+    
+    public enum State {
+        /** Requests are sent. */
+        CLOSED,
+        /** Requests are refused. */
+        OPEN,
+        /** A probe request is in flight, and others are refused until it finishes. */
+        HALF_OPEN
+    }
+    
+    private int failureThreshold;
+    private long openPeriod;
+    
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private long openedAt;
+    
+    /**
+     * @param failureThreshold The failures in a row that open the circuit.
+     * @param openPeriod How long the circuit stays open before a probe is allowed.
+     */
+    public CircuitBreaker(int failureThreshold, long openPeriod) {
+        if (failureThreshold <= 0 || openPeriod < 0)
+            throw new IllegalArgumentException("Failure threshold must be positive and open period not negative");
+        
+        this.failureThreshold = failureThreshold;
+        this.openPeriod = openPeriod;
+    }
+    
+    /**
+     * Ask to send a request.  If the circuit has been open long enough, this request becomes
+     * the probe.
+     * @param now The current time.
+     * @return Whether the request may be sent.
+     */
+    public synchronized boolean allowRequest(long now) {
+        switch (state) {
+        case CLOSED:
+            return true;
+        case OPEN:
+            if (now - openedAt < openPeriod)
+                return false;
+            setState(State.HALF_OPEN);
+            return true;
+        default:
+            return false;
+        }
+    }
+    
+    /**
+     * A request reached the server.
+     */
+    public synchronized void recordSuccess() {
+        failures = 0;
+        if (state != State.CLOSED)
+            setState(State.CLOSED);
+    }
+    
+    /**
+     * A request could not reach the server.
+     * @param now The current time.
+     */
+    public synchronized void recordFailure(long now) {
+        failures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+            openedAt = now;
+            setState(State.OPEN);
+        }
+    }
+    
+    /**
+     * @return The current state.
+     */
+    public synchronized State getState() {
+        return state;
+    }
+    
+    private void setState(State state) {
+        this.state = state;
+        updateObservers(this);
+    }
+}
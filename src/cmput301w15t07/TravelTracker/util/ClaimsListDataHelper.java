@@ -23,12 +23,12 @@ package cmput301w15t07.TravelTracker.util;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.UUID;
 
 import android.util.SparseArray;
 import cmput301w15t07.TravelTracker.model.Claim;
 import cmput301w15t07.TravelTracker.model.DataSource;
 import cmput301w15t07.TravelTracker.model.Item;
-import cmput301w15t07.TravelTracker.model.Status;
 import cmput301w15t07.TravelTracker.model.Tag;
 import cmput301w15t07.TravelTracker.model.User;
 import cmput301w15t07.TravelTracker.model.UserData;
@@ -44,13 +44,13 @@ import cmput301w15t07.TravelTracker.serverinterface.ResultCallback;
 public class ClaimsListDataHelper {
     
     private static final int CLAIMS_ID = 0;
-    private static final int ITEMS_ID = 1;
     private static final int USER_ID = 2;
     private static final int USERS_ID = 3;
     private static final int TAGS_ID = 4;
     
     private UserRole userRole;
     private ResultCallback<InitialData> callback;
+    private DataSource ds;
     
     /**
      * This method is used to retrieve Claims, Items, and the current User object
@@ -63,63 +63,50 @@ public class ClaimsListDataHelper {
     public void getInitialData(ResultCallback<InitialData> callback, UserData userData, DataSource ds){
         this.userRole = userData.getRole();
         this.callback = callback;
+        this.ds = ds;
         MultiCallback mc = new MultiCallback(new initalDataCallback());
-        ds.getAllClaims(mc.<Collection<Claim>>createCallback(CLAIMS_ID));
-        ds.getAllItems(mc.<Collection<Item>>createCallback(ITEMS_ID));
+        if (userRole.equals(UserRole.CLAIMANT)) {
+            ds.getClaimsForUser(userData.getUUID(), mc.<Collection<Claim>>createCallback(CLAIMS_ID));
+            ds.getAllUsers(mc.<Collection<User>>createCallback(USERS_ID));
+        } else {
+            // only the users named by the queue are shown, so look just those up
+            ds.getApprovalQueue(userData.getUUID(), new ApprovalQueueCallback(
+                    mc.<Collection<Claim>>createCallback(CLAIMS_ID),
+                    mc.<Collection<User>>createCallback(USERS_ID)));
+        }
         ds.getUser(userData.getUUID(), mc.<User>createCallback(USER_ID));
-        ds.getAllUsers(mc.<Collection<User>>createCallback(USERS_ID));
         ds.getAllTags(mc.<Collection<Tag>>createCallback(TAGS_ID));
         mc.ready();
     }
     
     // We know the return results are the right type, so unchecked casts shouldn't be problematic.
     @SuppressWarnings("unchecked")
-    private InitialData buildInitialData(SparseArray<Object> array, UserRole role){
+    private InitialData buildInitialData(SparseArray<Object> array){
         InitialData data = new InitialData();
         data.setUser((User)array.get(USER_ID));
-        data.setClaims(getClaimsForUser((Collection<Claim>)array.get(CLAIMS_ID), data.getUser(), role));
-        data.setItems(getItemsForClaims(data.getClaims(), (Collection<Item>) array.get(ITEMS_ID)));
+        // already narrowed to the user's claims or approval queue
+        data.setClaims((Collection<Claim>)array.get(CLAIMS_ID));
         data.setUsers((Collection<User>)array.get(USERS_ID));
         data.setTags((Collection<Tag>)array.get(TAGS_ID));
         
         return data;
     }
     
-    private static ArrayList<Claim> getClaimsForUser(Collection<Claim> claims, User user, UserRole role){
-        ArrayList<Claim> outClaims = new ArrayList<Claim>();
-        
-        
+    private static ArrayList<UUID> getClaimIDs(Collection<Claim> claims){
+        ArrayList<UUID> ids = new ArrayList<UUID>();
         for (Claim c : claims){
-            if (role.equals(UserRole.APPROVER)) {
-                boolean isMyClaim = c.getUser().equals(user.getUUID());
-                boolean isSubmitted = c.getStatus().equals(Status.SUBMITTED);
-                boolean isMineToApprove = (c.getApprover() == null || c.getApprover().equals(user.getUUID()));
-                
-                if (!isMyClaim && isSubmitted && isMineToApprove) {
-                    outClaims.add(c);
-                }
-            } else if (role.equals(UserRole.CLAIMANT)){
-                if (c.getUser().equals(user.getUUID())){
-                    outClaims.add(c);
-                }
-            }
+            ids.add(c.getUUID());
         }
-        
-        return outClaims;
+        return ids;
     }
     
-    private static ArrayList<Item> getItemsForClaims(Collection<Claim> claims, Collection<Item> items){
-        ArrayList<Item> outItems = new ArrayList<Item>();
-        
-        for (Item i: items){
-            for (Claim c : claims){
-                if (i.getClaim().equals(c.getUUID())){
-                    outItems.add(i);
-                    break;
-                }
-            }
+    private static ArrayList<UUID> getUserIDs(Collection<Claim> claims){
+        ArrayList<UUID> ids = new ArrayList<UUID>();
+        for (Claim c : claims){
+            ids.add(c.getUser());
+            if (c.getApprover() != null) ids.add(c.getApprover());
         }
-        return outItems;
+        return ids;
     }
     
     public class InitialData {
@@ -162,11 +149,52 @@ public class ClaimsListDataHelper {
         }
     }
     
+    /**
+     * Passes on the approval queue, then looks up the claimants and approvers it names all
+     * at once.
+     */
+    class ApprovalQueueCallback implements ResultCallback<Collection<Claim>>{
+        
+        private ResultCallback<Collection<Claim>> claimsCallback;
+        private ResultCallback<Collection<User>> usersCallback;
+        
+        public ApprovalQueueCallback(ResultCallback<Collection<Claim>> claimsCallback,
+                ResultCallback<Collection<User>> usersCallback) {
+            this.claimsCallback = claimsCallback;
+            this.usersCallback = usersCallback;
+        }
+        
+        @Override
+        public void onResult(Collection<Claim> claims) {
+            claimsCallback.onResult(claims);
+            ds.getUsers(getUserIDs(claims), usersCallback);
+        }
+        
+        @Override
+        public void onError(String message) {
+            claimsCallback.onError(message);
+        }
+    }
+    
     class initalDataCallback implements ResultCallback<SparseArray<Object>>{
         
         @Override
         public void onResult(SparseArray<Object> result) {
-            callback.onResult(buildInitialData(result, userRole));
+            final InitialData data = buildInitialData(result);
+            
+            // Only fetch the items belonging to the claims being shown
+            ds.getItemsForClaims(getClaimIDs(data.getClaims()), new ResultCallback<Collection<Item>>() {
+                @Override
+                public void onResult(Collection<Item> items) {
+                    data.setItems(items);
+                    callback.onResult(data);
+                }
+
+                @Override
+                public void onError(String message) {
+                    callback.onError(message);
+                }
+            });
         }
 
         @Override
@@ -0,0 +1,154 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.UUID;
+
+import cmput301w15t07.TravelTracker.model.Document;
+
+/**
+ * Reconciles locally queued deletions against documents retrieved from the server, in time
+ * linear in the number of tombstones plus the number of retrieved documents.
+ * 
+ * A deletion newer than the retrieved copy of its document is performed, and the document is
+ * dropped from the retrieved set.  This holds for confirmed deletions too, since the server may
+ * still return stale copies for a while.  A deletion older than the retrieved copy is overridden
+ * by the remote change.  An unconfirmed deletion whose document was not retrieved is performed
+ * as well.
+ * 
+ * Retrieved documents may be reconciled a page at a time, so that only the UUIDs of deleted
+ * documents are kept between pages.  A document retrieved again, ex. after a paged query
+ * restarts, is reconciled as it was the first time.
+ * 
+ * @author kdbanman
+ *
+ * @param <T> The type of Document reconciled.
+ */
+public class DeletionReconciliation<T extends Document> {
+    
+    private ArrayList<T> remaining;
+    private ArrayList<Tombstone> pending;
+    private ArrayList<Tombstone> overridden;
+    
+    /** Deletions whose documents have not been retrieved yet. */
+    private HashMap<UUID, Tombstone> unmatched;
+    
+    /** Documents whose deletion is performed, so that later copies of them are dropped too. */
+    private HashSet<UUID> dropped;
+    
+    private boolean finished = false;
+    
+    /**
+     * Reconcile retrieved documents all at once.
+     * @param retrieved The documents retrieved from the server.  Not modified.
+     * @param tombstones The locally queued deletions for the type of document retrieved,
+     *        at most one per document.  Not modified.
+     */
+    public DeletionReconciliation(Collection<T> retrieved, Collection<Tombstone> tombstones) {
+        this(tombstones);
+        remaining = reconcile(retrieved);
+        finish();
+    }
+    
+    /**
+     * Reconcile retrieved documents a page at a time, with reconcile(), then finish().
+     * @param tombstones The locally queued deletions for the type of document retrieved,
+     *        at most one per document.  Not modified.
+     */
+    public DeletionReconciliation(Collection<Tombstone> tombstones) {
+        remaining = new ArrayList<T>();
+        pending = new ArrayList<Tombstone>();
+        overridden = new ArrayList<Tombstone>();
+        dropped = new HashSet<UUID>();
+        
+        unmatched = new HashMap<UUID, Tombstone>();
+        for (Tombstone tombstone : tombstones) {
+            unmatched.put(tombstone.getUUID(), tombstone);
+        }
+    }
+    
+    /**
+     * @param page Some of the documents retrieved from the server.  Not modified.
+     * @return The documents of the page that survive reconciliation and should be merged.
+     */
+    public ArrayList<T> reconcile(Collection<T> page) {
+        ArrayList<T> survivors = new ArrayList<T>(page.size());
+        for (T doc : page) {
+            if (dropped.contains(doc.getUUID()))
+                continue;
+            
+            Tombstone tombstone = unmatched.remove(doc.getUUID());
+            if (tombstone == null) {
+                survivors.add(doc);
+            } else if (tombstone.getDate().after(doc.getLastChanged())) {
+                pending.add(tombstone);
+                dropped.add(doc.getUUID());
+            } else {
+                survivors.add(doc);
+                overridden.add(tombstone);
+            }
+        }
+        return survivors;
+    }
+    
+    /**
+     * Call once every retrieved document has been reconciled.  Deletions whose documents were
+     * never retrieved are then performed, unless already confirmed.
+     */
+    public void finish() {
+        if (finished)
+            return;
+        finished = true;
+        
+        for (Tombstone tombstone : unmatched.values()) {
+            if (!tombstone.isConfirmed())
+                pending.add(tombstone);
+        }
+        unmatched.clear();
+    }
+    
+    /**
+     * @return The retrieved documents passed to the constructor that survive reconciliation
+     * and should be merged.  Empty when reconciling a page at a time.
+     */
+    public ArrayList<T> getRemaining() {
+        return remaining;
+    }
+    
+    /**
+     * @return The deletions that should be performed.
+     */
+    public ArrayList<Tombstone> getPending() {
+        return pending;
+    }
+    
+    /**
+     * @return The deletions that were superseded by a newer remote change and should be discarded.
+     */
+    public ArrayList<Tombstone> getOverridden() {
+        return overridden;
+    }
+}
@@ -21,6 +21,7 @@
 
 package cmput301w15t07.TravelTracker.util;
 
+import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -28,6 +29,8 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 
 import android.content.Context;
@@ -41,6 +44,7 @@ import com.google.gson.JsonParseException;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
+import com.google.gson.JsonSyntaxException;
 
 /**
  * Facade to wrap streams and GSON ugliness.
@@ -114,6 +118,84 @@ public class GsonIOManager {
         }
     }
     
+    /**
+     * Load a file of one JSON object per line, as written by appendLines() and saveLines().
+     * A malformed line (ex. from an append cut short) is skipped.
+     */
+    public <T> ArrayList<T> loadLines(String filename, Type type) throws FileNotFoundException {
+        ArrayList<T> ret = new ArrayList<T>();
+        
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(ctx.openFileInput(filename)));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0)
+                    continue;
+                try {
+                    T element = gson.fromJson(line, type);
+                    if (element != null) ret.add(element);
+                } catch (JsonSyntaxException e) {
+                    Log.w("GSONIOManager", "skipping malformed line in " + filename);
+                }
+            }
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            Log.e("GSONIOManager", "file read failed");
+            Log.e("GSONIOManager", e.getMessage());
+        } finally {
+            try {
+                if (reader != null)
+                    reader.close();
+            } catch (IOException e) {
+                Log.e("GSONIOManager", "file read failed super hard");
+                Log.e("GSONIOManager", e.getMessage());
+            }
+        }
+        return ret;
+    }
+    
+    /**
+     * Append each element as one JSON line, without rewriting the existing contents.
+     */
+    public void appendLines(Collection<?> toSave, String filename, Type type) {
+        saveLines(toSave, filename, type, Context.MODE_APPEND);
+    }
+    
+    /**
+     * Replace the file contents with each element as one JSON line.
+     */
+    public void saveLines(Collection<?> toSave, String filename, Type type) {
+        saveLines(toSave, filename, type, Context.MODE_PRIVATE);
+    }
+    
+    private void saveLines(Collection<?> toSave, String filename, Type type, int mode) {
+        FileOutputStream fos = null;
+        OutputStreamWriter writer = null;
+        try {
+            fos = ctx.openFileOutput(filename, mode);
+            writer = new OutputStreamWriter(fos);
+            for (Object element : toSave) {
+                writer.write(gson.toJson(element, type));
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            Log.e("GSONIOManager", "file write failed");
+            Log.e("GSONIOManager", e.getMessage());
+        } finally {
+            try {
+                if (writer != null) 
+                    writer.flush();
+                if (fos != null)
+                    fos.close();
+            } catch (IOException e) {
+                Log.e("GSONIOManager", "file write failed super hard");
+                Log.e("GSONIOManager", e.getMessage());
+            }
+        }
+    }
+    
     /*
      * Custom date gson adapter mix and matched from
      *     http://stackoverflow.com/questions/6873020/gson-date-format
@@ -0,0 +1,521 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable hash map that shares structure between versions (a hash array mapped trie).
+ *
+ * A change returns a new map, and copies only the trie nodes on the paths to the changed keys,
+ * so it costs time logarithmic in the size of the map rather than linear.  The nodes of a
+ * batch (plusAll(), minusAll()) are copied at most once each, however many of its keys they
+ * lead to.  Every version stays unchanged and safe to read from any thread once published.
+ *
+ * @author kdbanman
+ *
+ * @param <K> The key type.
+ * @param <V> The value type.
+ */
+public final class HashTrieMap<K, V> extends AbstractMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    /** Nodes are at most 7 deep, since 7 levels of 5 bits use up a 32 bit hash. */
+    private static final int MAX_DEPTH = 7;
+
+    private static final Object[] NO_SLOTS = new Object[0];
+
+    @SuppressWarnings("rawtypes")
+    private static final HashTrieMap EMPTY = new HashTrieMap(new Node(null, 0, NO_SLOTS), 0);
+
+    private final Node root;
+    private final int size;
+
+    private transient Set<Entry<K, V>> entries;
+
+    private HashTrieMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * @return The map without any keys.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> HashTrieMap<K, V> empty() {
+        return EMPTY;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public V get(Object key) {
+        Leaf<K, V> leaf = find(key);
+        return (leaf == null) ? null : leaf.value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != null;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        if (entries == null) {
+            entries = new AbstractSet<Entry<K, V>>() {
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+        return entries;
+    }
+
+    /**
+     * @return This map with the key mapped to the value, or this map if it already was.
+     */
+    public HashTrieMap<K, V> plus(K key, V value) {
+        int[] sizeChange = {0};
+        Node newRoot = put(root, new Object(), hash(key), key, value, 0, sizeChange);
+        return with(newRoot, sizeChange[0]);
+    }
+
+    /**
+     * @return This map with every mapping of values added or replaced.
+     */
+    public HashTrieMap<K, V> plusAll(Map<? extends K, ? extends V> values) {
+        // nodes created by this batch are changed in place, the rest are copied once
+        Object edit = new Object();
+        int[] sizeChange = {0};
+        Node newRoot = root;
+        for (Entry<? extends K, ? extends V> entry : values.entrySet()) {
+            K key = entry.getKey();
+            newRoot = put(newRoot, edit, hash(key), key, entry.getValue(), 0, sizeChange);
+        }
+        return with(newRoot, sizeChange[0]);
+    }
+
+    /**
+     * @return This map without the key, or this map if it did not have it.
+     */
+    public HashTrieMap<K, V> minus(Object key) {
+        int[] sizeChange = {0};
+        Node newRoot = remove(root, new Object(), hash(key), key, 0, sizeChange);
+        return with(newRoot, sizeChange[0]);
+    }
+
+    /**
+     * @return This map without any of the keys.
+     */
+    public HashTrieMap<K, V> minusAll(Collection<?> keys) {
+        Object edit = new Object();
+        int[] sizeChange = {0};
+        Node newRoot = root;
+        for (Object key : keys) {
+            newRoot = remove(newRoot, edit, hash(key), key, 0, sizeChange);
+        }
+        return with(newRoot, sizeChange[0]);
+    }
+
+    /*
+     * Unmodifiable, like the maps of Collections.unmodifiableMap().
+     */
+
+    @Override
+    public V put(K key, V value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public V remove(Object key) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    private HashTrieMap<K, V> with(Node newRoot, int sizeChange) {
+        if (newRoot == root)
+            return this;
+        return new HashTrieMap<K, V>(newRoot, size + sizeChange);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Leaf<K, V> find(Object key) {
+        int hash = hash(key);
+        Node node = root;
+        for (int shift = 0; ; shift += BITS) {
+            int bit = bit(hash, shift);
+            if ((node.bitmap & bit) == 0)
+                return null;
+            Object slot = node.slots[index(node.bitmap, bit)];
+            if (slot instanceof Node) {
+                node = (Node) slot;
+                continue;
+            }
+            for (Leaf<K, V> leaf = (Leaf<K, V>) slot; leaf != null; leaf = leaf.next) {
+                if (leaf.hash == hash && equal(leaf.key, key))
+                    return leaf;
+            }
+            return null;
+        }
+    }
+
+    private static int hash(Object key) {
+        int h = (key == null) ? 0 : key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static int index(int bitmap, int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return (a == null) ? b == null : a.equals(b);
+    }
+
+    /**
+     * @param edit The batch making the change.  Nodes it created are changed in place.
+     * @param sizeChange Incremented if the key was added.
+     * @return The node with the key mapped to the value, or the same node if it already was.
+     */
+    @SuppressWarnings("unchecked")
+    private static <K, V> Node put(Node node, Object edit, int hash, K key, V value, int shift, int[] sizeChange) {
+        int bit = bit(hash, shift);
+        int index = index(node.bitmap, bit);
+        if ((node.bitmap & bit) == 0) {
+            sizeChange[0]++;
+            return node.insert(edit, bit, index, new Leaf<K, V>(hash, key, value, null));
+        }
+
+        Object slot = node.slots[index];
+        Object replacement;
+        if (slot instanceof Node) {
+            replacement = put((Node) slot, edit, hash, key, value, shift + BITS, sizeChange);
+        } else {
+            Leaf<K, V> leaf = (Leaf<K, V>) slot;
+            if (leaf.hash == hash) {
+                replacement = leaf.put(key, value, sizeChange);
+            } else {
+                // hashes differ within 32 bits, so they split by the last level
+                sizeChange[0]++;
+                replacement = split(edit, leaf, new Leaf<K, V>(hash, key, value, null), shift + BITS);
+            }
+        }
+        if (replacement == slot)
+            return node;
+        return node.set(edit, index, replacement);
+    }
+
+    /**
+     * @return A node holding both leaves, whose hashes differ.
+     */
+    private static Node split(Object edit, Leaf<?, ?> a, Leaf<?, ?> b, int shift) {
+        int bitA = bit(a.hash, shift);
+        int bitB = bit(b.hash, shift);
+        if (bitA == bitB)
+            return new Node(edit, bitA, new Object[] {split(edit, a, b, shift + BITS)});
+        // compared by segment, since the bit of the last segment is negative
+        boolean aFirst = ((a.hash >>> shift) & MASK) < ((b.hash >>> shift) & MASK);
+        Object[] slots = aFirst ? new Object[] {a, b} : new Object[] {b, a};
+        return new Node(edit, bitA | bitB, slots);
+    }
+
+    /**
+     * @param sizeChange Decremented if the key was removed.
+     * @return The node without the key, or the same node if it did not have it.
+     */
+    @SuppressWarnings("unchecked")
+    private static Node remove(Node node, Object edit, int hash, Object key, int shift, int[] sizeChange) {
+        int bit = bit(hash, shift);
+        if ((node.bitmap & bit) == 0)
+            return node;
+        int index = index(node.bitmap, bit);
+
+        Object slot = node.slots[index];
+        Object replacement;
+        if (slot instanceof Node) {
+            Node child = remove((Node) slot, edit, hash, key, shift + BITS, sizeChange);
+            // a lone leaf moves up, so that the trie stays as shallow as the keys allow
+            if (child.slots.length == 1 && child.slots[0] instanceof Leaf)
+                replacement = child.slots[0];
+            else if (child.slots.length == 0)
+                replacement = null;
+            else
+                replacement = child;
+        } else {
+            replacement = ((Leaf<Object, Object>) slot).remove(hash, key, sizeChange);
+        }
+        if (replacement == slot)
+            return node;
+        if (replacement == null)
+            return node.delete(edit, bit, index);
+        return node.set(edit, index, replacement);
+    }
+
+    /**
+     * A trie node, with a slot per occupied 5 bit hash segment.  Only changed in place by the
+     * batch that created it, before the batch's map is published.
+     */
+    private static final class Node {
+
+        final Object edit;
+        int bitmap;
+
+        /** Leaves and child Nodes, in bit order. */
+        Object[] slots;
+
+        Node(Object edit, int bitmap, Object[] slots) {
+            this.edit = edit;
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        Node set(Object edit, int index, Object slot) {
+            if (this.edit == edit) {
+                slots[index] = slot;
+                return this;
+            }
+            Object[] newSlots = slots.clone();
+            newSlots[index] = slot;
+            return new Node(edit, bitmap, newSlots);
+        }
+
+        Node insert(Object edit, int bit, int index, Object slot) {
+            Object[] newSlots = new Object[slots.length + 1];
+            System.arraycopy(slots, 0, newSlots, 0, index);
+            newSlots[index] = slot;
+            System.arraycopy(slots, index, newSlots, index + 1, slots.length - index);
+            return with(edit, bitmap | bit, newSlots);
+        }
+
+        Node delete(Object edit, int bit, int index) {
+            Object[] newSlots = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, newSlots, 0, index);
+            System.arraycopy(slots, index + 1, newSlots, index, newSlots.length - index);
+            return with(edit, bitmap & ~bit, newSlots);
+        }
+
+        private Node with(Object edit, int newBitmap, Object[] newSlots) {
+            if (this.edit == edit) {
+                bitmap = newBitmap;
+                slots = newSlots;
+                return this;
+            }
+            return new Node(edit, newBitmap, newSlots);
+        }
+    }
+
+    /**
+     * An immutable mapping.  Keys whose whole hashes collide are chained.
+     */
+    private static final class Leaf<K, V> implements Entry<K, V> {
+
+        final int hash;
+        final K key;
+        final V value;
+        final Leaf<K, V> next;
+
+        Leaf(int hash, K key, V value, Leaf<K, V> next) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+
+        /**
+         * @return The chain with the key mapped to the value, or this chain if it already was.
+         */
+        Leaf<K, V> put(K key, V value, int[] sizeChange) {
+            ArrayList<Leaf<K, V>> chain = new ArrayList<Leaf<K, V>>();
+            boolean found = false;
+            for (Leaf<K, V> leaf = this; leaf != null; leaf = leaf.next) {
+                if (equal(leaf.key, key)) {
+                    if (leaf.value == value)
+                        return this;
+                    found = true;
+                    chain.add(new Leaf<K, V>(hash, key, value, null));
+                } else {
+                    chain.add(leaf);
+                }
+            }
+            if (!found) {
+                sizeChange[0]++;
+                chain.add(new Leaf<K, V>(hash, key, value, null));
+            }
+            return chain(chain);
+        }
+
+        /**
+         * @return The chain without the key, this chain if it did not have it, or null if empty.
+         */
+        Leaf<K, V> remove(int hash, Object key, int[] sizeChange) {
+            if (hash != this.hash)
+                return this;
+            ArrayList<Leaf<K, V>> chain = new ArrayList<Leaf<K, V>>();
+            for (Leaf<K, V> leaf = this; leaf != null; leaf = leaf.next) {
+                if (!equal(leaf.key, key))
+                    chain.add(leaf);
+            }
+            if (chain.size() == length())
+                return this;
+            sizeChange[0]--;
+            return chain(chain);
+        }
+
+        private int length() {
+            int length = 0;
+            for (Leaf<K, V> leaf = this; leaf != null; leaf = leaf.next) length++;
+            return length;
+        }
+
+        private static <K, V> Leaf<K, V> chain(ArrayList<Leaf<K, V>> leaves) {
+            Leaf<K, V> head = null;
+            for (int i = leaves.size() - 1; i >= 0; i--) {
+                Leaf<K, V> leaf = leaves.get(i);
+                head = new Leaf<K, V>(leaf.hash, leaf.key, leaf.value, head);
+            }
+            return head;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int hashCode() {
+            return (key == null ? 0 : key.hashCode()) ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Entry))
+                return false;
+            Entry<?, ?> other = (Entry<?, ?>) obj;
+            return equal(key, other.getKey()) && equal(value, other.getValue());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    /**
+     * Walks the trie depth first, following collision chains.
+     */
+    private class EntryIterator implements Iterator<Entry<K, V>> {
+
+        private final Object[][] stack = new Object[MAX_DEPTH][];
+        private final int[] positions = new int[MAX_DEPTH];
+        private int depth = 0;
+        private Leaf<K, V> next;
+
+        EntryIterator() {
+            stack[0] = root.slots;
+            advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            if (next != null && next.next != null) {
+                next = next.next;
+                return;
+            }
+            next = null;
+            while (depth >= 0) {
+                if (positions[depth] == stack[depth].length) {
+                    depth--;
+                    continue;
+                }
+                Object slot = stack[depth][positions[depth]++];
+                if (slot instanceof Node) {
+                    depth++;
+                    stack[depth] = ((Node) slot).slots;
+                    positions[depth] = 0;
+                } else {
+                    next = (Leaf<K, V>) slot;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (next == null)
+                throw new NoSuchElementException();
+            Leaf<K, V> current = next;
+            advance();
+            return current;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
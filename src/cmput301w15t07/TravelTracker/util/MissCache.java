@@ -0,0 +1,101 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Bounded set of recently missed Document UUIDs, so that repeated lookups of a Document the
+ * server does not have fail fast instead of asking the server again.
+ * 
+ * Misses expire after a time to live, in case the Document is created elsewhere.  When full,
+ * the oldest miss is dropped.  Times are passed in, from any monotonic clock.
+ * 
+ * @author kdbanman
+ *
+ */
+public class MissCache {
+    
+    private final int capacity;
+    private final long ttl;
+    
+    /** Miss times by UUID, oldest first. */
+    private final LinkedHashMap<UUID, Long> misses;
+    
+    /**
+     * @param capacity The maximum number of misses remembered.
+     * @param ttl How long a miss is remembered, in milliseconds.
+     */
+    public MissCache(int capacity, long ttl) {
+        this.capacity = capacity;
+        this.ttl = ttl;
+        this.misses = new LinkedHashMap<UUID, Long>() {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Long> eldest) {
+                return size() > MissCache.this.capacity;
+            }
+        };
+    }
+    
+    /**
+     * Remember a miss.  Replaces any older miss of the same UUID.
+     * @param id The UUID missed.
+     * @param now The current time.
+     */
+    public synchronized void add(UUID id, long now) {
+        // re-inserted so that it counts as newest
+        misses.remove(id);
+        misses.put(id, now);
+    }
+    
+    /**
+     * @param id The UUID to look up.
+     * @param now The current time.
+     * @return Whether the UUID was missed within the time to live.
+     */
+    public synchronized boolean contains(UUID id, long now) {
+        Long missed = misses.get(id);
+        if (missed == null)
+            return false;
+        if (now - missed > ttl) {
+            misses.remove(id);
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Forget a miss, ex. because the Document has since been found.
+     * @param id The UUID.
+     */
+    public synchronized void remove(UUID id) {
+        misses.remove(id);
+    }
+    
+    public synchronized int size() {
+        return misses.size();
+    }
+}
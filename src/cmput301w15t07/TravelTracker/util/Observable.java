@@ -47,6 +47,24 @@ public abstract class Observable <E> {
         observers.remove(obs);
     }
 
+    /**
+     * @return Whether anything is currently observing.
+     */
+    public boolean hasObservers() {
+        return !observers.isEmpty();
+    }
+
+    /**
+     * @return A shallow copy, observed by nothing.
+     */
+    @Override
+    protected Object clone() throws CloneNotSupportedException {
+        @SuppressWarnings("unchecked")
+        Observable<E> copy = (Observable<E>) super.clone();
+        copy.observers = new ArrayList<Observer<E>>();
+        return copy;
+    }
+
     public void updateObservers(E self) {
         for (Observer<E> obs : observers) {
             obs.update(self);
@@ -0,0 +1,117 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.UUID;
+
+/**
+ * Secondary index from a parent Document's UUID to the UUIDs of its children
+ * (e.g. User -> Claims, Claim -> Items).
+ * 
+ * Each child is indexed under at most one parent, so re-putting a child whose
+ * parent has changed moves it to the new parent's bucket.
+ * 
+ * Safe to use from several threads; every operation holds the index lock only briefly.
+ * 
+ * @author kdbanman
+ *
+ */
+public class ParentIndex {
+    
+    private HashMap<UUID, HashSet<UUID>> childrenByParent;
+    private HashMap<UUID, UUID> parentByChild;
+    
+    public ParentIndex() {
+        childrenByParent = new HashMap<UUID, HashSet<UUID>>();
+        parentByChild = new HashMap<UUID, UUID>();
+    }
+    
+    /**
+     * Index a child under a parent, moving it if it was indexed under another parent.
+     * @param child The child's UUID.
+     * @param parent The parent's UUID.  May be null, in which case the child is unindexed.
+     */
+    public synchronized void put(UUID child, UUID parent) {
+        UUID oldParent = parentByChild.get(child);
+        if (oldParent != null && oldParent.equals(parent))
+            return;
+        
+        remove(child);
+        if (parent == null)
+            return;
+        
+        HashSet<UUID> children = childrenByParent.get(parent);
+        if (children == null) {
+            children = new HashSet<UUID>();
+            childrenByParent.put(parent, children);
+        }
+        children.add(child);
+        parentByChild.put(child, parent);
+    }
+    
+    /**
+     * Remove a child from the index.
+     * @param child The child's UUID.
+     */
+    public synchronized void remove(UUID child) {
+        UUID parent = parentByChild.remove(child);
+        if (parent == null)
+            return;
+        
+        HashSet<UUID> children = childrenByParent.get(parent);
+        if (children != null) {
+            children.remove(child);
+            if (children.isEmpty()) childrenByParent.remove(parent);
+        }
+    }
+    
+    /**
+     * @param parent The parent's UUID.
+     * @return A copy of the UUIDs indexed under the parent.  Safe to iterate while modifying the index.
+     */
+    public synchronized Collection<UUID> getChildren(UUID parent) {
+        HashSet<UUID> children = childrenByParent.get(parent);
+        if (children == null)
+            return new ArrayList<UUID>();
+        return new ArrayList<UUID>(children);
+    }
+    
+    /**
+     * @param child The child's UUID.
+     * @return The parent the child is indexed under, or null if it is not indexed.
+     */
+    public synchronized UUID getParent(UUID child) {
+        return parentByChild.get(child);
+    }
+    
+    /**
+     * Empty the index.
+     */
+    public synchronized void clear() {
+        childrenByParent.clear();
+        parentByChild.clear();
+    }
+}
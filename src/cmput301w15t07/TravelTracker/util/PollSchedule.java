@@ -0,0 +1,103 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.util;
+
+import java.util.Random;
+
+/**
+ * Decides how long to wait between server polls.  Polls come quickly while documents are
+ * changing, and back off exponentially while the server is unreachable or has nothing new.
+ * 
+ * @author kdbanman
+ *
+ */
+public class PollSchedule {
+    
+    /** Fraction of the interval by which each delay may randomly vary. */
+    public static final double JITTER = 0.25;
+    
+    private long basePeriod;
+    private long minPeriod;
+    private long maxPeriod;
+    private long interval;
+    
+    private Random random;
+    
+    /**
+     * @param basePeriod The interval to start at, and the least to back off from after a failure.
+     * @param minPeriod The interval used while documents are actively changing.
+     * @param maxPeriod The longest interval to back off to.
+     * @param random The source of jitter.
+     */
+    public PollSchedule(long basePeriod, long minPeriod, long maxPeriod, Random random) {
+        if (minPeriod <= 0 || minPeriod > basePeriod || basePeriod > maxPeriod)
+            throw new IllegalArgumentException("Poll periods must satisfy 0 < min <= base <= max");
+        
+        this.basePeriod = basePeriod;
+        this.minPeriod = minPeriod;
+        this.maxPeriod = maxPeriod;
+        this.interval = basePeriod;
+        this.random = random;
+    }
+    
+    /**
+     * Documents were changed locally, so poll soon.
+     */
+    public synchronized void localChange() {
+        interval = minPeriod;
+    }
+    
+    /**
+     * A sync reached the server.
+     * @param changesMade Whether anything was pulled or pushed.
+     */
+    public synchronized void syncSucceeded(boolean changesMade) {
+        if (changesMade) {
+            interval = minPeriod;
+        } else {
+            interval = Math.min(interval * 2, maxPeriod);
+        }
+    }
+    
+    /**
+     * A sync could not reach the server.
+     */
+    public synchronized void syncFailed() {
+        interval = Math.min(Math.max(interval, basePeriod) * 2, maxPeriod);
+    }
+    
+    /**
+     * @return The current interval between polls, before jitter.
+     */
+    public synchronized long getInterval() {
+        return interval;
+    }
+    
+    /**
+     * @return The delay until the next poll: the current interval, randomly varied by up to JITTER
+     * so that clients that failed together do not retry together.
+     */
+    public synchronized long nextDelay() {
+        double factor = 1.0 + JITTER * (2.0 * random.nextDouble() - 1.0);
+        return Math.max(minPeriod, (long) (interval * factor));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.util;
+
+import java.util.Random;
+
+/**
+ * Decides whether and when a failed server request is retried.  Delays grow exponentially
+ * with each attempt, and the retries of one sync cycle share a budget, so that a failing
+ * server costs a bounded number of requests per cycle.
+ * 
+ * @author kdbanman
+ *
+ */
+public class RetryPolicy {
+    
+    /** Fraction of each delay that may randomly be taken off it. */
+    public static final double JITTER = 0.5;
+    
+    private int maxRetries;
+    private long baseDelay;
+    private long maxDelay;
+    private int budget;
+    private int remaining;
+    
+    private Random random;
+    
+    /**
+     * @param maxRetries The most times one request is retried.
+     * @param baseDelay The delay before the first retry.
+     * @param maxDelay The longest delay before any retry.
+     * @param budget The most retries of all requests in one cycle.
+     * @param random The source of jitter.
+     */
+    public RetryPolicy(int maxRetries, long baseDelay, long maxDelay, int budget, Random random) {
+        if (maxRetries < 0 || budget < 0)
+            throw new IllegalArgumentException("Retry counts must not be negative");
+        if (baseDelay <= 0 || baseDelay > maxDelay)
+            throw new IllegalArgumentException("Retry delays must satisfy 0 < base <= max");
+        
+        this.maxRetries = maxRetries;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.budget = budget;
+        this.remaining = budget;
+        this.random = random;
+    }
+    
+    /**
+     * A new sync cycle is starting, so refill the retry budget.
+     */
+    public synchronized void newCycle() {
+        remaining = budget;
+    }
+    
+    /**
+     * Decide whether to retry a failed request, taking the retry from the budget if so.
+     * @param attempt The number of the attempt that failed, from 0.
+     * @return Whether the request should be retried.
+     */
+    public synchronized boolean tryRetry(int attempt) {
+        if (attempt >= maxRetries || remaining <= 0)
+            return false;
+        remaining--;
+        return true;
+    }
+    
+    /**
+     * @return The retries left in this cycle.
+     */
+    public synchronized int getRemainingBudget() {
+        return remaining;
+    }
+    
+    /**
+     * @param attempt The number of the attempt that failed, from 0.
+     * @return The delay before retrying: baseDelay doubled for each earlier attempt, up to
+     * maxDelay, less a random fraction of up to JITTER so that clients that failed together do
+     * not retry together.
+     */
+    public synchronized long getDelay(int attempt) {
+        long delay = maxDelay;
+        if (attempt < 62 && baseDelay <= (maxDelay >> attempt))
+            delay = baseDelay << attempt;
+        return (long) (delay * (1.0 - JITTER * random.nextDouble()));
+    }
+}
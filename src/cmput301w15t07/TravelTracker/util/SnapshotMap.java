@@ -0,0 +1,147 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.util;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Map from UUID to document whose collection reads are immutable snapshots.
+ * 
+ * Each version is an immutable HashTrieMap published through a volatile field, so readers
+ * never block or copy anything, and the collections handed out stay consistent and safe to
+ * iterate while writers continue.  Writers serialize among themselves, and build the next
+ * version from the current one by copying only the paths to the keys they change, so a
+ * single put costs time logarithmic in the size of the map.
+ * 
+ * Bulk changes (e.g. merging a sync) should still go through putAll() or removeAll(), so that
+ * they count as one version, and copy each path once.
+ * 
+ * @author kdbanman
+ *
+ * @param <V> The document type stored.
+ */
+public class SnapshotMap<V> {
+    
+    private volatile HashTrieMap<UUID, V> current;
+    private volatile long version;
+    
+    public SnapshotMap() {
+        current = HashTrieMap.empty();
+        version = 0;
+    }
+    
+    /**
+     * @return The current version.  Unmodifiable, and never changed after publication.
+     */
+    public Map<UUID, V> snapshot() {
+        return current;
+    }
+    
+    /**
+     * @return The number of versions published so far.
+     */
+    public long getVersion() {
+        return version;
+    }
+    
+    public V get(UUID id) {
+        return current.get(id);
+    }
+    
+    public boolean containsKey(UUID id) {
+        return current.containsKey(id);
+    }
+    
+    public boolean containsValue(V value) {
+        return current.containsValue(value);
+    }
+    
+    public int size() {
+        return current.size();
+    }
+    
+    /**
+     * @return The values of the current version.  Unmodifiable, and unaffected by later writes.
+     */
+    public Collection<V> values() {
+        return current.values();
+    }
+    
+    /**
+     * @return The keys of the current version.  Unmodifiable, and unaffected by later writes.
+     */
+    public Set<UUID> keySet() {
+        return current.keySet();
+    }
+    
+    /**
+     * Publish a version with the value added or replaced.
+     * @return The value previously stored under the id, or null.
+     */
+    public synchronized V put(UUID id, V value) {
+        V previous = current.get(id);
+        publish(current.plus(id, value));
+        return previous;
+    }
+    
+    /**
+     * Publish a version with all passed values added or replaced.
+     * @param values The values to store, by id.
+     */
+    public synchronized void putAll(Map<UUID, ? extends V> values) {
+        if (values.isEmpty())
+            return;
+        
+        publish(current.plusAll(values));
+    }
+    
+    /**
+     * Publish a version without the id.  Nothing is published if it was not stored.
+     * @return The value that was stored under the id, or null.
+     */
+    public synchronized V remove(UUID id) {
+        V previous = current.get(id);
+        if (previous != null)
+            publish(current.minus(id));
+        return previous;
+    }
+    
+    /**
+     * Publish a version without any of the ids.
+     * @return The number of values removed.
+     */
+    public synchronized int removeAll(Collection<UUID> ids) {
+        HashTrieMap<UUID, V> next = current.minusAll(ids);
+        int removed = current.size() - next.size();
+        if (removed > 0)
+            publish(next);
+        return removed;
+    }
+    
+    private void publish(HashTrieMap<UUID, V> next) {
+        current = next;
+        version++;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.util;
+
+import java.util.Date;
+import java.util.UUID;
+
+import cmput301w15t07.TravelTracker.model.Document;
+import cmput301w15t07.TravelTracker.serverinterface.Constants.Type;
+
+/**
+ * Compact record of a locally deleted Document: just enough to delete it remotely and to
+ * keep stale remote copies from being merged back in.
+ * 
+ * @author kdbanman
+ *
+ */
+public class Tombstone {
+    
+    private UUID docID;
+    private Type type;
+    private Date deleted;
+    private Date confirmed;
+    
+    /**
+     * @param docID The UUID of the deleted Document.
+     * @param type The type of the deleted Document.
+     * @param deleted When the Document was deleted.
+     */
+    public Tombstone(UUID docID, Type type, Date deleted) {
+        this.docID = docID;
+        this.type = type;
+        this.deleted = deleted;
+        this.confirmed = null;
+    }
+    
+    /**
+     * Tombstone for a Document deleted now.
+     */
+    public Tombstone(Document deleted) {
+        this(deleted.getUUID(), deleted.getType(), new Date());
+    }
+    
+    /**
+     * Private no-args constructor for GSON.
+     */
+    @SuppressWarnings("unused")
+    private Tombstone() {
+    }
+    
+    public UUID getUUID() {
+        return docID;
+    }
+    
+    public Type getType() {
+        return type;
+    }
+    
+    /**
+     * @return When the Document was deleted locally.
+     */
+    public Date getDate() {
+        return deleted;
+    }
+    
+    /**
+     * @return When the server confirmed the deletion, or null if it has not yet.
+     */
+    public Date getConfirmed() {
+        return confirmed;
+    }
+    
+    /**
+     * @return Whether the server has confirmed the deletion.
+     */
+    public boolean isConfirmed() {
+        return confirmed != null;
+    }
+    
+    /**
+     * @return A copy of this tombstone, confirmed at the passed time.
+     */
+    public Tombstone confirmedAt(Date when) {
+        Tombstone copy = new Tombstone(docID, type, deleted);
+        copy.confirmed = when;
+        return copy;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((docID == null) ? 0 : docID.hashCode());
+        result = prime * result + ((type == null) ? 0 : type.hashCode());
+        result = prime * result + ((deleted == null) ? 0 : deleted.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (!(obj instanceof Tombstone))
+            return false;
+        Tombstone other = (Tombstone) obj;
+        if (docID == null) {
+            if (other.docID != null)
+                return false;
+        } else if (!docID.equals(other.docID))
+            return false;
+        if (type != other.type)
+            return false;
+        if (deleted == null) {
+            if (other.deleted != null)
+                return false;
+        } else if (!deleted.equals(other.deleted))
+            return false;
+        return true;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.util;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+
+import android.content.Context;
+import android.util.Log;
+import cmput301w15t07.TravelTracker.serverinterface.Constants.Type;
+
+/**
+ * Persistent set of Tombstones, at most one per Document.
+ * 
+ * The file is an append-only log of tombstone records, where the last record for a UUID wins, so
+ * queuing or confirming a deletion only appends a line.  The log is compacted when tombstones
+ * are dropped, or when it has grown well past the number of live tombstones.
+ * 
+ * Confirmed tombstones are kept for a horizon after confirmation, so that stale copies the server
+ * still returns are not merged back in, and then dropped by collectGarbage().
+ * 
+ * @author kdbanman
+ *
+ */
+public class TombstoneStore {
+    
+    /** Stale records tolerated in the log beyond twice the live count before compacting. */
+    private static final int COMPACT_SLACK = 64;
+    
+    private String filename;
+    private Context ctx;
+    private long horizon;
+    
+    private LinkedHashMap<UUID, Tombstone> live;
+    private int records;
+    private boolean compactionNeeded = false;
+    
+    /**
+     * Creates a store using the supplied filename and application context.
+     * If the file exists, the store is populated by replaying it.
+     * @param filename
+     * @param ctx
+     * @param horizon How long to keep a tombstone after its deletion is confirmed, in milliseconds.
+     */
+    public TombstoneStore(String filename, Context ctx, long horizon) {
+        this.filename = filename;
+        this.ctx = ctx;
+        this.horizon = horizon;
+        
+        loadLog();
+    }
+    
+    /**
+     * @param horizon How long to keep a tombstone after its deletion is confirmed, in milliseconds.
+     */
+    public synchronized void setHorizon(long horizon) {
+        this.horizon = horizon;
+    }
+    
+    public synchronized long getHorizon() {
+        return horizon;
+    }
+    
+    /**
+     * Queue a deletion.  Replaces any older tombstone for the same Document.
+     */
+    public synchronized void add(Tombstone tombstone) {
+        ArrayList<Tombstone> added = new ArrayList<Tombstone>();
+        added.add(tombstone);
+        addAll(added);
+    }
+    
+    /**
+     * Queue several deletions with a single append.
+     */
+    public synchronized void addAll(Collection<Tombstone> tombstones) {
+        ArrayList<Tombstone> appended = new ArrayList<Tombstone>();
+        for (Tombstone tombstone : tombstones) {
+            Tombstone existing = live.get(tombstone.getUUID());
+            if (existing == null || tombstone.getDate().after(existing.getDate())) {
+                live.put(tombstone.getUUID(), tombstone);
+                appended.add(tombstone);
+            }
+        }
+        append(appended);
+    }
+    
+    /**
+     * Record that the server has deleted the passed Documents.
+     * @param ids The UUIDs of the deleted Documents.  UUIDs without tombstones are ignored.
+     * @param when The time of confirmation, from which the horizon is measured.
+     */
+    public synchronized void confirm(Collection<UUID> ids, Date when) {
+        ArrayList<Tombstone> appended = new ArrayList<Tombstone>();
+        for (UUID id : ids) {
+            Tombstone existing = live.get(id);
+            if (existing != null) {
+                Tombstone confirmed = existing.confirmedAt(when);
+                live.put(id, confirmed);
+                appended.add(confirmed);
+            }
+        }
+        append(appended);
+    }
+    
+    /**
+     * Drop tombstones, ex. because a newer remote change overrode them.  Tombstones that have since
+     * been replaced by a newer deletion are kept.  The log is compacted on the next collectGarbage().
+     */
+    public synchronized void discard(Collection<Tombstone> tombstones) {
+        for (Tombstone tombstone : tombstones) {
+            if (tombstone.equals(live.get(tombstone.getUUID()))) {
+                live.remove(tombstone.getUUID());
+                compactionNeeded = true;
+            }
+        }
+    }
+    
+    /**
+     * Drop tombstones confirmed longer than the horizon ago, and compact the log if worthwhile.
+     * @param now The current time.
+     * @return The number of tombstones dropped.
+     */
+    public synchronized int collectGarbage(Date now) {
+        ArrayList<UUID> expired = new ArrayList<UUID>();
+        for (Tombstone tombstone : live.values()) {
+            if (tombstone.isConfirmed() && now.getTime() - tombstone.getConfirmed().getTime() > horizon)
+                expired.add(tombstone.getUUID());
+        }
+        for (UUID id : expired) {
+            live.remove(id);
+        }
+        
+        if (compactionNeeded || !expired.isEmpty() || records > 2 * live.size() + COMPACT_SLACK)
+            compact();
+        return expired.size();
+    }
+    
+    /**
+     * @return The tombstones for Documents of the passed type.
+     */
+    public synchronized ArrayList<Tombstone> get(Type type) {
+        ArrayList<Tombstone> ofType = new ArrayList<Tombstone>();
+        for (Tombstone tombstone : live.values()) {
+            if (tombstone.getType() == type) ofType.add(tombstone);
+        }
+        return ofType;
+    }
+    
+    /**
+     * @return The UUIDs of every Document with a tombstone, confirmed or not.
+     */
+    public synchronized HashSet<UUID> getIDs() {
+        return new HashSet<UUID>(live.keySet());
+    }
+    
+    /**
+     * @return Whether the passed Document UUID has a tombstone.
+     */
+    public synchronized boolean contains(UUID id) {
+        return live.containsKey(id);
+    }
+    
+    /**
+     * @return The number of deletions not yet confirmed by the server.
+     */
+    public synchronized int pendingCount() {
+        int pending = 0;
+        for (Tombstone tombstone : live.values()) {
+            if (!tombstone.isConfirmed()) pending++;
+        }
+        return pending;
+    }
+    
+    public synchronized int size() {
+        return live.size();
+    }
+    
+    /**
+     * @return The number of records in the log, live or stale.
+     */
+    public synchronized int logSize() {
+        return records;
+    }
+    
+    private void append(Collection<Tombstone> appended) {
+        if (appended.isEmpty())
+            return;
+        new GsonIOManager(ctx).appendLines(appended, filename, Tombstone.class);
+        records += appended.size();
+    }
+    
+    private void compact() {
+        new GsonIOManager(ctx).saveLines(live.values(), filename, Tombstone.class);
+        records = live.size();
+        compactionNeeded = false;
+        Log.i("TombstoneStore", "Compacted to " + Integer.toString(records) + " tombstones.");
+    }
+    
+    private void loadLog() {
+        live = new LinkedHashMap<UUID, Tombstone>();
+        ArrayList<Tombstone> log;
+        try {
+            log = new GsonIOManager(ctx).<Tombstone>loadLines(filename, Tombstone.class);
+        } catch (FileNotFoundException e) {
+            Log.i("TombstoneStore", "file not found - creating empty tombstone store");
+            log = new ArrayList<Tombstone>();
+        }
+        for (Tombstone tombstone : log) {
+            live.put(tombstone.getUUID(), tombstone);
+        }
+        records = log.size();
+    }
+}
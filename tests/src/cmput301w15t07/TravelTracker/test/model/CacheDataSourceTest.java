@@ -0,0 +1,200 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.test.model;
+
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+import cmput301w15t07.TravelTracker.model.CacheDataSource;
+import cmput301w15t07.TravelTracker.model.Claim;
+import cmput301w15t07.TravelTracker.model.User;
+import cmput301w15t07.TravelTracker.serverinterface.ResultFuture;
+import cmput301w15t07.TravelTracker.testutils.DataSourceUtils;
+import cmput301w15t07.TravelTracker.testutils.StubServerHelper;
+import cmput301w15t07.TravelTracker.testutils.SynchronizedResultCallback;
+import android.os.AsyncTask;
+import android.test.InstrumentationTestCase;
+
+public class CacheDataSourceTest extends InstrumentationTestCase {
+
+    StubServerHelper main;
+    StubServerHelper backup;
+    CacheDataSource source;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        main = new StubServerHelper();
+        backup = new StubServerHelper();
+        source = new CacheDataSource(getInstrumentation().getTargetContext().getApplicationContext(), 60000, main, backup);
+        // let the initial sync finish, so that later syncs start right away
+        awaitQueuedTasks();
+    }
+
+    public void testRejectedDocumentsStayDirty() throws InterruptedException {
+        // adding documents requests syncs, which must not push them before the rejection is set
+        CountDownLatch held = holdQueue();
+        User accepted = DataSourceUtils.addUser("accepted", source);
+        User rejected = DataSourceUtils.addUser("rejected", source);
+        main.reject(rejected.getUUID());
+        held.countDown();
+
+        sync();
+
+        assertTrue(main.isStored(accepted.getUUID()));
+        assertFalse("Accepted documents should be clean", accepted.isDirty());
+        assertFalse(main.isStored(rejected.getUUID()));
+        assertTrue("Rejected documents should stay dirty", rejected.isDirty());
+    }
+
+    public void testEditedDuringPushStaysDirty() throws InterruptedException {
+        CountDownLatch held = holdQueue();
+        final User user = DataSourceUtils.addUser("before", source);
+        main.setBeforeSave(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // lastChanged has millisecond precision
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                user.setUserName("during");
+            }
+        });
+        held.countDown();
+
+        sync();
+
+        assertTrue(main.isStored(user.getUUID()));
+        assertTrue("Edits made during a push should stay dirty", user.isDirty());
+    }
+
+    public void testReadRefreshesAfterCachedResult() throws InterruptedException {
+        User user = DataSourceUtils.addUser("claimant", source);
+        int reads = main.getClaimReadCount();
+        
+        ResultFuture<Collection<Claim>> read = new ResultFuture<Collection<Claim>>();
+        source.getClaimsForUser(user.getUUID(), read);
+        awaitQueuedTasks();
+        
+        assertTrue("Cached claims should settle the read", read.isDone());
+        assertEquals("The claims should be refreshed from the server", reads + 1, main.getClaimReadCount());
+    }
+    
+    public void testReadCancelledAfterCachedResultSkipsRefresh() throws InterruptedException {
+        User user = DataSourceUtils.addUser("claimant", source);
+        int reads = main.getClaimReadCount();
+        
+        // keep the refresh queued until the read is cancelled
+        CountDownLatch held = holdQueue();
+        ResultFuture<Collection<Claim>> read = new ResultFuture<Collection<Claim>>();
+        source.getClaimsForUser(user.getUUID(), read);
+        assertTrue("Cached claims should settle the read", read.isDone());
+        assertFalse("A settled read cannot be cancelled", read.cancel());
+        // as when the activity showing it is destroyed
+        read.getToken().cancel();
+        held.countDown();
+        awaitQueuedTasks();
+        
+        assertEquals("A cancelled read should not go to the server", reads, main.getClaimReadCount());
+    }
+
+    public void testSyncMergesIntoCopy() throws InterruptedException {
+        User user = DataSourceUtils.addUser("local", source);
+        sync();
+        assertTrue(main.isStored(user.getUUID()));
+        
+        // lastChanged has millisecond precision
+        Thread.sleep(5);
+        ((User) main.getStored(user.getUUID())).setUserName("remote");
+        sync();
+        
+        User merged = getUser(user.getUUID());
+        assertNotSame("Merges should replace the stored document", user, merged);
+        assertEquals("remote", merged.getUserName());
+        assertEquals("Documents should not change under their views", "local", user.getUserName());
+        
+        // a view still showing the replaced document edits it
+        Thread.sleep(5);
+        user.setUserName("edited");
+        assertSame("The edited document should be stored again", user, getUser(user.getUUID()));
+        assertEquals("edited", user.getUserName());
+        assertTrue(user.isDirty());
+        
+        sync();
+        assertEquals("edited", ((User) main.getStored(user.getUUID())).getUserName());
+    }
+
+    /**
+     * @return The stored user, as cached before any refresh.
+     */
+    private User getUser(UUID id) throws InterruptedException {
+        SynchronizedResultCallback<User> fetched = new SynchronizedResultCallback<User>();
+        source.getUser(id, fetched);
+        fetched.waitForResult();
+        assertTrue("User should be stored", fetched.getHasResult());
+        return fetched.getResult();
+    }
+
+    /**
+     * Run a sync cycle, and wait until it has pushed.
+     */
+    private void sync() throws InterruptedException {
+        source.getAllUsers(new SynchronizedResultCallback<Collection<User>>());
+        // a sync requested while another runs is only queued once that one finishes
+        awaitQueuedTasks();
+        awaitQueuedTasks();
+    }
+    
+    /**
+     * Keep queued tasks from running until the returned latch is counted down.
+     */
+    private CountDownLatch holdQueue() {
+        final CountDownLatch held = new CountDownLatch(1);
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    held.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        return held;
+    }
+
+    /**
+     * Syncs and fetches share one serial executor, so a fetch queued after a sync
+     * completes after it.
+     */
+    private void awaitQueuedTasks() throws InterruptedException {
+        SynchronizedResultCallback<User> fetched = new SynchronizedResultCallback<User>();
+        source.getUser(UUID.randomUUID(), fetched);
+        fetched.waitForResult();
+        // the user is missing, so the fetch ends in an error
+        assertTrue("Queued fetch should complete", fetched.getHasResult() || fetched.getError() != null);
+    }
+}
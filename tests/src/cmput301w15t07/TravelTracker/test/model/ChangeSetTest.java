@@ -0,0 +1,134 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.test.model;
+
+import cmput301w15t07.TravelTracker.model.ChangeSet;
+import cmput301w15t07.TravelTracker.model.Claim;
+import cmput301w15t07.TravelTracker.model.InMemoryDataSource;
+import cmput301w15t07.TravelTracker.model.User;
+import cmput301w15t07.TravelTracker.serverinterface.Constants.Type;
+import cmput301w15t07.TravelTracker.testutils.SynchronizedResultCallback;
+import junit.framework.TestCase;
+
+public class ChangeSetTest extends TestCase {
+    
+    ChangeSet changes;
+    User user;
+    Claim claim;
+    
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        // documents can only be created through a data source
+        InMemoryDataSource source = new InMemoryDataSource();
+        SynchronizedResultCallback<User> userCallback = new SynchronizedResultCallback<User>();
+        source.addUser(userCallback);
+        userCallback.waitForResult();
+        user = userCallback.getResult();
+        
+        SynchronizedResultCallback<Claim> claimCallback = new SynchronizedResultCallback<Claim>();
+        source.addClaim(user, claimCallback);
+        claimCallback.waitForResult();
+        claim = claimCallback.getResult();
+        
+        changes = new ChangeSet();
+    }
+    
+    public void testEmpty() {
+        assertTrue(changes.isEmpty());
+        assertEquals(0, changes.size());
+        assertFalse(changes.affects(Type.CLAIM));
+        assertFalse(changes.affects(claim.getUUID()));
+        assertTrue(changes.getAdded(Type.CLAIM).isEmpty());
+    }
+    
+    public void testRecordsByType() {
+        changes.recordAdded(claim);
+        changes.recordUpdated(user);
+        
+        assertTrue(changes.getAdded(Type.CLAIM).contains(claim.getUUID()));
+        assertTrue(changes.getUpdated(Type.USER).contains(user.getUUID()));
+        assertTrue(changes.affects(Type.CLAIM));
+        assertTrue(changes.affects(user.getUUID()));
+        assertFalse(changes.affects(Type.ITEM));
+        assertEquals(2, changes.size());
+    }
+    
+    public void testAddedThenUpdatedStaysAdded() {
+        changes.recordAdded(claim);
+        changes.recordUpdated(claim);
+        changes.recordUpdated(claim);
+        
+        assertEquals(1, changes.size());
+        assertTrue(changes.getAdded(Type.CLAIM).contains(claim.getUUID()));
+        assertTrue(changes.getUpdated(Type.CLAIM).isEmpty());
+    }
+    
+    public void testAddedThenDeletedVanishes() {
+        changes.recordAdded(claim);
+        changes.recordDeleted(claim);
+        
+        assertTrue(changes.isEmpty());
+        assertFalse(changes.affects(Type.CLAIM));
+    }
+    
+    public void testUpdatedThenDeletedIsDeleted() {
+        changes.recordUpdated(claim);
+        changes.recordDeleted(claim);
+        
+        assertEquals(1, changes.size());
+        assertTrue(changes.getDeleted(Type.CLAIM).contains(claim.getUUID()));
+        assertTrue(changes.getUpdated(Type.CLAIM).isEmpty());
+    }
+    
+    public void testDeletedThenAddedIsUpdated() {
+        changes.recordDeleted(claim);
+        changes.recordAdded(claim);
+        
+        assertEquals(1, changes.size());
+        assertTrue(changes.getUpdated(Type.CLAIM).contains(claim.getUUID()));
+    }
+    
+    public void testAddAllCoalesces() {
+        changes.recordAdded(claim);
+        changes.recordUpdated(user);
+        
+        ChangeSet later = new ChangeSet();
+        later.recordDeleted(claim);
+        later.recordUpdated(user);
+        
+        changes.addAll(later);
+        assertEquals(1, changes.size());
+        assertFalse(changes.affects(claim.getUUID()));
+        assertTrue(changes.getUpdated(Type.USER).contains(user.getUUID()));
+    }
+    
+    public void testViewsAreUnmodifiable() {
+        changes.recordAdded(claim);
+        try {
+            changes.getAdded(Type.CLAIM).clear();
+            fail("ChangeSet views should be unmodifiable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+}
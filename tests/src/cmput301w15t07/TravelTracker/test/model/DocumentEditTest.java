@@ -0,0 +1,130 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.test.model;
+
+import java.util.Date;
+
+import cmput301w15t07.TravelTracker.model.Claim;
+import cmput301w15t07.TravelTracker.model.Document;
+import cmput301w15t07.TravelTracker.model.InMemoryDataSource;
+import cmput301w15t07.TravelTracker.model.Status;
+import cmput301w15t07.TravelTracker.model.User;
+import cmput301w15t07.TravelTracker.testutils.SynchronizedResultCallback;
+import cmput301w15t07.TravelTracker.util.Observer;
+import junit.framework.TestCase;
+
+public class DocumentEditTest extends TestCase {
+    
+    Claim claim;
+    int notifications;
+    
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        InMemoryDataSource source = new InMemoryDataSource();
+        SynchronizedResultCallback<User> userCallback = new SynchronizedResultCallback<User>();
+        source.addUser(userCallback);
+        userCallback.waitForResult();
+        
+        SynchronizedResultCallback<Claim> claimCallback = new SynchronizedResultCallback<Claim>();
+        source.addClaim(userCallback.getResult(), claimCallback);
+        claimCallback.waitForResult();
+        claim = claimCallback.getResult();
+        
+        notifications = 0;
+        claim.addObserver(new Observer<Document>() {
+            @Override
+            public void update(Document observable) {
+                notifications++;
+            }
+        });
+        claim.setClean();
+    }
+    
+    public void testSetterNotifiesImmediately() {
+        claim.setStatus(Status.SUBMITTED);
+        assertEquals(1, notifications);
+        assertTrue(claim.isDirty());
+    }
+    
+    public void testEditNotifiesOnceOnCommit() {
+        claim.beginEdit();
+        claim.addComment("comment");
+        claim.setStatus(Status.RETURNED);
+        claim.setEndDate(new Date());
+        assertEquals(0, notifications);
+        assertFalse(claim.isDirty());
+        
+        claim.commit();
+        assertEquals(1, notifications);
+        assertTrue(claim.isDirty());
+    }
+    
+    public void testCommitBumpsTimestampOnce() throws InterruptedException {
+        Date before = claim.getLastChanged();
+        claim.beginEdit();
+        claim.setStatus(Status.SUBMITTED);
+        assertEquals(before, claim.getLastChanged());
+        
+        Thread.sleep(5);
+        claim.commit();
+        assertTrue(claim.getLastChanged().after(before));
+    }
+    
+    public void testNestedEditsCommitOnce() {
+        claim.beginEdit();
+        claim.beginEdit();
+        claim.setStatus(Status.SUBMITTED);
+        claim.commit();
+        assertEquals(0, notifications);
+        
+        claim.setStatus(Status.APPROVED);
+        claim.commit();
+        assertEquals(1, notifications);
+    }
+    
+    public void testEmptyEditDoesNothing() {
+        Date before = claim.getLastChanged();
+        claim.beginEdit();
+        claim.commit();
+        assertEquals(0, notifications);
+        assertFalse(claim.isDirty());
+        assertEquals(before, claim.getLastChanged());
+    }
+    
+    public void testCommitQuietlyMarksChangedWithoutNotifying() {
+        claim.beginEdit();
+        claim.setStatus(Status.SUBMITTED);
+        claim.commitQuietly();
+        assertEquals(0, notifications);
+        assertTrue(claim.isDirty());
+    }
+    
+    public void testCommitWithoutBeginFails() {
+        try {
+            claim.commit();
+            fail("commit() without beginEdit() should throw");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.test.model;
+
+import java.util.Date;
+import java.util.Set;
+
+import com.google.gson.Gson;
+
+import cmput301w15t07.TravelTracker.model.Claim;
+import cmput301w15t07.TravelTracker.model.InMemoryDataSource;
+import cmput301w15t07.TravelTracker.model.Status;
+import cmput301w15t07.TravelTracker.model.User;
+import cmput301w15t07.TravelTracker.testutils.SynchronizedResultCallback;
+import junit.framework.TestCase;
+
+public class FieldMergeTest extends TestCase {
+    
+    Claim claim;
+    
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        InMemoryDataSource source = new InMemoryDataSource();
+        SynchronizedResultCallback<User> userCallback = new SynchronizedResultCallback<User>();
+        source.addUser(userCallback);
+        userCallback.waitForResult();
+        
+        SynchronizedResultCallback<Claim> claimCallback = new SynchronizedResultCallback<Claim>();
+        source.addClaim(userCallback.getResult(), claimCallback);
+        claimCallback.waitForResult();
+        claim = claimCallback.getResult();
+    }
+    
+    /**
+     * @return a copy of the claim, as another device would have retrieved it.
+     */
+    private Claim copy(Claim claim) {
+        Gson gson = new Gson();
+        return gson.fromJson(gson.toJson(claim), Claim.class);
+    }
+    
+    public void testNewDocumentSentWhole() {
+        assertNull(claim.getUnsyncedFields());
+        claim.setStatus(Status.SUBMITTED);
+        assertNull(claim.getUnsyncedFields());
+    }
+    
+    public void testUnsyncedFieldsTracked() {
+        claim.setClean();
+        assertTrue(claim.getUnsyncedFields().isEmpty());
+        
+        claim.setStatus(Status.SUBMITTED);
+        claim.addComment("comment");
+        Set<String> fields = claim.getUnsyncedFields();
+        assertEquals(2, fields.size());
+        assertTrue(fields.contains("status"));
+        assertTrue(fields.contains("comments"));
+        
+        claim.setClean();
+        assertTrue(claim.getUnsyncedFields().isEmpty());
+    }
+    
+    public void testUnnamedChangeSentWhole() {
+        claim.setClean();
+        claim.hasChanged(claim);
+        assertNull(claim.getUnsyncedFields());
+    }
+    
+    public void testRejectedUpdateSentWhole() {
+        claim.setClean();
+        claim.setStatus(Status.SUBMITTED);
+        claim.markUnsynced();
+        assertNull(claim.getUnsyncedFields());
+    }
+    
+    public void testConcurrentEditsToDifferentFieldsSurvive() throws InterruptedException {
+        Claim remote = copy(claim);
+        Date endDate = new Date(claim.getEndDate().getTime() + 86400000);
+        
+        Thread.sleep(5);
+        claim.setStatus(Status.SUBMITTED);
+        Thread.sleep(5);
+        remote.setEndDate(endDate);
+        
+        claim.mergeAttributesFrom(remote);
+        assertEquals(Status.SUBMITTED, claim.getStatus());
+        assertEquals(endDate, claim.getEndDate());
+        assertEquals(remote.getLastChanged(), claim.getLastChanged());
+    }
+    
+    public void testNewerEditToSameFieldWins() throws InterruptedException {
+        Claim remote = copy(claim);
+        
+        Thread.sleep(5);
+        remote.setStatus(Status.RETURNED);
+        Thread.sleep(5);
+        claim.setStatus(Status.SUBMITTED);
+        
+        claim.mergeAttributesFrom(remote);
+        assertEquals(Status.SUBMITTED, claim.getStatus());
+        
+        remote.mergeAttributesFrom(claim);
+        assertEquals(Status.SUBMITTED, remote.getStatus());
+    }
+}
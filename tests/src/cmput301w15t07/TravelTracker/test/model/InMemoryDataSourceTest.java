@@ -23,11 +23,14 @@ package cmput301w15t07.TravelTracker.test.model;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
 import java.util.UUID;
 
 import cmput301w15t07.TravelTracker.model.Claim;
+import cmput301w15t07.TravelTracker.model.ClaimDetails;
 import cmput301w15t07.TravelTracker.model.InMemoryDataSource;
 import cmput301w15t07.TravelTracker.model.Item;
+import cmput301w15t07.TravelTracker.model.Status;
 import cmput301w15t07.TravelTracker.model.Tag;
 import cmput301w15t07.TravelTracker.model.User;
 import cmput301w15t07.TravelTracker.testutils.SynchronizedResultCallback;
@@ -208,6 +211,48 @@ public class InMemoryDataSourceTest extends TestCase {
         assertFalse("No result should be returned", callback.getHasResult());
         assertNotNull("Error should be returned", callback.getError());
     }
+
+    public void testGetClaimDetails() throws InterruptedException {
+        User user = addUser();
+        User approver = addUser();
+        Claim claim = addClaim(user);
+        claim.setApprover(approver.getUUID());
+        Item item = addItem(claim);
+        addItem(addClaim(user));
+        Tag tag = addTag(user);
+        addTag(approver);
+        
+        SynchronizedResultCallback<ClaimDetails> callback = new SynchronizedResultCallback<ClaimDetails>();
+        source.getClaimDetails(claim.getUUID(), callback);
+        callback.waitForResult();
+        ClaimDetails details = callback.getResult();
+        
+        assertEquals(claim, details.getClaim());
+        assertEquals(user, details.getClaimant());
+        assertEquals(approver, details.getApprover());
+        assertEquals("Only the claim's items should be returned", 1, details.getItems().size());
+        assertTrue(details.getItems().contains(item));
+        assertEquals("Only the claimant's tags should be returned", 1, details.getTags().size());
+        assertTrue(details.getTags().contains(tag));
+    }
+    
+    public void testGetClaimDetailsWithoutApprover() throws InterruptedException {
+        Claim claim = addClaim(addUser());
+        
+        SynchronizedResultCallback<ClaimDetails> callback = new SynchronizedResultCallback<ClaimDetails>();
+        source.getClaimDetails(claim.getUUID(), callback);
+        
+        assertTrue(callback.waitForResult());
+        assertNull(callback.getResult().getApprover());
+    }
+    
+    public void testGetNonexistentClaimDetails() throws InterruptedException {
+        SynchronizedResultCallback<ClaimDetails> callback = new SynchronizedResultCallback<ClaimDetails>();
+        source.getClaimDetails(UUID.randomUUID(), callback);
+        
+        assertFalse("No result should be returned", callback.waitForResult());
+        assertNotNull("Error should be returned", callback.getError());
+    }
     
 
     ///////////////////////////
@@ -377,7 +422,33 @@ public class InMemoryDataSourceTest extends TestCase {
         
         assertNotNull("Second item should not exist", itemCallback.getError());
     }
-    
+
+    public void testDeleteClaimAfterItemMoved() throws InterruptedException {
+        User user = addUser();
+        Claim oldClaim = addClaim(user);
+        Claim newClaim = addClaim(user);
+        Item item = addItem(oldClaim);
+
+        item.setClaim(newClaim.getUUID());
+
+        SynchronizedResultCallback<Void> callback = new SynchronizedResultCallback<Void>();
+        source.deleteClaim(oldClaim.getUUID(), callback);
+
+        SynchronizedResultCallback<Item> itemCallback = new SynchronizedResultCallback<Item>();
+        source.getItem(item.getUUID(), itemCallback);
+
+        assertTrue("Moved item should survive deletion of its old claim", itemCallback.waitForResult());
+
+        callback = new SynchronizedResultCallback<Void>();
+        source.deleteClaim(newClaim.getUUID(), callback);
+
+        itemCallback = new SynchronizedResultCallback<Item>();
+        source.getItem(item.getUUID(), itemCallback);
+        itemCallback.waitForResult();
+
+        assertNotNull("Moved item should be deleted with its new claim", itemCallback.getError());
+    }
+
 
     ///////////////////////////
     // Test getAll functions //
@@ -480,7 +551,276 @@ public class InMemoryDataSourceTest extends TestCase {
         
         assertTrue("Empty collection should be returned", users.size() == 0);
     }
+
+
+    ///////////////////////////
+    // Test scoped functions //
+    ///////////////////////////
+
+    public void testGetClaimsForUser() throws InterruptedException {
+        User user = addUser();
+        User other = addUser();
+        ArrayList<Claim> claims = new ArrayList<Claim>();
+        claims.add(addClaim(user));
+        claims.add(addClaim(user));
+        addClaim(other);
+
+        SynchronizedResultCallback<Collection<Claim>> callback = new SynchronizedResultCallback<Collection<Claim>>();
+        source.getClaimsForUser(user.getUUID(), callback);
+        callback.waitForResult();
+        Collection<Claim> newClaims = callback.getResult();
+
+        assertEquals("Lists should be the same size", claims.size(), newClaims.size());
+        assertTrue("Both lists should have the same contents", newClaims.containsAll(claims));
+    }
+
+    public void testGetItemsForClaims() throws InterruptedException {
+        User user = addUser();
+        Claim claim1 = addClaim(user);
+        Claim claim2 = addClaim(user);
+        Claim claim3 = addClaim(user);
+        ArrayList<Item> items = new ArrayList<Item>();
+        items.add(addItem(claim1));
+        items.add(addItem(claim2));
+        items.add(addItem(claim2));
+        addItem(claim3);
+
+        ArrayList<UUID> claimIDs = new ArrayList<UUID>();
+        claimIDs.add(claim1.getUUID());
+        claimIDs.add(claim2.getUUID());
+
+        SynchronizedResultCallback<Collection<Item>> callback = new SynchronizedResultCallback<Collection<Item>>();
+        source.getItemsForClaims(claimIDs, callback);
+        callback.waitForResult();
+        Collection<Item> newItems = callback.getResult();
+
+        assertEquals("Lists should be the same size", items.size(), newItems.size());
+        assertTrue("Both lists should have the same contents", newItems.containsAll(items));
+    }
+
+    public void testGetTagsForUserEmpty() throws InterruptedException {
+        User user = addUser();
+        addTag(addUser());
+
+        SynchronizedResultCallback<Collection<Tag>> callback = new SynchronizedResultCallback<Collection<Tag>>();
+        source.getTagsForUser(user.getUUID(), callback);
+        callback.waitForResult();
+        Collection<Tag> tags = callback.getResult();
+
+        assertTrue("Empty collection should be returned", tags.size() == 0);
+    }
+    
+    public void testGetUsers() throws InterruptedException {
+        User user1 = addUser();
+        User user2 = addUser();
+        addUser();
+        
+        ArrayList<UUID> ids = new ArrayList<UUID>();
+        ids.add(user1.getUUID());
+        ids.add(UUID.randomUUID());
+        ids.add(user2.getUUID());
+        ids.add(user1.getUUID());
+        
+        SynchronizedResultCallback<Collection<User>> callback = new SynchronizedResultCallback<Collection<User>>();
+        source.getUsers(ids, callback);
+        assertTrue(callback.waitForResult());
+        Collection<User> users = callback.getResult();
+        
+        assertEquals("Missing and repeated users should be skipped", 2, users.size());
+        assertTrue(users.contains(user1));
+        assertTrue(users.contains(user2));
+    }
+    
+    public void testGetApprovalQueue() throws InterruptedException {
+        User claimant = addUser();
+        User approver = addUser();
+        User other = addUser();
+        
+        Claim assigned = addClaim(claimant);
+        assigned.setApprover(approver.getUUID());
+        assigned.setStatus(Status.SUBMITTED);
+        Claim unassigned = addClaim(claimant);
+        unassigned.setStatus(Status.SUBMITTED);
+        Claim elsewhere = addClaim(claimant);
+        elsewhere.setApprover(other.getUUID());
+        elsewhere.setStatus(Status.SUBMITTED);
+        Claim own = addClaim(approver);
+        own.setStatus(Status.SUBMITTED);
+        addClaim(claimant).setStatus(Status.RETURNED);
+        
+        Collection<Claim> queue = getApprovalQueue(approver);
+        assertEquals(2, queue.size());
+        assertTrue(queue.contains(assigned));
+        assertTrue(queue.contains(unassigned));
+    }
+    
+    public void testApprovalQueueOrder() throws InterruptedException {
+        User claimant = addUser();
+        User approver = addUser();
+        
+        Claim later = addClaim(claimant);
+        later.setStartDate(new Date(2000000));
+        later.setStatus(Status.SUBMITTED);
+        Claim earlier = addClaim(claimant);
+        earlier.setStartDate(new Date(1000000));
+        earlier.setStatus(Status.SUBMITTED);
+        
+        ArrayList<Claim> queue = new ArrayList<Claim>(getApprovalQueue(approver));
+        assertEquals(earlier, queue.get(0));
+        assertEquals(later, queue.get(1));
+    }
+    
+    public void testApprovalQueueFollowsChanges() throws InterruptedException {
+        User claimant = addUser();
+        User approver = addUser();
+        Claim claim = addClaim(claimant);
+        
+        assertTrue(getApprovalQueue(approver).isEmpty());
+        
+        claim.setStatus(Status.SUBMITTED);
+        assertTrue("Submitted claim should be queued", getApprovalQueue(approver).contains(claim));
+        
+        claim.setApprover(addUser().getUUID());
+        assertFalse("Claim assigned elsewhere should leave the queue", getApprovalQueue(approver).contains(claim));
+        
+        claim.setApprover(approver.getUUID());
+        claim.setStatus(Status.APPROVED);
+        assertFalse("Approved claim should leave the queue", getApprovalQueue(approver).contains(claim));
+        
+        claim.setStatus(Status.SUBMITTED);
+        SynchronizedResultCallback<Void> deleteCallback = new SynchronizedResultCallback<Void>();
+        source.deleteClaim(claim.getUUID(), deleteCallback);
+        deleteCallback.waitForResult();
+        assertTrue("Deleted claim should leave the queue", getApprovalQueue(approver).isEmpty());
+    }
+    
+    //////////////////////////
+    // Test batch functions //
+    //////////////////////////
+    
+    public void testAddItems() throws InterruptedException {
+        User user = addUser();
+        Claim claim = addClaim(user);
+        
+        SynchronizedResultCallback<Collection<Item>> callback = new SynchronizedResultCallback<Collection<Item>>();
+        source.addItems(claim, 3, callback);
+        callback.waitForResult();
+        
+        assertEquals("Three items should be returned", 3, callback.getResult().size());
+        assertEquals("Items should belong to the claim", 3, getItemsForClaim(claim).size());
+    }
+    
+    public void testDeleteClaimsWithItems() throws InterruptedException {
+        User user = addUser();
+        Claim claim1 = addClaim(user);
+        Claim claim2 = addClaim(user);
+        Claim kept = addClaim(user);
+        addItem(claim1);
+        addItem(claim2);
+        Item keptItem = addItem(kept);
+        
+        ArrayList<UUID> ids = new ArrayList<UUID>();
+        ids.add(claim1.getUUID());
+        ids.add(claim2.getUUID());
+        SynchronizedResultCallback<Void> callback = new SynchronizedResultCallback<Void>();
+        source.deleteClaims(ids, callback);
+        
+        assertTrue("Deletion should succeed", callback.waitForResult());
+        assertEquals("Only the kept claim should remain", 1, source.getClaims().size());
+        assertEquals("Only the kept claim's item should remain", keptItem, source.getItems().iterator().next());
+        assertEquals(1, source.getItems().size());
+    }
+    
+    public void testDeleteItemsWithMissing() throws InterruptedException {
+        User user = addUser();
+        Claim claim = addClaim(user);
+        Item item = addItem(claim);
+        
+        ArrayList<UUID> ids = new ArrayList<UUID>();
+        ids.add(item.getUUID());
+        ids.add(UUID.randomUUID());
+        SynchronizedResultCallback<Void> callback = new SynchronizedResultCallback<Void>();
+        source.deleteItems(ids, callback);
+        
+        assertFalse("Missing item should be reported", callback.waitForResult());
+        assertNotNull("Error should be returned", callback.getError());
+        assertEquals("Found item should still be deleted", 0, source.getItems().size());
+    }
+    
+    public void testDeleteTags() throws InterruptedException {
+        User user = addUser();
+        Tag tag1 = addTag(user);
+        Tag tag2 = addTag(user);
+        
+        ArrayList<UUID> ids = new ArrayList<UUID>();
+        ids.add(tag1.getUUID());
+        ids.add(tag2.getUUID());
+        ids.add(tag1.getUUID());
+        SynchronizedResultCallback<Void> callback = new SynchronizedResultCallback<Void>();
+        source.deleteTags(ids, callback);
+        
+        assertTrue("Repeated IDs should not be reported missing", callback.waitForResult());
+        assertEquals(0, source.getTags().size());
+    }
     
+    //////////////////////////
+    // Test dirty tracking  //
+    //////////////////////////
+    
+    public void testDirtyTracking() throws InterruptedException {
+        User user = addUser();
+        Claim claim = addClaim(user);
+        assertEquals("New documents should be dirty", 2, source.dirtyCount());
+        assertTrue(source.getDirtyClaims().contains(claim));
+        
+        claim.setClean();
+        assertEquals(1, source.dirtyCount());
+        assertTrue("Clean claim should not be listed", source.getDirtyClaims().isEmpty());
+        
+        claim.setStatus(Status.SUBMITTED);
+        assertEquals(2, source.dirtyCount());
+        assertTrue("Changed claim should be listed", source.getDirtyClaims().contains(claim));
+    }
+    
+    public void testEditedDirtyDocumentsTracked() throws InterruptedException {
+        User user = addUser();
+        Claim claim = addClaim(user);
+        Tag tag = addTag(user);
+        assertEquals(3, source.dirtyCount());
+        
+        // edits change hash codes, which must not lose track of documents already dirty
+        claim.setStatus(Status.SUBMITTED);
+        tag.setTitle("edited while dirty");
+        assertEquals("Edits should not list documents twice", 3, source.dirtyCount());
+        
+        claim.setClean();
+        assertEquals(2, source.dirtyCount());
+        assertTrue("Clean claim should not be listed", source.getDirtyClaims().isEmpty());
+        
+        SynchronizedResultCallback<Void> callback = new SynchronizedResultCallback<Void>();
+        source.deleteTag(tag.getUUID(), callback);
+        callback.waitForResult();
+        assertEquals("Deleted tag should not be listed", 1, source.dirtyCount());
+        assertTrue(source.getDirtyTags().isEmpty());
+    }
+    
+    public void testDeletedDocumentsUntracked() throws InterruptedException {
+        User user = addUser();
+        Claim claim = addClaim(user);
+        addItem(claim);
+        assertEquals(3, source.dirtyCount());
+        
+        SynchronizedResultCallback<Void> callback = new SynchronizedResultCallback<Void>();
+        source.deleteClaim(claim.getUUID(), callback);
+        callback.waitForResult();
+        assertEquals("Deleted claim and its item should be gone", 1, source.dirtyCount());
+        
+        // stale references no longer affect the data source
+        claim.setStatus(Status.SUBMITTED);
+        assertEquals(1, source.dirtyCount());
+        assertTrue(source.getDirtyClaims().isEmpty());
+    }
+
 
     //////////////////////
     // Helper functions //
@@ -527,6 +867,26 @@ public class InMemoryDataSourceTest extends TestCase {
         return callback.getResult();
     }
 
+    /**
+     * Get the Items belonging to a Claim.
+     * @return The Items, or null if there was an error.
+     * @throws InterruptedException 
+     */
+    private Collection<Item> getItemsForClaim(Claim claim) throws InterruptedException {
+        SynchronizedResultCallback<Collection<Item>> callback = new SynchronizedResultCallback<Collection<Item>>();
+        source.getItemsForClaim(claim.getUUID(), callback);
+        callback.waitForResult();
+        
+        return callback.getResult();
+    }
+    
+    private Collection<Claim> getApprovalQueue(User approver) throws InterruptedException {
+        SynchronizedResultCallback<Collection<Claim>> callback = new SynchronizedResultCallback<Collection<Claim>>();
+        source.getApprovalQueue(approver.getUUID(), callback);
+        assertTrue(callback.waitForResult());
+        return callback.getResult();
+    }
+
     /**
      * Add a Tag to the DataSource.
      * @param user The User to which it belongs.
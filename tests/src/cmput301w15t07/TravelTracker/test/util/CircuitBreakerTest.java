@@ -0,0 +1,121 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.test.util;
+
+import java.util.ArrayList;
+
+import cmput301w15t07.TravelTracker.util.CircuitBreaker;
+import cmput301w15t07.TravelTracker.util.CircuitBreaker.State;
+import cmput301w15t07.TravelTracker.util.Observer;
+import junit.framework.TestCase;
+
+public class CircuitBreakerTest extends TestCase {
+    
+    private final int THRESHOLD = 3;
+    private final long OPEN = 60000;
+    
+    CircuitBreaker breaker;
+    ArrayList<State> transitions;
+    
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        breaker = new CircuitBreaker(THRESHOLD, OPEN);
+        transitions = new ArrayList<State>();
+        breaker.addObserver(new Observer<CircuitBreaker>() {
+            @Override
+            public void update(CircuitBreaker observable) {
+                transitions.add(observable.getState());
+            }
+        });
+    }
+    
+    public void testStartsClosed() {
+        assertEquals(State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest(0));
+    }
+    
+    public void testOpensAfterThreshold() {
+        for (int i = 0; i < THRESHOLD - 1; i++) {
+            breaker.recordFailure(0);
+        }
+        assertEquals(State.CLOSED, breaker.getState());
+        
+        breaker.recordFailure(0);
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(OPEN - 1));
+    }
+    
+    public void testSuccessResetsFailures() {
+        for (int i = 0; i < THRESHOLD - 1; i++) {
+            breaker.recordFailure(0);
+        }
+        breaker.recordSuccess();
+        breaker.recordFailure(0);
+        assertEquals("Only failures in a row should count", State.CLOSED, breaker.getState());
+    }
+    
+    public void testSingleProbeAfterOpenPeriod() {
+        open(0);
+        
+        assertTrue("First request after open period should probe", breaker.allowRequest(OPEN));
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        assertFalse("Only one probe should be in flight", breaker.allowRequest(OPEN));
+    }
+    
+    public void testProbeSuccessCloses() {
+        open(0);
+        breaker.allowRequest(OPEN);
+        breaker.recordSuccess();
+        
+        assertEquals(State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest(OPEN));
+    }
+    
+    public void testProbeFailureReopens() {
+        open(0);
+        breaker.allowRequest(OPEN);
+        breaker.recordFailure(OPEN);
+        
+        assertEquals("One failed probe should reopen", State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(2 * OPEN - 1));
+        assertTrue(breaker.allowRequest(2 * OPEN));
+    }
+    
+    public void testTransitionsObserved() {
+        open(0);
+        breaker.allowRequest(OPEN);
+        breaker.recordSuccess();
+        breaker.recordSuccess();
+        
+        assertEquals(3, transitions.size());
+        assertEquals(State.OPEN, transitions.get(0));
+        assertEquals(State.HALF_OPEN, transitions.get(1));
+        assertEquals(State.CLOSED, transitions.get(2));
+    }
+    
+    private void open(long now) {
+        for (int i = 0; i < THRESHOLD; i++) {
+            breaker.recordFailure(now);
+        }
+    }
+}
@@ -140,4 +140,20 @@ public class ClaimListDataHelperTest extends AndroidTestCase {
         assertTrue("Approver receiving non-submitted claims", data.getClaims().size() == 1);
     }
     
+    public void testUsersForApprover(){
+        User user1 = DataSourceUtils.addUser(name1, ds);
+        User user2 = DataSourceUtils.addUser(name2, ds);
+        User user3 = DataSourceUtils.addUser(name3, ds);
+        
+        Claim claim1 = DataSourceUtils.addEmptyClaim(user1, ds);
+        claim1.setStatus(Status.SUBMITTED);
+        DataSourceUtils.addEmptyClaim(user2, ds);
+        
+        helper.getInitialData(idcb, new UserData(user3.getUUID(), name3, UserRole.APPROVER), ds);
+        data = DataSourceUtils.getData(idcb);
+        
+        assertEquals("Approver should get the claimants of the queue", 1, data.getUsers().size());
+        assertTrue(data.getUsers().contains(user1));
+    }
+    
 }
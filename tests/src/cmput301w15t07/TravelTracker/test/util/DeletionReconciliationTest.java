@@ -0,0 +1,190 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.test.util;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+import android.util.Log;
+import cmput301w15t07.TravelTracker.model.InMemoryDataSource;
+import cmput301w15t07.TravelTracker.model.Tag;
+import cmput301w15t07.TravelTracker.model.User;
+import cmput301w15t07.TravelTracker.serverinterface.ResultCallback;
+import cmput301w15t07.TravelTracker.testutils.DataSourceUtils;
+import cmput301w15t07.TravelTracker.util.DeletionReconciliation;
+import cmput301w15t07.TravelTracker.util.Tombstone;
+import junit.framework.TestCase;
+
+public class DeletionReconciliationTest extends TestCase {
+    
+    InMemoryDataSource ds;
+    User user;
+    
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        ds = new InMemoryDataSource();
+        user = DataSourceUtils.addUser("Tombstone", ds);
+    }
+    
+    public void testNewerDeletionIsPerformed() {
+        Tag tag = DataSourceUtils.addEmptyTag(user, ds);
+        ArrayList<Tombstone> deletions = new ArrayList<Tombstone>();
+        deletions.add(tombstone(tag, later(tag)));
+        
+        DeletionReconciliation<Tag> result = reconcile(tags(tag), deletions);
+        assertEquals(0, result.getRemaining().size());
+        assertEquals(1, result.getPending().size());
+        assertEquals(tag.getUUID(), result.getPending().get(0).getUUID());
+        assertEquals(0, result.getOverridden().size());
+    }
+    
+    public void testOlderDeletionIsOverridden() {
+        Tag tag = DataSourceUtils.addEmptyTag(user, ds);
+        ArrayList<Tombstone> deletions = new ArrayList<Tombstone>();
+        deletions.add(tombstone(tag, earlier(tag)));
+        
+        DeletionReconciliation<Tag> result = reconcile(tags(tag), deletions);
+        assertEquals(1, result.getRemaining().size());
+        assertEquals(0, result.getPending().size());
+        assertEquals(1, result.getOverridden().size());
+    }
+    
+    public void testMissingDeletionIsPerformed() {
+        Tag deleted = DataSourceUtils.addEmptyTag(user, ds);
+        Tag kept = DataSourceUtils.addEmptyTag(user, ds);
+        ArrayList<Tombstone> deletions = new ArrayList<Tombstone>();
+        deletions.add(tombstone(deleted, later(deleted)));
+        
+        DeletionReconciliation<Tag> result = reconcile(tags(kept), deletions);
+        assertEquals(1, result.getRemaining().size());
+        assertEquals(kept, result.getRemaining().get(0));
+        assertEquals(1, result.getPending().size());
+        assertEquals(deleted.getUUID(), result.getPending().get(0).getUUID());
+    }
+    
+    public void testConfirmedStaleCopyIsDeletedAgain() {
+        Tag tag = DataSourceUtils.addEmptyTag(user, ds);
+        ArrayList<Tombstone> deletions = new ArrayList<Tombstone>();
+        deletions.add(tombstone(tag, later(tag)).confirmedAt(new Date()));
+        
+        DeletionReconciliation<Tag> result = reconcile(tags(tag), deletions);
+        assertEquals(0, result.getRemaining().size());
+        assertEquals(1, result.getPending().size());
+    }
+    
+    public void testConfirmedMissingDeletionIsDone() {
+        Tag deleted = DataSourceUtils.addEmptyTag(user, ds);
+        ArrayList<Tombstone> deletions = new ArrayList<Tombstone>();
+        deletions.add(tombstone(deleted, later(deleted)).confirmedAt(new Date()));
+        
+        DeletionReconciliation<Tag> result = reconcile(new ArrayList<Tag>(), deletions);
+        assertEquals(0, result.getPending().size());
+        assertEquals(0, result.getOverridden().size());
+    }
+    
+    public void testPagesReconciledAsRetrieved() {
+        Tag deleted = DataSourceUtils.addEmptyTag(user, ds);
+        Tag kept = DataSourceUtils.addEmptyTag(user, ds);
+        Tag missing = DataSourceUtils.addEmptyTag(user, ds);
+        ArrayList<Tombstone> deletions = new ArrayList<Tombstone>();
+        deletions.add(tombstone(deleted, later(deleted)));
+        deletions.add(tombstone(kept, earlier(kept)));
+        deletions.add(tombstone(missing, later(missing)));
+        
+        DeletionReconciliation<Tag> result = new DeletionReconciliation<Tag>(deletions);
+        assertEquals(0, result.reconcile(tags(deleted)).size());
+        assertEquals(1, result.reconcile(tags(kept)).size());
+        // the missing document may still arrive on a later page
+        assertEquals(1, result.getPending().size());
+        
+        // a restarted query delivers the same pages again
+        assertEquals(0, result.reconcile(tags(deleted)).size());
+        assertEquals(1, result.reconcile(tags(kept)).size());
+        result.finish();
+        
+        assertEquals(2, result.getPending().size());
+        assertEquals(1, result.getOverridden().size());
+        assertEquals(kept.getUUID(), result.getOverridden().get(0).getUUID());
+    }
+    
+    public void testReconcileBenchmark() {
+        final int DOCUMENTS = 50000;
+        final int DELETIONS = 10000;
+        
+        final ArrayList<Tag> retrieved = new ArrayList<Tag>();
+        for (int i = 0; i < DOCUMENTS; i++) {
+            ds.addTag(user, new ResultCallback<Tag>() {
+                @Override
+                public void onResult(Tag result) {
+                    retrieved.add(result);
+                }
+                
+                @Override
+                public void onError(String message) {
+                    fail(message);
+                }
+            });
+        }
+        
+        // every fifth document has a deletion, alternating newer and older than the document
+        ArrayList<Tombstone> deletions = new ArrayList<Tombstone>();
+        for (int i = 0; i < DELETIONS; i++) {
+            Tag tag = retrieved.get(i * (DOCUMENTS / DELETIONS));
+            deletions.add(tombstone(tag, i % 2 == 0 ? later(tag) : earlier(tag)));
+        }
+        
+        long start = System.currentTimeMillis();
+        DeletionReconciliation<Tag> result = reconcile(retrieved, deletions);
+        long elapsed = System.currentTimeMillis() - start;
+        Log.i("DeletionReconciliationTest", "Reconciled " + DELETIONS + " deletions against " + 
+                DOCUMENTS + " documents in " + elapsed + " millis");
+        
+        assertEquals(DOCUMENTS - DELETIONS / 2, result.getRemaining().size());
+        assertEquals(DELETIONS / 2, result.getPending().size());
+        assertEquals(DELETIONS / 2, result.getOverridden().size());
+        // the quadratic version took minutes on a device
+        assertTrue("Reconciliation took " + elapsed + " millis", elapsed < 5000);
+    }
+    
+    private DeletionReconciliation<Tag> reconcile(ArrayList<Tag> retrieved, ArrayList<Tombstone> deletions) {
+        return new DeletionReconciliation<Tag>(retrieved, deletions);
+    }
+    
+    private Tombstone tombstone(Tag tag, Date deleted) {
+        return new Tombstone(tag.getUUID(), tag.getType(), deleted);
+    }
+    
+    private ArrayList<Tag> tags(Tag tag) {
+        ArrayList<Tag> tags = new ArrayList<Tag>();
+        tags.add(tag);
+        return tags;
+    }
+    
+    private Date later(Tag tag) {
+        return new Date(tag.getLastChanged().getTime() + 1000);
+    }
+    
+    private Date earlier(Tag tag) {
+        return new Date(tag.getLastChanged().getTime() - 1000);
+    }
+}
@@ -175,6 +175,23 @@ public class ElasticSearchHelperTest extends AndroidTestCase{
         cleanUp(users);
     }
     
+    @Suppress
+    public void testPagedExpenses() throws Exception {
+        // a page size smaller than the result forces scrolling
+        ElasticSearchHelper paged = new ElasticSearchHelper(2);
+        ArrayList<Item> items = new ArrayList<Item>();
+        for (int i = 0; i < 5; i++) {
+            items.add(DataSourceUtils.addEmptyItem(claim1, ds));
+        }
+        
+        es.saveDocuments(items);
+        Thread.sleep(1000);
+        assertEquals(items.size(), paged.getExpenses(claim1.getUUID()).size());
+        
+        cleanUp(items);
+        paged.closeConnection();
+    }
+    
     private <T extends Document> void cleanUp(ArrayList<T> models) throws Exception{
         es.deleteDocuments(models);
         Thread.sleep(1000);
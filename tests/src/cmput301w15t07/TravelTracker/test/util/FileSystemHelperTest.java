@@ -23,6 +23,7 @@ package cmput301w15t07.TravelTracker.test.util;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.UUID;
 
@@ -40,6 +41,8 @@ import cmput301w15t07.TravelTracker.model.Status;
 import cmput301w15t07.TravelTracker.model.Tag;
 import cmput301w15t07.TravelTracker.model.User;
 import cmput301w15t07.TravelTracker.serverinterface.FileSystemHelper;
+import cmput301w15t07.TravelTracker.serverinterface.PageCallback;
+import cmput301w15t07.TravelTracker.serverinterface.Constants.Type;
 import cmput301w15t07.TravelTracker.testutils.DataSourceUtils;
 import android.test.InstrumentationTestCase;
 
@@ -188,6 +191,8 @@ public class FileSystemHelperTest extends InstrumentationTestCase {
         assertEquals(2, fs.getExpenses(c1.getUUID()).size());
         assertEquals(0, fs.getExpenses(c2.getUUID()).size());
         assertEquals(0, fs.getExpenses(UUID.randomUUID()).size());
+        assertEquals(2, fs.getExpenses(Arrays.asList(c1.getUUID(), c2.getUUID())).size());
+        assertEquals(0, fs.getExpenses(Arrays.asList(c2.getUUID(), UUID.randomUUID())).size());
         
         fs.deleteDocuments(item2);
         assertTrue(fs.getExpenses(c1.getUUID()).contains(i1));
@@ -275,7 +280,53 @@ public class FileSystemHelperTest extends InstrumentationTestCase {
         assertNull(fs.getUser("Stevula"));
     }
     
-
+    public void testGetChangedSince() throws Exception {
+        fs.<Claim>saveDocuments(claims);
+        assertEquals(2, fs.<Claim>getChangedSince(Type.CLAIM, null).size());
+        
+        // setUp touches c1 again when its items are added, so either claim may be the latest
+        Date watermark = new Date(Math.max(c1.getLastChanged().getTime(), c2.getLastChanged().getTime()) + 1);
+        assertEquals(0, fs.<Claim>getChangedSince(Type.CLAIM, watermark).size());
+        
+        // saved dates are only precise to the second
+        Thread.sleep(1000);
+        c1.addComment("changed after watermark");
+        fs.<Claim>saveDocuments(claims);
+        assertEquals(1, fs.<Claim>getChangedSince(Type.CLAIM, watermark).size());
+        assertTrue(fs.<Claim>getChangedSince(Type.CLAIM, watermark).contains(c1));
+        
+        assertEquals(0, fs.<Item>getChangedSince(Type.ITEM, null).size());
+    }
+    
+    public void testGetChangedSincePaged() throws Exception {
+        fs.<Claim>saveDocuments(claims);
+        final ArrayList<Claim> retrieved = new ArrayList<Claim>();
+        fs.<Claim>getChangedSince(Type.CLAIM, null, new PageCallback<Claim>() {
+            @Override
+            public void onPage(Collection<Claim> page) {
+                retrieved.addAll(page);
+            }
+        });
+        assertEquals(2, retrieved.size());
+        assertTrue(retrieved.contains(c1));
+    }
+    
+    public void testGetDocument() throws Exception {
+        fs.<Claim>saveDocuments(claims);
+        assertEquals(c1, fs.<Claim>getDocument(Type.CLAIM, c1.getUUID()));
+        assertNull(fs.<Claim>getDocument(Type.CLAIM, UUID.randomUUID()));
+        assertNull(fs.<Item>getDocument(Type.ITEM, i1.getUUID()));
+    }
+    
+    public void testGetDocuments() throws Exception {
+        fs.<Claim>saveDocuments(claims);
+        Collection<Claim> found = fs.<Claim>getDocuments(Type.CLAIM,
+                Arrays.asList(c1.getUUID(), UUID.randomUUID(), c2.getUUID()));
+        assertEquals(2, found.size());
+        assertTrue(found.contains(c1));
+        assertTrue(found.contains(c2));
+        assertTrue(fs.<Item>getDocuments(Type.ITEM, Arrays.asList(i1.getUUID())).isEmpty());
+    }
     
     public void testEditClaim() throws Exception {
         
@@ -0,0 +1,164 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.test.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import cmput301w15t07.TravelTracker.util.HashTrieMap;
+import junit.framework.TestCase;
+
+public class HashTrieMapTest extends TestCase {
+    
+    public void testPlusAndMinusLeaveOldVersions() {
+        HashTrieMap<String, Integer> empty = HashTrieMap.empty();
+        HashTrieMap<String, Integer> one = empty.plus("a", 1);
+        HashTrieMap<String, Integer> two = one.plus("b", 2);
+        HashTrieMap<String, Integer> replaced = two.plus("a", 3);
+        HashTrieMap<String, Integer> removed = replaced.minus("b");
+        
+        assertEquals(0, empty.size());
+        assertEquals(1, one.size());
+        assertEquals(Integer.valueOf(1), one.get("a"));
+        assertNull(one.get("b"));
+        assertEquals(2, two.size());
+        assertEquals(Integer.valueOf(1), two.get("a"));
+        assertEquals(Integer.valueOf(3), replaced.get("a"));
+        assertEquals(2, replaced.size());
+        assertEquals(1, removed.size());
+        assertFalse(removed.containsKey("b"));
+        assertTrue(replaced.containsKey("b"));
+    }
+    
+    public void testUnchangedVersionIsShared() {
+        HashTrieMap<String, Integer> map = HashTrieMap.<String, Integer>empty().plus("a", 1);
+        assertSame(map, map.minus("missing"));
+        assertSame(map, map.plus("a", map.get("a")));
+        assertSame(map, map.minusAll(new ArrayList<String>()));
+    }
+    
+    public void testMatchesHashMap() {
+        // small keys collide in the lower levels, so nodes split and collapse often
+        Random random = new Random(301);
+        HashMap<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        HashTrieMap<Integer, Integer> map = HashTrieMap.empty();
+        for (int i = 0; i < 20000; i++) {
+            Integer key = random.nextInt(2000) * (random.nextBoolean() ? 1 : 1 << 20);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.minus(key);
+            } else {
+                expected.put(key, i);
+                map = map.plus(key, i);
+            }
+        }
+        assertEquals(expected, map);
+        assertEquals(expected.hashCode(), map.hashCode());
+        assertEquals(expected.size(), map.entrySet().size());
+    }
+    
+    public void testBatches() {
+        HashMap<Integer, String> batch = new HashMap<Integer, String>();
+        for (int i = 0; i < 5000; i++) {
+            batch.put(i, Integer.toString(i));
+        }
+        HashTrieMap<Integer, String> before = HashTrieMap.<Integer, String>empty().plus(-1, "x");
+        HashTrieMap<Integer, String> after = before.plusAll(batch);
+        assertEquals(5001, after.size());
+        assertEquals(1, before.size());
+        
+        ArrayList<Integer> keys = new ArrayList<Integer>(batch.keySet());
+        keys.add(12345678);
+        HashTrieMap<Integer, String> removed = after.minusAll(keys);
+        assertEquals(1, removed.size());
+        assertEquals("x", removed.get(-1));
+        assertEquals(5001, after.size());
+        assertEquals("4999", after.get(4999));
+    }
+    
+    public void testCollidingKeys() {
+        HashTrieMap<Colliding, String> map = HashTrieMap.empty();
+        Colliding a = new Colliding("a");
+        Colliding b = new Colliding("b");
+        Colliding c = new Colliding("c");
+        map = map.plus(a, "a").plus(b, "b").plus(c, "c");
+        assertEquals(3, map.size());
+        assertEquals("b", map.get(b));
+        
+        HashTrieMap<Colliding, String> withoutB = map.minus(b);
+        assertEquals(2, withoutB.size());
+        assertNull(withoutB.get(b));
+        assertEquals("c", withoutB.get(c));
+        assertEquals("b", map.get(b));
+        
+        HashMap<Colliding, String> expected = new HashMap<Colliding, String>();
+        expected.put(a, "a2");
+        expected.put(c, "c");
+        assertEquals(expected, withoutB.plus(a, "a2"));
+    }
+    
+    public void testUnmodifiable() {
+        Map<String, Integer> map = HashTrieMap.<String, Integer>empty().plus("a", 1);
+        try {
+            map.put("b", 2);
+            fail("Versions should be unmodifiable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            map.values().clear();
+            fail("Versions should be unmodifiable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            map.entrySet().iterator().next().setValue(3);
+            fail("Versions should be unmodifiable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        assertEquals(Integer.valueOf(1), map.get("a"));
+    }
+    
+    /**
+     * A key whose hash is the same as every other's.
+     */
+    private static class Colliding {
+        private final String name;
+        
+        Colliding(String name) {
+            this.name = name;
+        }
+        
+        @Override
+        public int hashCode() {
+            return 7;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Colliding && ((Colliding) obj).name.equals(name);
+        }
+    }
+}
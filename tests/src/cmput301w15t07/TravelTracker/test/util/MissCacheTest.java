@@ -0,0 +1,75 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.test.util;
+
+import java.util.UUID;
+
+import cmput301w15t07.TravelTracker.util.MissCache;
+import junit.framework.TestCase;
+
+public class MissCacheTest extends TestCase {
+    
+    private final long TTL = 1000;
+    
+    MissCache cache;
+    
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        cache = new MissCache(3, TTL);
+    }
+    
+    public void testRemembersMiss() {
+        UUID id = UUID.randomUUID();
+        assertFalse(cache.contains(id, 0));
+        
+        cache.add(id, 0);
+        assertTrue(cache.contains(id, TTL));
+        
+        cache.remove(id);
+        assertFalse(cache.contains(id, TTL));
+    }
+    
+    public void testMissExpires() {
+        UUID id = UUID.randomUUID();
+        cache.add(id, 0);
+        
+        assertFalse(cache.contains(id, TTL + 1));
+        assertEquals("Expired misses should be dropped", 0, cache.size());
+    }
+    
+    public void testBoundedDropsOldest() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        cache.add(first, 0);
+        cache.add(second, 0);
+        cache.add(UUID.randomUUID(), 0);
+        
+        // missing again makes it newest
+        cache.add(first, 1);
+        cache.add(UUID.randomUUID(), 1);
+        
+        assertEquals(3, cache.size());
+        assertTrue(cache.contains(first, 1));
+        assertFalse(cache.contains(second, 1));
+    }
+}
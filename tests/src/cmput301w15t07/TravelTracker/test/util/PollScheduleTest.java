@@ -0,0 +1,104 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.test.util;
+
+import java.util.Random;
+
+import cmput301w15t07.TravelTracker.util.PollSchedule;
+import junit.framework.TestCase;
+
+public class PollScheduleTest extends TestCase {
+    
+    private final long BASE = 20000;
+    private final long MIN = 5000;
+    private final long MAX = 320000;
+    
+    PollSchedule schedule;
+    
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        schedule = new PollSchedule(BASE, MIN, MAX, new Random(301));
+    }
+    
+    public void testStartsAtBase() {
+        assertEquals(BASE, schedule.getInterval());
+    }
+    
+    public void testLocalChangeShortens() {
+        schedule.localChange();
+        assertEquals(MIN, schedule.getInterval());
+    }
+    
+    public void testIdleBacksOff() {
+        schedule.syncSucceeded(true);
+        assertEquals(MIN, schedule.getInterval());
+        
+        schedule.syncSucceeded(false);
+        assertEquals(MIN * 2, schedule.getInterval());
+        schedule.syncSucceeded(false);
+        assertEquals(MIN * 4, schedule.getInterval());
+        
+        for (int i = 0; i < 20; i++) {
+            schedule.syncSucceeded(false);
+        }
+        assertEquals(MAX, schedule.getInterval());
+        
+        schedule.syncSucceeded(true);
+        assertEquals(MIN, schedule.getInterval());
+    }
+    
+    public void testFailureBacksOffFromBase() {
+        schedule.localChange();
+        schedule.syncFailed();
+        assertEquals(BASE * 2, schedule.getInterval());
+        schedule.syncFailed();
+        assertEquals(BASE * 4, schedule.getInterval());
+        
+        for (int i = 0; i < 20; i++) {
+            schedule.syncFailed();
+        }
+        assertEquals(MAX, schedule.getInterval());
+    }
+    
+    public void testJitterBounds() {
+        for (int i = 0; i < 1000; i++) {
+            long delay = schedule.nextDelay();
+            assertTrue(delay >= BASE * (1 - PollSchedule.JITTER) - 1);
+            assertTrue(delay <= BASE * (1 + PollSchedule.JITTER) + 1);
+        }
+        
+        schedule.localChange();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(schedule.nextDelay() >= MIN);
+        }
+    }
+    
+    public void testBadPeriods() {
+        try {
+            new PollSchedule(MIN, BASE, MAX, new Random());
+            fail("min period above base period should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.test.util;
+
+import java.util.ArrayList;
+
+import android.util.SparseArray;
+import cmput301w15t07.TravelTracker.serverinterface.MultiCallback;
+import cmput301w15t07.TravelTracker.serverinterface.ResultCallback;
+import cmput301w15t07.TravelTracker.serverinterface.ResultFuture;
+import junit.framework.TestCase;
+
+public class ResultFutureTest extends TestCase {
+    
+    /** Counts what a callback receives. */
+    class CountingCallback<T> implements ResultCallback<T> {
+        int results = 0;
+        int errors = 0;
+        T result;
+        
+        @Override
+        public void onResult(T result) {
+            results++;
+            this.result = result;
+        }
+        
+        @Override
+        public void onError(String message) {
+            errors++;
+        }
+    }
+    
+    public void testSettlesOnce() {
+        ResultFuture<String> future = new ResultFuture<String>();
+        CountingCallback<String> callback = new CountingCallback<String>();
+        future.addCallback(callback);
+        
+        future.onResult("first");
+        future.onResult("second");
+        future.onError("error");
+        
+        assertEquals(1, callback.results);
+        assertEquals(0, callback.errors);
+        assertEquals("first", future.getResult());
+    }
+    
+    public void testLateCallbackCalledImmediately() {
+        ResultFuture<String> future = new ResultFuture<String>();
+        future.onError("error");
+        
+        CountingCallback<String> callback = new CountingCallback<String>();
+        future.addCallback(callback);
+        assertEquals(1, callback.errors);
+        assertEquals("error", future.getError());
+    }
+    
+    public void testCancelledNeverCallsBack() {
+        ResultFuture<String> future = new ResultFuture<String>();
+        CountingCallback<String> callback = new CountingCallback<String>();
+        future.addCallback(callback);
+        
+        assertTrue(future.cancel());
+        future.onResult("late");
+        
+        assertTrue(future.isCancelled());
+        assertEquals(0, callback.results);
+        assertFalse("Settled futures cannot be cancelled", new ResultFuture<Void>() {{ onResult(null); }}.cancel());
+    }
+    
+    public void testAllOf() {
+        ResultFuture<String> first = new ResultFuture<String>();
+        ResultFuture<Integer> second = new ResultFuture<Integer>();
+        CountingCallback<Void> callback = new CountingCallback<Void>();
+        ResultFuture.allOf(first, second).addCallback(callback);
+        
+        first.onResult("one");
+        assertEquals(0, callback.results);
+        second.onResult(2);
+        assertEquals(1, callback.results);
+    }
+    
+    public void testAllOfFailsOnceAndCancelsRest() {
+        ResultFuture<String> first = new ResultFuture<String>();
+        ResultFuture<String> second = new ResultFuture<String>();
+        ResultFuture<String> third = new ResultFuture<String>();
+        CountingCallback<Void> callback = new CountingCallback<Void>();
+        ResultFuture.allOf(first, second, third).addCallback(callback);
+        
+        first.onError("first error");
+        second.onError("second error");
+        
+        assertEquals(1, callback.errors);
+        assertTrue("Unfinished inputs should be cancelled", third.isCancelled());
+    }
+    
+    public void testAnyOf() {
+        ArrayList<ResultFuture<String>> futures = new ArrayList<ResultFuture<String>>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(new ResultFuture<String>());
+        }
+        CountingCallback<String> callback = new CountingCallback<String>();
+        ResultFuture.<String>anyOf(futures).addCallback(callback);
+        
+        futures.get(0).onError("error");
+        assertEquals(0, callback.errors);
+        futures.get(1).onResult("second");
+        
+        assertEquals("second", callback.result);
+        assertTrue(futures.get(2).isCancelled());
+    }
+    
+    public void testAnyOfFailsWhenAllFail() {
+        ArrayList<ResultFuture<String>> futures = new ArrayList<ResultFuture<String>>();
+        futures.add(new ResultFuture<String>());
+        futures.add(new ResultFuture<String>());
+        CountingCallback<String> callback = new CountingCallback<String>();
+        ResultFuture.<String>anyOf(futures).addCallback(callback);
+        
+        futures.get(0).onError("error");
+        futures.get(1).onError("error");
+        assertEquals(1, callback.errors);
+    }
+    
+    public void testCancelPropagatesToInputs() {
+        ResultFuture<String> first = new ResultFuture<String>();
+        ResultFuture<String> second = new ResultFuture<String>();
+        ResultFuture.allOf(first, second).cancel();
+        
+        assertTrue(first.isCancelled());
+        assertTrue(second.isCancelled());
+    }
+    
+    public void testMultiCallback() {
+        CountingCallback<SparseArray<Object>> callback = new CountingCallback<SparseArray<Object>>();
+        MultiCallback multi = new MultiCallback(callback);
+        ResultCallback<String> first = multi.<String>createCallback(1);
+        ResultCallback<String> second = multi.<String>createCallback(2);
+        
+        first.onResult("one");
+        first.onResult("refreshed");
+        multi.ready();
+        assertEquals(0, callback.results);
+        
+        second.onResult("two");
+        assertEquals(1, callback.results);
+        assertEquals("one", callback.result.get(1));
+        assertEquals("two", callback.result.get(2));
+    }
+    
+    public void testMultiCallbackErrorsOnce() {
+        CountingCallback<SparseArray<Object>> callback = new CountingCallback<SparseArray<Object>>();
+        MultiCallback multi = new MultiCallback(callback);
+        ResultCallback<String> first = multi.<String>createCallback(1);
+        ResultCallback<String> second = multi.<String>createCallback(2);
+        multi.ready();
+        
+        first.onError("error");
+        second.onError("error");
+        assertEquals(1, callback.errors);
+        assertEquals(0, callback.results);
+    }
+    
+    public void testMultiCallbackCancel() {
+        CountingCallback<SparseArray<Object>> callback = new CountingCallback<SparseArray<Object>>();
+        MultiCallback multi = new MultiCallback(callback);
+        ResultCallback<String> first = multi.<String>createCallback(1);
+        multi.ready().cancel();
+        
+        assertTrue("Reads should see the cancellation", ((ResultFuture<?>) first).isCancelled());
+        first.onResult("late");
+        assertEquals(0, callback.results);
+    }
+    
+    public void testMultiCallbackTokenOutlivesResults() {
+        CountingCallback<SparseArray<Object>> callback = new CountingCallback<SparseArray<Object>>();
+        MultiCallback multi = new MultiCallback(callback);
+        ResultCallback<String> first = multi.<String>createCallback(1);
+        ResultFuture<SparseArray<Object>> combined = multi.ready();
+        first.onResult("cached");
+        
+        // settled reads cannot be cancelled, but refreshes behind them can still be stopped
+        assertFalse(combined.cancel());
+        combined.getToken().cancel();
+        assertTrue("Reads should share the token", ((ResultFuture<?>) first).getToken().isCancelled());
+        assertEquals(1, callback.results);
+    }
+    
+    public void testCancelCancelsToken() {
+        ResultFuture<String> future = new ResultFuture<String>();
+        future.cancel();
+        assertTrue(future.getToken().isCancelled());
+        
+        ResultFuture<String> settled = new ResultFuture<String>();
+        settled.onResult("done");
+        settled.cancel();
+        assertFalse("Settling alone should not stop work behind a read", settled.getToken().isCancelled());
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.test.util;
+
+import java.util.Random;
+
+import cmput301w15t07.TravelTracker.util.RetryPolicy;
+import junit.framework.TestCase;
+
+public class RetryPolicyTest extends TestCase {
+    
+    private final int RETRIES = 3;
+    private final long BASE = 250;
+    private final long MAX = 4000;
+    private final int BUDGET = 5;
+    
+    RetryPolicy policy;
+    
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        policy = new RetryPolicy(RETRIES, BASE, MAX, BUDGET, new Random(301));
+    }
+    
+    public void testRetriesPerRequest() {
+        for (int attempt = 0; attempt < RETRIES; attempt++) {
+            assertTrue(policy.tryRetry(attempt));
+        }
+        assertFalse(policy.tryRetry(RETRIES));
+    }
+    
+    public void testBudgetPerCycle() {
+        for (int i = 0; i < BUDGET; i++) {
+            assertTrue(policy.tryRetry(0));
+        }
+        assertFalse("Budget should be spent", policy.tryRetry(0));
+        assertEquals(0, policy.getRemainingBudget());
+        
+        policy.newCycle();
+        assertEquals(BUDGET, policy.getRemainingBudget());
+        assertTrue(policy.tryRetry(0));
+    }
+    
+    public void testDelayBacksOff() {
+        for (int attempt = 0; attempt < 10; attempt++) {
+            long ceiling = Math.min(BASE << attempt, MAX);
+            long delay = policy.getDelay(attempt);
+            assertTrue("Delay should not exceed its ceiling", delay <= ceiling);
+            assertTrue("Jitter should take at most half", delay >= ceiling * (1 - RetryPolicy.JITTER));
+        }
+    }
+    
+    public void testDelayCapped() {
+        assertTrue(policy.getDelay(100) <= MAX);
+        assertTrue(policy.getDelay(100) >= MAX * (1 - RetryPolicy.JITTER));
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.test.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import cmput301w15t07.TravelTracker.util.SnapshotMap;
+import junit.framework.TestCase;
+
+public class SnapshotMapTest extends TestCase {
+    
+    SnapshotMap<String> map;
+    
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        map = new SnapshotMap<String>();
+    }
+    
+    public void testPutGetRemove() {
+        UUID id = UUID.randomUUID();
+        assertNull(map.put(id, "a"));
+        assertEquals("a", map.get(id));
+        assertEquals("a", map.put(id, "b"));
+        assertEquals(1, map.size());
+        assertEquals("b", map.remove(id));
+        assertFalse(map.containsKey(id));
+        assertEquals(0, map.size());
+    }
+    
+    public void testSnapshotUnaffectedByWrites() {
+        UUID first = UUID.randomUUID();
+        map.put(first, "first");
+        
+        Collection<String> values = map.values();
+        Map<UUID, String> snapshot = map.snapshot();
+        
+        map.put(UUID.randomUUID(), "second");
+        map.remove(first);
+        
+        assertEquals(1, values.size());
+        assertTrue(values.contains("first"));
+        assertEquals("first", snapshot.get(first));
+        assertFalse(map.values().contains("first"));
+    }
+    
+    public void testIterateWhileWriting() {
+        for (int i = 0; i < 100; i++) {
+            map.put(UUID.randomUUID(), Integer.toString(i));
+        }
+        
+        int seen = 0;
+        for (String value : map.values()) {
+            // would throw ConcurrentModificationException on a live HashMap view
+            map.put(UUID.randomUUID(), value + "'");
+            seen++;
+        }
+        assertEquals(100, seen);
+        assertEquals(200, map.size());
+    }
+    
+    public void testSnapshotsAreUnmodifiable() {
+        map.put(UUID.randomUUID(), "a");
+        try {
+            map.values().clear();
+            fail("Snapshot values should be unmodifiable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+    
+    public void testBatchesPublishOnce() {
+        HashMap<UUID, String> batch = new HashMap<UUID, String>();
+        for (int i = 0; i < 10; i++) {
+            batch.put(UUID.randomUUID(), Integer.toString(i));
+        }
+        
+        long before = map.getVersion();
+        map.putAll(batch);
+        assertEquals(before + 1, map.getVersion());
+        assertEquals(10, map.size());
+        
+        ArrayList<UUID> ids = new ArrayList<UUID>(batch.keySet());
+        ids.add(UUID.randomUUID());
+        assertEquals(10, map.removeAll(ids));
+        assertEquals(before + 2, map.getVersion());
+        assertEquals(0, map.size());
+    }
+    
+    public void testNoOpWritesDoNotPublish() {
+        long before = map.getVersion();
+        map.remove(UUID.randomUUID());
+        map.putAll(new HashMap<UUID, String>());
+        map.removeAll(new ArrayList<UUID>());
+        assertEquals(before, map.getVersion());
+    }
+    
+    public void testSnapshotSharedUntilWrite() {
+        map.put(UUID.randomUUID(), "a");
+        Map<UUID, String> snapshot = map.snapshot();
+        assertSame(snapshot, map.snapshot());
+        
+        map.put(UUID.randomUUID(), "b");
+        assertTrue(snapshot != map.snapshot());
+        assertEquals(1, snapshot.size());
+        assertEquals(2, map.snapshot().size());
+    }
+    
+    public void testManySinglePuts() {
+        // each put must not copy the map, or this takes minutes
+        for (int i = 0; i < 50000; i++) {
+            map.put(UUID.randomUUID(), "v");
+        }
+        assertEquals(50000, map.size());
+        assertEquals(50000, map.values().size());
+        assertEquals(50000, map.getVersion());
+    }
+    
+    public void testConcurrentWritersAndReaders() throws InterruptedException {
+        final int perWriter = 500;
+        Thread[] writers = new Thread[4];
+        for (int w = 0; w < writers.length; w++) {
+            writers[w] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perWriter; i++) {
+                        map.put(UUID.randomUUID(), "v");
+                    }
+                }
+            };
+            writers[w].start();
+        }
+        
+        // readers never see a broken map while the writers run
+        while (map.size() < perWriter * writers.length) {
+            int count = 0;
+            for (String value : map.values()) {
+                assertEquals("v", value);
+                count++;
+            }
+            assertTrue(count <= perWriter * writers.length);
+            
+            boolean running = false;
+            for (Thread writer : writers) running |= writer.isAlive();
+            if (!running) break;
+        }
+        
+        for (Thread writer : writers) writer.join();
+        assertEquals(perWriter * writers.length, map.size());
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.test.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.UUID;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import cmput301w15t07.TravelTracker.serverinterface.Constants.Type;
+import cmput301w15t07.TravelTracker.util.Tombstone;
+import cmput301w15t07.TravelTracker.util.TombstoneStore;
+
+public class TombstoneStoreTest extends InstrumentationTestCase {
+
+    final String TEST_FILENAME = "TEST_TOMBSTONES";
+    final long HORIZON = 60000;
+    
+    Context ctx;
+    TombstoneStore store;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        ctx = getInstrumentation().getTargetContext().getApplicationContext();
+        ctx.deleteFile(TEST_FILENAME);
+        store = new TombstoneStore(TEST_FILENAME, ctx, HORIZON);
+    }
+    
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        
+        ctx.deleteFile(TEST_FILENAME);
+    }
+    
+    public void testPersistence() {
+        Tombstone claim = new Tombstone(UUID.randomUUID(), Type.CLAIM, new Date());
+        Tombstone item = new Tombstone(UUID.randomUUID(), Type.ITEM, new Date());
+        store.add(claim);
+        store.add(item);
+        store.confirm(Arrays.asList(item.getUUID()), new Date());
+        
+        TombstoneStore reloaded = new TombstoneStore(TEST_FILENAME, ctx, HORIZON);
+        assertEquals(2, reloaded.size());
+        assertEquals(1, reloaded.pendingCount());
+        assertEquals(claim, reloaded.get(Type.CLAIM).get(0));
+        assertTrue(reloaded.get(Type.ITEM).get(0).isConfirmed());
+        assertEquals(0, reloaded.get(Type.TAG).size());
+    }
+    
+    public void testNewerDeletionWins() {
+        UUID id = UUID.randomUUID();
+        Tombstone older = new Tombstone(id, Type.TAG, new Date(1000));
+        Tombstone newer = new Tombstone(id, Type.TAG, new Date(2000));
+        store.add(newer);
+        store.add(older);
+        
+        assertEquals(1, store.size());
+        assertEquals(newer, store.get(Type.TAG).get(0));
+        // the ignored older deletion is not even logged
+        assertEquals(1, store.logSize());
+    }
+    
+    public void testGarbageCollection() {
+        Tombstone expired = new Tombstone(UUID.randomUUID(), Type.CLAIM, new Date());
+        Tombstone recent = new Tombstone(UUID.randomUUID(), Type.CLAIM, new Date());
+        Tombstone unconfirmed = new Tombstone(UUID.randomUUID(), Type.CLAIM, new Date(0));
+        store.addAll(Arrays.asList(expired, recent, unconfirmed));
+        
+        Date now = new Date();
+        store.confirm(Arrays.asList(expired.getUUID()), new Date(now.getTime() - 2 * HORIZON));
+        store.confirm(Arrays.asList(recent.getUUID()), now);
+        
+        assertEquals(1, store.collectGarbage(now));
+        assertEquals(2, store.size());
+        assertFalse(store.contains(expired.getUUID()));
+        assertTrue(store.contains(recent.getUUID()));
+        assertTrue(store.contains(unconfirmed.getUUID()));
+        
+        // collection compacts the log
+        assertEquals(2, store.logSize());
+        assertEquals(2, new TombstoneStore(TEST_FILENAME, ctx, HORIZON).size());
+    }
+    
+    public void testDiscard() {
+        Tombstone tombstone = new Tombstone(UUID.randomUUID(), Type.USER, new Date());
+        store.add(tombstone);
+        store.discard(new ArrayList<Tombstone>(Arrays.asList(tombstone)));
+        assertEquals(0, store.size());
+        
+        store.collectGarbage(new Date());
+        assertEquals(0, new TombstoneStore(TEST_FILENAME, ctx, HORIZON).size());
+    }
+}
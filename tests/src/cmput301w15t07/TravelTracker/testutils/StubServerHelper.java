@@ -0,0 +1,274 @@
+/*
+ *   Copyright 2015 Kirby Banman,
+ *                  Stuart Bildfell,
+ *                  Elliot Colp,
+ *                  Christian Ellinger,
+ *                  Braedy Kuzma,
+ *                  Ryan Thornhill
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package cmput301w15t07.TravelTracker.testutils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import cmput301w15t07.TravelTracker.model.Claim;
+import cmput301w15t07.TravelTracker.model.ClaimDetails;
+import cmput301w15t07.TravelTracker.model.Document;
+import cmput301w15t07.TravelTracker.model.Item;
+import cmput301w15t07.TravelTracker.model.Tag;
+import cmput301w15t07.TravelTracker.model.User;
+import cmput301w15t07.TravelTracker.serverinterface.PageCallback;
+import cmput301w15t07.TravelTracker.serverinterface.ServerHelper;
+import cmput301w15t07.TravelTracker.serverinterface.Constants.Type;
+
+/**
+ * In memory stand in for a remote server.  Stores copies of documents by UUID, and serves
+ * copies of those, as documents sent over the network would be.  Can be told to reject
+ * particular documents, and counts the requests it serves.
+ *
+ * @author kdbanman
+ *
+ */
+public class StubServerHelper implements ServerHelper {
+
+    private Map<UUID, Document> stored = Collections.synchronizedMap(new LinkedHashMap<UUID, Document>());
+
+    private Set<UUID> rejected = Collections.synchronizedSet(new HashSet<UUID>());
+
+    /** Run before each save or update is accepted, or null. */
+    private volatile Runnable beforeSave = null;
+
+    private volatile int claimReads = 0;
+
+    /**
+     * Make the server reject every later save, update, or deletion of a document.
+     */
+    public void reject(UUID id) {
+        rejected.add(id);
+    }
+
+    /**
+     * @param hook Run on the saving thread before each save or update, or null for none.
+     */
+    public void setBeforeSave(Runnable hook) {
+        beforeSave = hook;
+    }
+
+    /**
+     * @return Whether the document was accepted by a save or update.
+     */
+    public boolean isStored(UUID id) {
+        return stored.containsKey(id);
+    }
+
+    /**
+     * @return The stored copy of the document, to change as another client would, or null.
+     */
+    public Document getStored(UUID id) {
+        return stored.get(id);
+    }
+
+    /**
+     * @return The number of getClaims(user) requests served.
+     */
+    public int getClaimReadCount() {
+        return claimReads;
+    }
+
+    private <T extends Document> Collection<T> accept(Collection<T> documents) {
+        Runnable hook = beforeSave;
+        if (hook != null) hook.run();
+
+        ArrayList<T> accepted = new ArrayList<T>();
+        for (T d : documents) {
+            if (rejected.contains(d.getUUID())) continue;
+            stored.put(d.getUUID(), d.copy());
+            accepted.add(d);
+        }
+        return accepted;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Document> Collection<T> ofType(Type type) {
+        ArrayList<T> found = new ArrayList<T>();
+        synchronized (stored) {
+            for (Document d : stored.values()) {
+                if (d.getType() == type) found.add((T) d.copy());
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public <T extends Document> Collection<T> deleteDocuments(Collection<T> documents) throws Exception {
+        ArrayList<T> deleted = new ArrayList<T>();
+        for (T d : documents) {
+            if (rejected.contains(d.getUUID())) continue;
+            stored.remove(d.getUUID());
+            deleted.add(d);
+        }
+        return deleted;
+    }
+
+    @Override
+    public Collection<UUID> deleteDocuments(Type type, Collection<UUID> ids) throws Exception {
+        ArrayList<UUID> deleted = new ArrayList<UUID>();
+        for (UUID id : ids) {
+            if (rejected.contains(id)) continue;
+            stored.remove(id);
+            deleted.add(id);
+        }
+        return deleted;
+    }
+
+    @Override
+    public Collection<Claim> getAllClaims() throws Exception {
+        return this.<Claim>ofType(Type.CLAIM);
+    }
+
+    @Override
+    public Collection<Item> getAllItems() throws Exception {
+        return this.<Item>ofType(Type.ITEM);
+    }
+
+    @Override
+    public Collection<Tag> getAllTags() throws Exception {
+        return this.<Tag>ofType(Type.TAG);
+    }
+
+    @Override
+    public Collection<User> getAllUsers() throws Exception {
+        return this.<User>ofType(Type.USER);
+    }
+
+    @Override
+    public <T extends Document> Collection<T> getChangedSince(Type type, Date since) throws Exception {
+        ArrayList<T> changed = new ArrayList<T>();
+        for (T d : this.<T>ofType(type)) {
+            if (since == null || !d.getLastChanged().before(since)) changed.add(d);
+        }
+        return changed;
+    }
+
+    @Override
+    public <T extends Document> void getChangedSince(Type type, Date since, PageCallback<T> callback) throws Exception {
+        callback.onPage(this.<T>getChangedSince(type, since));
+    }
+
+    @Override
+    public Collection<Claim> getClaims(UUID user) throws Exception {
+        claimReads++;
+        ArrayList<Claim> found = new ArrayList<Claim>();
+        for (Claim c : this.<Claim>ofType(Type.CLAIM)) {
+            if (user.equals(c.getUser())) found.add(c);
+        }
+        return found;
+    }
+
+    @Override
+    public Collection<Item> getExpenses(UUID claim) throws Exception {
+        ArrayList<Item> found = new ArrayList<Item>();
+        for (Item i : this.<Item>ofType(Type.ITEM)) {
+            if (claim.equals(i.getClaim())) found.add(i);
+        }
+        return found;
+    }
+
+    @Override
+    public Collection<Item> getExpenses(Collection<UUID> claims) throws Exception {
+        ArrayList<Item> found = new ArrayList<Item>();
+        for (Item i : this.<Item>ofType(Type.ITEM)) {
+            if (claims.contains(i.getClaim())) found.add(i);
+        }
+        return found;
+    }
+
+    @Override
+    public Collection<Tag> getTags(UUID user) throws Exception {
+        ArrayList<Tag> found = new ArrayList<Tag>();
+        for (Tag t : this.<Tag>ofType(Type.TAG)) {
+            if (user.equals(t.getUser())) found.add(t);
+        }
+        return found;
+    }
+
+    @Override
+    public User getUser(String name) throws Exception {
+        for (User u : this.<User>ofType(Type.USER)) {
+            if (name.equals(u.getUserName())) return u;
+        }
+        return null;
+    }
+
+    @Override
+    public User getUser(UUID user) throws Exception {
+        return this.<User>getDocument(Type.USER, user);
+    }
+
+    /**
+     * Claim details are not stored separately, so this reports a connection failure.
+     */
+    @Override
+    public ClaimDetails getClaimDetails(UUID claim) throws Exception {
+        throw new IOException("Stub server has no claim details");
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T extends Document> T getDocument(Type type, UUID id) throws Exception {
+        Document d = stored.get(id);
+        return (d != null && d.getType() == type) ? (T) d.copy() : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T extends Document> Collection<T> getDocuments(Type type, Collection<UUID> ids) throws Exception {
+        ArrayList<T> found = new ArrayList<T>();
+        for (UUID id : ids) {
+            Document d = stored.get(id);
+            if (d != null && d.getType() == type) found.add((T) d.copy());
+        }
+        return found;
+    }
+
+    @Override
+    public <T extends Document> Collection<T> saveDocuments(Collection<T> documents) throws Exception {
+        return accept(documents);
+    }
+
+    @Override
+    public <T extends Document> Collection<T> updateDocuments(Collection<T> documents, Map<UUID, Set<String>> fields) throws Exception {
+        ArrayList<T> known = new ArrayList<T>();
+        for (T d : documents) {
+            if (stored.containsKey(d.getUUID())) known.add(d);
+        }
+        return accept(known);
+    }
+
+    @Override
+    public boolean startCycle() {
+        return true;
+    }
+
+}